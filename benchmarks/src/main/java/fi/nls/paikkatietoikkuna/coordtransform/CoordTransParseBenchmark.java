@@ -0,0 +1,96 @@
+package fi.nls.paikkatietoikkuna.coordtransform;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Parsing a CoordTrans response (CoordTransService.parseResponse)
+ * compared to the previous String.split based implementation
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CoordTransParseBenchmark {
+
+    @Param({ "100", "10000" })
+    public int numCoords;
+
+    @Param({ "2", "3" })
+    public int dimension;
+
+    private byte[] response;
+    private List<Coordinate> coords;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        coords = new ArrayList<>(numCoords);
+        for (int i = 0; i < numCoords; i++) {
+            if (i > 0) {
+                sb.append(';');
+            }
+            // Projected coordinates with mm precision, like the responses of the service
+            sb.append(CoordTransService.round(200000 + r.nextDouble() * 600000, 3));
+            sb.append(',').append(CoordTransService.round(6600000 + r.nextDouble() * 1200000, 3));
+            if (dimension == 3) {
+                sb.append(',').append(CoordTransService.round(r.nextDouble() * 1000, 3));
+            }
+            coords.add(new Coordinate());
+        }
+        response = sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public List<Coordinate> parseBytes() {
+        CoordTransService.parseResponse(response, coords, dimension);
+        return coords;
+    }
+
+    @Benchmark
+    public List<Coordinate> parseSplit() {
+        parseResponseSplit(response, coords, dimension);
+        return coords;
+    }
+
+    /**
+     * The implementation before the byte level parser
+     */
+    private static void parseResponseSplit(byte[] resp, List<Coordinate> coords, final int dimension) {
+        if (resp[0] == 'V') {
+            throw new IllegalArgumentException(new String(resp, 7, resp.length - 7, StandardCharsets.UTF_8));
+        }
+        String response = new String(resp, StandardCharsets.US_ASCII);
+        String[] coordinates = response.split(";");
+        for (int i = 0; i < coordinates.length; i++) {
+            Coordinate coord = coords.get(i);
+            String[] coordinateParts = coordinates[i].split(",");
+            coord.x = Double.parseDouble(coordinateParts[0]);
+            coord.y = Double.parseDouble(coordinateParts[1]);
+            if (dimension == 3) {
+                coord.z = Double.parseDouble(coordinateParts[2]);
+            }
+        }
+    }
+
+}
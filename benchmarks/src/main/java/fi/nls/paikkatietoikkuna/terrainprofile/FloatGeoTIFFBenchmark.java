@@ -0,0 +1,61 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding GetCoverage responses, both when every value is read (cached
+ * tiles are copied as a whole) and when only the cells under a route are
+ * read (subsets requested along the route)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FloatGeoTIFFBenchmark {
+
+    @Param({ "128", "1024" })
+    public int size;
+
+    private byte[] tiff;
+
+    @Setup
+    public void setup() {
+        tiff = GeoTIFFFixtures.createTIFF(size, size, 256,
+                StubWCS.ORIGIN_EAST, StubWCS.ORIGIN_NORTH, StubWCS.CELL_SIZE);
+    }
+
+    @Benchmark
+    public FloatGeoTIFF open() {
+        return new FloatGeoTIFF(tiff);
+    }
+
+    @Benchmark
+    public DemTile copyAll() {
+        return DemTile.copyOf(new FloatGeoTIFF(tiff), size, size, Float.NaN);
+    }
+
+    @Benchmark
+    public float readDiagonal() {
+        FloatGeoTIFF raster = new FloatGeoTIFF(tiff);
+        float sum = 0.0f;
+        for (int i = 0; i < size; i++) {
+            sum += raster.getValue(i, i);
+        }
+        return sum;
+    }
+
+}
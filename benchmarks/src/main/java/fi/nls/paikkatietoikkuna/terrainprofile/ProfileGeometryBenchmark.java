@@ -0,0 +1,85 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resampling the route (TerrainProfileService.interpolate) and computing
+ * the grid cells and distances of the points (TerrainProfileService.setPoints)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProfileGeometryBenchmark {
+
+    @Param({ "100", "1000" })
+    public int numPoints;
+
+    private double[] route;
+    private double[] coordinates;
+    private TerrainProfileService tps;
+    private TerrainProfile profile;
+
+    @Setup
+    public void setup() {
+        route = Routes.zigZag(StubWCS.ORIGIN_EAST + 1000, StubWCS.ORIGIN_NORTH - 1000, 25, 600, 400);
+        coordinates = TerrainProfileService.interpolate(route, numPoints);
+        tps = new TerrainProfileService(new NoOpElevationSource(), null, 0L);
+        profile = new TerrainProfile(numPoints);
+    }
+
+    @Benchmark
+    public double[] interpolate() {
+        return TerrainProfileService.interpolate(route, numPoints);
+    }
+
+    @Benchmark
+    public TerrainProfile setPoints() {
+        tps.setPoints(profile, coordinates, 512, StubWCS.CELL_SIZE, -StubWCS.CELL_SIZE);
+        return profile;
+    }
+
+    private static class NoOpElevationSource implements ElevationSource {
+
+        public double getOriginEast() {
+            return StubWCS.ORIGIN_EAST;
+        }
+
+        public double getOriginNorth() {
+            return StubWCS.ORIGIN_NORTH;
+        }
+
+        public double getOffsetVectorX() {
+            return StubWCS.CELL_SIZE;
+        }
+
+        public double getOffsetVectorY() {
+            return -StubWCS.CELL_SIZE;
+        }
+
+        public float getNoData() {
+            return Float.NaN;
+        }
+
+        public void setAltitudes(int tileX, int tileY, TerrainProfile points, int[] indices, int from, int to,
+                int tileSize, double scaleFactor, Interpolation interpolation) {
+            // Not used
+        }
+
+    }
+
+}
@@ -0,0 +1,85 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Serializing a profile as GeoJSON (TerrainProfileHandler.writeMultiPointFeature)
+ * and in the compact binary format
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProfileWriterBenchmark {
+
+    @Param({ "100", "1000" })
+    public int numPoints;
+
+    private final JsonFactory jf = new JsonFactory();
+    private final ByteArrayOutputStream baos = new ByteArrayOutputStream(64 * 1024);
+    private TerrainProfile profile;
+
+    @Setup
+    public void setup() {
+        double[] route = Routes.line(StubWCS.ORIGIN_EAST + 1000, StubWCS.ORIGIN_NORTH - 1000,
+                StubWCS.ORIGIN_EAST + 9000, StubWCS.ORIGIN_NORTH - 7000);
+        double[] coordinates = TerrainProfileService.interpolate(route, numPoints);
+        profile = new TerrainProfile(numPoints);
+        double dist = 0.0;
+        for (int i = 0; i < numPoints; i++) {
+            double e = coordinates[i * 2];
+            double n = coordinates[i * 2 + 1];
+            if (i > 0) {
+                dist += GeomUtil.getDistance(e, n, coordinates[i * 2 - 2], coordinates[i * 2 - 1]);
+            }
+            profile.setPoint(i, e, n, dist);
+            profile.setAltitude(i, GeoTIFFFixtures.getAltitude(e, n));
+        }
+    }
+
+    @Benchmark
+    public int writeGeoJSON() throws IOException {
+        baos.reset();
+        try (JsonGenerator json = jf.createGenerator(baos)) {
+            TerrainProfileHandler.writeMultiPointFeature(profile, json, Float.NaN);
+        }
+        return baos.size();
+    }
+
+    @Benchmark
+    public int writeGeoJSONGzip() throws IOException {
+        baos.reset();
+        try (JsonGenerator json = jf.createGenerator(new GZIPOutputStream(baos))) {
+            TerrainProfileHandler.writeMultiPointFeature(profile, json, Float.NaN);
+        }
+        return baos.size();
+    }
+
+    @Benchmark
+    public int writeBinary() throws IOException {
+        baos.reset();
+        CompactProfileWriter.write(profile, baos, Float.NaN, false);
+        return baos.size();
+    }
+
+}
@@ -0,0 +1,28 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+/**
+ * Routes used by the benchmarks, inside the extent of the stub coverage
+ */
+public class Routes {
+
+    /**
+     * @return route of numSegments segments heading east, alternating
+     *         between north-east and south-east
+     */
+    public static double[] zigZag(double e0, double n0, int numSegments, double dx, double dy) {
+        double[] route = new double[(numSegments + 1) * 2];
+        for (int i = 0; i <= numSegments; i++) {
+            route[i * 2] = e0 + i * dx;
+            route[i * 2 + 1] = n0 - (i % 2 == 0 ? 0 : dy);
+        }
+        return route;
+    }
+
+    /**
+     * @return straight route from (e0, n0) to (e1, n1)
+     */
+    public static double[] line(double e0, double n0, double e1, double n1) {
+        return new double[] { e0, n0, e1, n1 };
+    }
+
+}
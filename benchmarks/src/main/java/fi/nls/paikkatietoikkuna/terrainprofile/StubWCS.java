@@ -0,0 +1,188 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local WCS 2.0 stand-in for the benchmarks. GetCapabilities and DescribeCoverage
+ * are answered with the XML fixtures (src/main/resources/fixtures), GetCoverage
+ * with a tiled float32 GeoTIFF covering the requested subset. The GeoTIFFs are
+ * created once per distinct request and replayed from memory after that, so
+ * after warm-up the stub only adds the cost of the loopback HTTP round trip.
+ */
+public class StubWCS implements AutoCloseable {
+
+    public static final String COVERAGE_ID = "korkeusmalli__korkeusmalli";
+    // Must match DescribeCoverage.xml
+    public static final double ORIGIN_EAST = 300001.0;
+    public static final double ORIGIN_NORTH = 7199999.0;
+    public static final double CELL_SIZE = 2.0;
+
+    private static final String PATH = "/wcs";
+    private static final int TIFF_TILE_SIZE = 256;
+    private static final Pattern SUBSET = Pattern.compile("([EN])\\(([^,]+),([^)]+)\\)");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String endPoint;
+    private final byte[] capabilities;
+    private final byte[] describeCoverage;
+    private final ConcurrentMap<String, byte[]> coverages = new ConcurrentHashMap<>();
+    private final AtomicInteger getCoverageCount = new AtomicInteger();
+
+    public StubWCS() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        endPoint = "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+        capabilities = readFixture("GetCapabilities.xml", endPoint);
+        describeCoverage = readFixture("DescribeCoverage.xml", endPoint);
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "stub-wcs");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext(PATH, this::handle);
+        server.start();
+    }
+
+    public String getEndPoint() {
+        return endPoint;
+    }
+
+    public int getGetCoverageCount() {
+        return getCoverageCount.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String query = exchange.getRequestURI().getRawQuery();
+            Map<String, List<String>> params = parseQuery(query);
+            String request = getFirst(params, "request");
+            if ("GetCapabilities".equalsIgnoreCase(request)) {
+                send(exchange, 200, "application/xml", capabilities);
+            } else if ("DescribeCoverage".equalsIgnoreCase(request)) {
+                send(exchange, 200, "application/xml", describeCoverage);
+            } else if ("GetCoverage".equalsIgnoreCase(request)) {
+                getCoverageCount.incrementAndGet();
+                byte[] tiff = coverages.computeIfAbsent(query, k -> getCoverage(params));
+                send(exchange, 200, "image/tiff", tiff);
+            } else {
+                send(exchange, 400, "text/plain", ("Unknown request " + request).getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (RuntimeException e) {
+            send(exchange, 500, "text/plain", String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private byte[] getCoverage(Map<String, List<String>> params) {
+        double scaleFactor = 1.0;
+        String sf = getFirst(params, "scalefactor");
+        if (sf != null) {
+            scaleFactor = Double.parseDouble(sf);
+        }
+        double cellSize = CELL_SIZE / scaleFactor;
+
+        double[] e = null;
+        double[] n = null;
+        List<String> subsets = params.get("subset");
+        if (subsets != null) {
+            for (String subset : subsets) {
+                Matcher m = SUBSET.matcher(subset);
+                if (!m.matches()) {
+                    throw new IllegalArgumentException("Invalid subset " + subset);
+                }
+                double a = Double.parseDouble(m.group(2));
+                double b = Double.parseDouble(m.group(3));
+                double[] range = { Math.min(a, b), Math.max(a, b) };
+                if ("E".equals(m.group(1))) {
+                    e = range;
+                } else {
+                    n = range;
+                }
+            }
+        }
+        if (e == null || n == null) {
+            throw new IllegalArgumentException("Expected subsets for both E and N");
+        }
+
+        int width = Math.max(1, (int) Math.round((e[1] - e[0]) / cellSize));
+        int height = Math.max(1, (int) Math.round((n[1] - n[0]) / cellSize));
+        return GeoTIFFFixtures.createTIFF(width, height, TIFF_TILE_SIZE, e[0], n[1] - cellSize, cellSize);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, List<String>> parseQuery(String query)
+            throws UnsupportedEncodingException {
+        Map<String, List<String>> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String kvp : query.split("&")) {
+            int i = kvp.indexOf('=');
+            if (i <= 0) {
+                continue;
+            }
+            String key = URLDecoder.decode(kvp.substring(0, i), "UTF-8").toLowerCase();
+            String value = URLDecoder.decode(kvp.substring(i + 1), "UTF-8");
+            params.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        }
+        return params;
+    }
+
+    private static String getFirst(Map<String, List<String>> params, String key) {
+        List<String> values = params.get(key);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private static byte[] readFixture(String name, String endPoint) throws IOException {
+        try (InputStream in = StubWCS.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IOException("Missing fixture " + name);
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                baos.write(buf, 0, n);
+            }
+            String xml = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+            return xml.replace("${endPoint}", endPoint).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+}
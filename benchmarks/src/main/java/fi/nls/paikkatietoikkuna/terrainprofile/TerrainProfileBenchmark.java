@@ -0,0 +1,75 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.nls.oskari.service.ServiceException;
+
+/**
+ * Whole TerrainProfileService pipeline against the local stub WCS,
+ * including the GetCoverage round trips and GeoTIFF decoding
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TerrainProfileBenchmark {
+
+    private static final long MB = 1024 * 1024;
+
+    @Param({ "0", "128" })
+    public int cacheSizeMb;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    @Param({ "NEAREST", "BICUBIC" })
+    public Interpolation interpolation;
+
+    private StubWCS wcs;
+    private ExecutorService executor;
+    private TerrainProfileService tps;
+    private double[] route;
+
+    @Setup
+    public void setup() throws Exception {
+        wcs = new StubWCS();
+        DemTileCache cache = cacheSizeMb > 0 ? new DemTileCache(cacheSizeMb * MB) : null;
+        ElevationSource source = new WCSElevationSource(wcs.getEndPoint(),
+                StubWCS.COVERAGE_ID, cache, -9999.0f);
+        executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        tps = new TerrainProfileService(source, executor, 30000L);
+        // ~20km route crossing multiple tiles
+        route = Routes.zigZag(StubWCS.ORIGIN_EAST + 1000, StubWCS.ORIGIN_NORTH - 1000, 10, 2000, 3000);
+    }
+
+    @TearDown
+    public void teardown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        wcs.close();
+    }
+
+    @Benchmark
+    public TerrainProfile getTerrainProfile() throws ServiceException {
+        return tps.getTerrainProfile(route, 1000, 1.0, interpolation);
+    }
+
+}
@@ -0,0 +1,141 @@
+package fi.nls.paikkatietoikkuna.coordtransform;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import fi.nls.oskari.control.ActionException;
+import fi.nls.oskari.control.ActionParamsException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads the coordinates of an uploaded coordinate file a chunk at a time
+ * so that a large file never has to be held in memory as a whole.
+ * The header rows are read (and stored to the import settings) on construction.
+ */
+public class CoordTransFileReader implements Closeable {
+
+    private static final String DEGREE = "degree";
+
+    private final BufferedReader reader;
+    private final String coordSeparator;
+    private final int dimension;
+    private final boolean addZeroes;
+    private final boolean storeLineEnds;
+    private final boolean replaceCommas;
+    private final boolean prefixId;
+    private final String unit;
+    private final boolean transformUnit;
+    private final int xIndex;
+    private final int yIndex;
+    private final int zIndex;
+    private final int coordDimension;
+
+    /**
+     * @param coordSeparator
+     *      the actual separator, not the name of it
+     * @param storeLineEnds
+     *      store whatever follows the coordinates on each line
+     */
+    public CoordTransFileReader(BufferedReader reader, CoordTransFile options, String coordSeparator,
+            int dimension, boolean addZeroes, boolean storeLineEnds) throws IOException {
+        this.reader = reader;
+        this.coordSeparator = coordSeparator;
+        this.dimension = dimension;
+        this.addZeroes = addZeroes;
+        this.storeLineEnds = storeLineEnds;
+        this.replaceCommas = options.getDecimalSeparator() == ',';
+        this.prefixId = options.isPrefixId();
+        this.unit = options.getUnit();
+        this.transformUnit = unit != null && !unit.equals(DEGREE);
+
+        int offset = prefixId ? 1 : 0;
+        boolean flip = options.isAxisFlip();
+        this.xIndex = (flip ? 1 : 0) + offset;
+        this.yIndex = (flip ? 0 : 1) + offset;
+        this.zIndex = 2 + offset;
+        this.coordDimension = dimension + offset;
+
+        //skip row and store row as header row
+        String line;
+        for (int i = 0; i < options.getHeaderLineCount() && (line = reader.readLine()) != null; i++) {
+            options.addHeaderRow(line);
+        }
+    }
+
+    /**
+     * Read at most limit coordinates, appending them to coords and the
+     * ids (if the lines are prefixed with an id) and the line ends (if stored)
+     * to the respective lists
+     *
+     * @return number of coordinates read, 0 at the end of the file
+     */
+    public int read(List<Coordinate> coords, List<String> ids, List<String> lineEnds, int limit)
+            throws ActionException, IOException {
+        int n = 0;
+        String line;
+        while (n < limit && (line = reader.readLine()) != null) {
+            //skip empty lines
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            parseLine(line, coords, ids, lineEnds);
+            n++;
+        }
+        return n;
+    }
+
+    private void parseLine(String line, List<Coordinate> coordinates, List<String> ids, List<String> lineEnds)
+            throws ActionException {
+        //replace commas
+        if (replaceCommas) {
+            line = line.replace(',', '.');
+        }
+        String[] coords = line.split(coordSeparator);
+        if (coords.length < coordDimension) {
+            throw new ActionParamsException("Invalid coord in line: " + line, "invalid_coord_length");
+        }
+        double x, y, z;
+        try {
+            if (transformUnit) {
+                x = CoordTransService.transformUnitToDegree(coords[xIndex], unit);
+                y = CoordTransService.transformUnitToDegree(coords[yIndex], unit);
+            } else {
+                x = Double.valueOf(coords[xIndex]);
+                y = Double.valueOf(coords[yIndex]);
+            }
+            if (dimension == 3) {
+                z = Double.valueOf(coords[zIndex]);
+                coordinates.add(new Coordinate(x, y, z));
+            } else if (addZeroes) {
+                coordinates.add(new Coordinate(x, y, 0));
+            } else {
+                coordinates.add(new Coordinate(x, y));
+            }
+        } catch (NumberFormatException e) {
+            throw new ActionParamsException("Expected a number", e);
+        }
+        if (prefixId) {
+            ids.add(coords[0]);
+        }
+        if (storeLineEnds) {
+            StringBuilder lineEnd = new StringBuilder();
+            //add coordSeparator back if lineEnding string is slitted (e.g. coordSeparator is " ")
+            for (int i = coordDimension; i < coords.length; i++) {
+                if (i > coordDimension) {
+                    lineEnd.append(coordSeparator);
+                }
+                lineEnd.append(coords[i]);
+            }
+            lineEnds.add(lineEnd.toString());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
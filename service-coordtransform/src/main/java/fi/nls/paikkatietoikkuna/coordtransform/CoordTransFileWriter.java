@@ -0,0 +1,146 @@
+package fi.nls.paikkatietoikkuna.coordtransform;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import fi.nls.oskari.control.ActionException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes transformed coordinates in the format of the export settings.
+ * The coordinates can be written a chunk at a time, the running index
+ * (used as the id when the lines have no ids of their own) continues
+ * from one chunk to the next.
+ */
+public class CoordTransFileWriter {
+
+    private static final String DEGREE = "degree";
+
+    private final Writer out;
+    private final int dimension;
+    private final String lineSeparator;
+    private final String coordSeparator;
+    private final int decimals;
+    private final boolean replaceCommas;
+    private final boolean prefixId;
+    private final boolean flipAxis;
+    private final boolean writeCardinals;
+    private final boolean writeLineEndings;
+    private final String unit;
+    private final boolean transformUnit;
+    private final boolean writeHeader;
+    private int index;
+
+    /**
+     * @param lineSeparator
+     *      the actual line separator, not the name of it
+     * @param coordSeparator
+     *      the actual coordinate separator, not the name of it
+     */
+    public CoordTransFileWriter(Writer out, CoordTransFile opts, int dimension,
+            String lineSeparator, String coordSeparator) {
+        this.out = out;
+        this.dimension = dimension;
+        this.lineSeparator = lineSeparator;
+        this.coordSeparator = coordSeparator;
+        this.decimals = opts.getDecimalCount();
+        this.replaceCommas = opts.getDecimalSeparator() == ',';
+        this.prefixId = opts.isPrefixId();
+        this.flipAxis = opts.isAxisFlip();
+        this.writeCardinals = opts.isWriteCardinals();
+        this.writeLineEndings = opts.isWriteLineEndings();
+        this.unit = opts.getUnit();
+        this.transformUnit = unit != null && !unit.equals(DEGREE);
+        this.writeHeader = opts.isWriteHeader();
+    }
+
+    /**
+     * Write the header, if the export settings ask for one
+     */
+    public void writeHeader(String crs, List<String> headerRows) throws IOException {
+        if (!writeHeader) {
+            return;
+        }
+        // TODO: should we add only: Coordinate Reference System: KKJ
+        // if we want localized header then frontend should send header String instead of boolean
+        out.write("Coordinate Reference System:" + crs);
+        out.write(lineSeparator);
+        for (String headerRow : headerRows) {
+            out.write(headerRow);
+            out.write(lineSeparator);
+        }
+    }
+
+    /**
+     * @param ids
+     *      id of each coordinate, if empty (and ids are to be written) the running index is used
+     * @param lineEndings
+     *      line ending of each coordinate, if empty nothing is written after the coordinates
+     */
+    public void write(List<Coordinate> coords, List<String> ids, List<String> lineEndings)
+            throws ActionException, IOException {
+        boolean prefixWithIndex = prefixId && ids.isEmpty();
+        boolean writeEndings = writeLineEndings && !lineEndings.isEmpty();
+        String xCoord;
+        String yCoord;
+        String zCoord;
+        for (int i = 0; i < coords.size(); i++, index++) {
+            Coordinate coord = coords.get(i);
+            if (transformUnit) {
+                xCoord = CoordTransService.transformDegreeToUnit(coord.x, unit, decimals);
+                yCoord = CoordTransService.transformDegreeToUnit(coord.y, unit, decimals);
+            } else {
+                xCoord = CoordTransService.round(coord.x, decimals);
+                yCoord = CoordTransService.round(coord.y, decimals);
+            }
+            if (replaceCommas) {
+                xCoord = xCoord.replace('.', ',');
+                yCoord = yCoord.replace('.', ',');
+            }
+            //TODO: should we use also W, S for negative coordinates
+            if (writeCardinals) {
+                xCoord += "E";
+                yCoord += "N";
+            }
+            if (prefixWithIndex) {
+                out.write(index + coordSeparator);
+            } else if (prefixId) {
+                out.write(ids.get(i) + coordSeparator);
+            }
+            if (flipAxis) {
+                out.write(yCoord);
+                out.write(coordSeparator);
+                out.write(xCoord);
+            } else {
+                out.write(xCoord);
+                out.write(coordSeparator);
+                out.write(yCoord);
+            }
+            if (dimension == 3) {
+                zCoord = CoordTransService.round(coord.z, decimals);
+                if (replaceCommas) {
+                    zCoord = zCoord.replace('.', ',');
+                }
+                out.write(coordSeparator);
+                out.write(zCoord);
+            }
+            if (writeEndings) {
+                out.write(coordSeparator);
+                out.write(lineEndings.get(i));
+            }
+            out.write(lineSeparator);
+        }
+    }
+
+    /**
+     * Mark the file incomplete, for when the transformation fails after a part
+     * of the file has already been written
+     */
+    public void writeError(String message) throws IOException {
+        out.write("ERROR: transformation failed, the file is incomplete: " + message);
+        out.write(lineSeparator);
+    }
+
+}
@@ -2,34 +2,56 @@ package fi.nls.paikkatietoikkuna.coordtransform;
 
 import com.vividsolutions.jts.geom.Coordinate;
 
+/**
+ * Builds the parameters of a CoordTrans request, either as the URL of a GET
+ * request or as the form encoded body of a POST request. Coordinates are
+ * added until the length limit is reached, the caller then sends the batch,
+ * resets the builder and continues.
+ */
 public class CoordTransQueryBuilder {
 
     private static final int LENGTH_LIMIT = 7500;
     private static final char SEP_COORD = ';';
     private static final char SEP_COORD_PART = ',';
 
-    private final String endPoint;
-    private final String sourceCrs;
-    private final String targetCrs;
+    private final String prefix;
     private final int dimension;
+    private final int lengthLimit;
     private final StringBuilder sb;
     boolean firstCoordinate;
 
+    /**
+     * Builds GET URLs, limited to LENGTH_LIMIT characters
+     */
     public CoordTransQueryBuilder(String endPoint, String sourceCrs, String targetCrs, int dimension) {
-        this.endPoint = endPoint;
-        this.sourceCrs = sourceCrs;
-        this.targetCrs = targetCrs;
+        this(endPoint + '?' + getParams(sourceCrs, targetCrs), dimension, LENGTH_LIMIT);
+    }
+
+    private CoordTransQueryBuilder(String prefix, int dimension, int lengthLimit) {
+        this.prefix = prefix;
         this.dimension = dimension;
+        this.lengthLimit = lengthLimit;
         this.sb = new StringBuilder();
         reset();
     }
 
+    /**
+     * @param lengthLimit
+     *      maximum length of the body in characters
+     * @return builder of application/x-www-form-urlencoded POST bodies
+     */
+    public static CoordTransQueryBuilder forPostBody(String sourceCrs, String targetCrs,
+            int dimension, int lengthLimit) {
+        return new CoordTransQueryBuilder(getParams(sourceCrs, targetCrs), dimension, lengthLimit);
+    }
+
+    private static String getParams(String sourceCrs, String targetCrs) {
+        return "sourceCRS=" + sourceCrs + "&targetCRS=" + targetCrs + "&coords=";
+    }
+
     public void reset() {
         sb.setLength(0);
-        sb.append(endPoint);
-        sb.append("?sourceCRS=").append(sourceCrs);
-        sb.append("&targetCRS=").append(targetCrs);
-        sb.append("&coords=");
+        sb.append(prefix);
         firstCoordinate = true;
     }
 
@@ -43,7 +65,7 @@ public class CoordTransQueryBuilder {
             sb.append(SEP_COORD_PART).append(c.z);
         }
         firstCoordinate = false;
-        if (sb.length() >= LENGTH_LIMIT) {
+        if (sb.length() >= lengthLimit) {
             sb.setLength(len);
             return false;
         }
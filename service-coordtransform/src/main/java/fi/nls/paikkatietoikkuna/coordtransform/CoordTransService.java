@@ -15,8 +15,18 @@ import java.util.List;
  */
 public class CoordTransService {
 
-    private static final String SEP_COORD = ";";
-    private static final String SEP_COORD_PART = ",";
+    private static final byte SEP_COORD = ';';
+    private static final byte SEP_COORD_PART = ',';
+    private static final String ERROR_PREFIX = "Virhe: ";
+    // Fits in a long, more digits than this make the value inexact anyway
+    private static final int MAX_DIGITS = 18;
+    // Integers up to 2^53 and powers of ten up to 10^22 are exact doubles
+    private static final long MAX_EXACT_SIGNIFICAND = 1L << 53;
+    private static final int MAX_EXACT_EXP10 = 22;
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
     private static final String GRADIAN = "gradian";
     private static final String RADIAN = "radian";
     private static final MathContext DECIMAL_PRECISION = MathContext.DECIMAL128; //DECIMAL64 -> 16 decimals, DECIMAL128 -> 34 decimals
@@ -26,25 +36,281 @@ public class CoordTransService {
     private static final BigDecimal DEC_TO_GRAD = BigDecimal.TEN.divide(new BigDecimal(9), DECIMAL_PRECISION);
     private static final BigDecimal DEC_TO_RAD = PI2.divide(new BigDecimal(360), DECIMAL_PRECISION);
 
+    // Double precision fast path of the unit conversions, the nearest doubles of the constants above
+    private static final double DEG_TO_GRAD = DEC_TO_GRAD.doubleValue();
+    private static final double DEG_TO_RAD = DEC_TO_RAD.doubleValue();
+    private static final double GRAD_TO_DEG = BigDecimal.ONE.divide(DEC_TO_GRAD, DECIMAL_PRECISION).doubleValue();
+    private static final double RAD_TO_DEG = BigDecimal.ONE.divide(DEC_TO_RAD, DECIMAL_PRECISION).doubleValue();
+    // At most four roundings (each <= 2^-53 relative) in the fast path, bound them with a margin
+    private static final double FAST_MAX_RELATIVE_ERROR = 0x1p-50;
+    // With more decimals the rounding is too often undecidable in double precision
+    private static final int FAST_MAX_DECIMALS = 10;
+    // Scaled values stay well below 2^52 so that the integer and the fraction parts are exact
+    private static final double FAST_MAX_SCALED = 0x1p50;
+    // Keep away from subnormals (where the roundings are not relative)
+    private static final double FAST_MIN_VALUE = 1e-200;
+    // Minutes and seconds of larger values are affected by BigDecimal rounding the degrees to 34 digits
+    private static final double FAST_MAX_DEGREES = 1000;
+
+    /**
+     * Parse the response of the CoordTrans service ("x,y[,z];x,y[,z];...")
+     * and set the values to coords in place. Walks the bytes once and parses
+     * the numbers directly from them, see {@link #parseDouble(byte[], int, int)}
+     *
+     * @throws IllegalArgumentException if the service responded with an error
+     *         or the response could not be parsed
+     */
     public static void parseResponse(byte[] resp, List<Coordinate> coords, final int dimension) {
-        if (resp[0] == 'V') {
-            // "Virhe: " - send only the part after prefix
-            throw new IllegalArgumentException(new String(resp, 7, resp.length - 7, StandardCharsets.UTF_8));
-        }
-
-        String response = new String(resp, StandardCharsets.US_ASCII);
-        String[] coordinates = response.split(SEP_COORD);
-        for (int i = 0; i < coordinates.length; i++) {
-            Coordinate coord = coords.get(i);
-            String[] coordinateParts = coordinates[i].split(SEP_COORD_PART);
-            coord.x = Double.parseDouble(coordinateParts[0]);
-            coord.y = Double.parseDouble(coordinateParts[1]);
+        if (resp.length > 0 && resp[0] == 'V') {
+            // "Virhe: " - send only the part after prefix, or all of it if it's too short to have one
+            int from = resp.length > ERROR_PREFIX.length() ? ERROR_PREFIX.length() : 0;
+            throw new IllegalArgumentException(new String(resp, from, resp.length - from, StandardCharsets.UTF_8));
+        }
+
+        int end = resp.length;
+        while (end > 0 && resp[end - 1] <= ' ') {
+            end--;
+        }
+        int pos = 0;
+        int i = 0;
+        while (pos < end) {
+            if (i >= coords.size()) {
+                throw new IllegalArgumentException("More coordinates in response than requested");
+            }
+            Coordinate coord = coords.get(i++);
+            int sep = nextSeparator(resp, pos, end);
+            coord.x = parseDouble(resp, pos, sep);
+            pos = nextPart(resp, sep, end);
+            sep = nextSeparator(resp, pos, end);
+            coord.y = parseDouble(resp, pos, sep);
             if (dimension == 3) {
-                coord.z = Double.parseDouble(coordinateParts[2]);
+                pos = nextPart(resp, sep, end);
+                sep = nextSeparator(resp, pos, end);
+                coord.z = parseDouble(resp, pos, sep);
+            }
+            // Skip any extra parts of the coordinate
+            while (sep < end && resp[sep] != SEP_COORD) {
+                sep = nextSeparator(resp, sep + 1, end);
             }
+            pos = sep + 1;
+        }
+        if (i < coords.size()) {
+            throw new IllegalArgumentException("Fewer coordinates in response than requested");
+        }
+    }
+
+    private static int nextSeparator(byte[] b, int from, int to) {
+        int i = from;
+        while (i < to && b[i] != SEP_COORD && b[i] != SEP_COORD_PART) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int nextPart(byte[] b, int sep, int to) {
+        if (sep >= to || b[sep] != SEP_COORD_PART) {
+            throw new IllegalArgumentException("Missing coordinate value in response");
         }
+        return sep + 1;
     }
+
+    /**
+     * Parse a decimal number from b[from, to) without creating a String.
+     * Values with at most 2^53 as the significand and a decimal exponent
+     * within +-22 (which covers the responses of the service) are computed
+     * with a single multiplication or division of two exactly representable
+     * doubles, so the result is the correctly rounded value, same as
+     * Double.parseDouble. Anything else is delegated to Double.parseDouble.
+     *
+     * @throws NumberFormatException if the bytes are not a number
+     */
+    static double parseDouble(byte[] b, int from, int to) {
+        int i = from;
+        int end = to;
+        while (i < end && b[i] <= ' ') {
+            i++;
+        }
+        while (end > i && b[end - 1] <= ' ') {
+            end--;
+        }
+        boolean negative = false;
+        if (i < end && (b[i] == '-' || b[i] == '+')) {
+            negative = b[i] == '-';
+            i++;
+        }
+
+        long significand = 0;
+        int significantDigits = 0;
+        int exp10 = 0;
+        boolean digits = false;
+        boolean exact = true;
+        for (; i < end && b[i] >= '0' && b[i] <= '9'; i++) {
+            digits = true;
+            if (significantDigits < MAX_DIGITS) {
+                significand = significand * 10 + (b[i] - '0');
+                if (significand != 0) {
+                    significantDigits++;
+                }
+            } else {
+                exact &= b[i] == '0';
+                exp10++;
+            }
+        }
+        if (i < end && b[i] == '.') {
+            for (i++; i < end && b[i] >= '0' && b[i] <= '9'; i++) {
+                digits = true;
+                if (significantDigits < MAX_DIGITS) {
+                    significand = significand * 10 + (b[i] - '0');
+                    if (significand != 0) {
+                        significantDigits++;
+                    }
+                    exp10--;
+                } else {
+                    exact &= b[i] == '0';
+                }
+            }
+        }
+        if (digits && i < end && (b[i] == 'e' || b[i] == 'E')) {
+            i++;
+            boolean negativeExp = false;
+            if (i < end && (b[i] == '-' || b[i] == '+')) {
+                negativeExp = b[i] == '-';
+                i++;
+            }
+            int exp = 0;
+            boolean expDigits = false;
+            for (; i < end && b[i] >= '0' && b[i] <= '9'; i++) {
+                expDigits = true;
+                if (exp < 10000) {
+                    exp = exp * 10 + (b[i] - '0');
+                }
+            }
+            digits = expDigits;
+            exp10 += negativeExp ? -exp : exp;
+        }
+
+        if (!digits || i != end || !exact) {
+            // NaN, Infinity, too many digits or not a number at all
+            return parseDoubleSlow(b, from, to);
+        }
+        if (significand == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+        while (significand > MAX_EXACT_SIGNIFICAND && significand % 10 == 0) {
+            significand /= 10;
+            exp10++;
+        }
+        if (significand > MAX_EXACT_SIGNIFICAND || exp10 < -MAX_EXACT_EXP10 || exp10 > MAX_EXACT_EXP10) {
+            return parseDoubleSlow(b, from, to);
+        }
+        double value = exp10 < 0
+                ? significand / POW10[-exp10]
+                : significand * POW10[exp10];
+        return negative ? -value : value;
+    }
+
+    private static double parseDoubleSlow(byte[] b, int from, int to) {
+        return Double.parseDouble(new String(b, from, to - from, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Values are computed in double precision with a relative error below 2^-50
+     * (a few ulps) compared to the exact BigDecimal computation. Inputs the
+     * fast path doesn't handle (negative sexagesimal parts, anything but plain
+     * decimal numbers) are computed with BigDecimal.
+     */
     public static double transformUnitToDegree (String coord, String unit) throws ActionException{
+        double value;
+        try {
+            value = transformUnitToDegreeFast(coord.trim(), unit);
+        } catch (NumberFormatException e) {
+            // Let the exact path report the error
+            value = Double.NaN;
+        }
+        double abs = Math.abs(value);
+        if (abs < Double.POSITIVE_INFINITY && (abs == 0 || abs >= FAST_MIN_VALUE)) {
+            return value;
+        }
+        return transformUnitToDegreeExact(coord, unit);
+    }
+
+    /**
+     * @return the value in degrees or NaN if the value should be computed exactly
+     */
+    static double transformUnitToDegreeFast (String coord, String unit) {
+        if (!isPlainDecimal(coord, unit)) {
+            return Double.NaN;
+        }
+        if (GRADIAN.equals(unit)) {
+            return Double.parseDouble(coord) * GRAD_TO_DEG;
+        } else if (RADIAN.equals(unit)) {
+            return Double.parseDouble(coord) * RAD_TO_DEG;
+        }
+
+        double dd;
+        double mm;
+        double ss = 0.0;
+        switch (unit) {
+            case "DDMM":
+                dd = Double.parseDouble(coord.substring(0, 2));
+                mm = Double.parseDouble(coord.substring(2));
+                break;
+            case "DD MM":
+                dd = Double.parseDouble(coord.substring(0, 2));
+                mm = Double.parseDouble(coord.substring(3));
+                break;
+            case "DDMMSS":
+                dd = Double.parseDouble(coord.substring(0, 2));
+                mm = Double.parseDouble(coord.substring(2, 4));
+                ss = Double.parseDouble(coord.substring(4));
+                break;
+            case "DD MM SS":
+                dd = Double.parseDouble(coord.substring(0, 2));
+                mm = Double.parseDouble(coord.substring(3, 5));
+                ss = Double.parseDouble(coord.substring(6));
+                break;
+            default:
+                return Double.NaN;
+        }
+        // Relative error bound holds only if there's no cancellation
+        if (!(dd >= 0 && mm >= 0 && ss >= 0)) {
+            return Double.NaN;
+        }
+        return dd + (mm / 60.0 + ss / 3600.0);
+    }
+
+    /**
+     * Accept only what both Double.parseDouble and BigDecimal accept
+     * (no NaN, Infinity, hex or type suffixes). Double.parseDouble trims its input
+     * so spaces are only allowed where the unit separates degrees, minutes and seconds,
+     * anywhere else they'd misplace the fixed width parts.
+     */
+    private static boolean isPlainDecimal (String coord, String unit) {
+        for (int i = 0; i < coord.length(); i++) {
+            char c = coord.charAt(i);
+            if (c == ' ') {
+                if (!isUnitSeparator(unit, i)) {
+                    return false;
+                }
+            } else if ((c < '0' || c > '9') && c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isUnitSeparator (String unit, int i) {
+        switch (unit) {
+            case "DD MM":
+                return i == 2;
+            case "DD MM SS":
+                return i == 2 || i == 5;
+            default:
+                return false;
+        }
+    }
+
+    static double transformUnitToDegreeExact (String coord, String unit) throws ActionException{
         coord = coord.trim();
         BigDecimal value;
         if (GRADIAN.equals(unit)){
@@ -85,7 +351,82 @@ public class CoordTransService {
                 throw new ActionException("Invalid unit");
         }
     }
+    /**
+     * Computed in double precision when decimals <= FAST_MAX_DECIMALS. The double
+     * result is within 2^-50 (relative) of the BigDecimal one, the rounding to
+     * decimals is done only if that can't change the rounded value, so the
+     * result is always the same as with BigDecimal. Values close to a rounding
+     * tie (or to a whole minute) are computed with BigDecimal.
+     */
     public static String transformDegreeToUnit (double coord, String unit, int decimals) throws ActionException{
+        if (decimals >= 0 && decimals <= FAST_MAX_DECIMALS) {
+            String value = transformDegreeToUnitFast(coord, unit, decimals);
+            if (value != null) {
+                return value;
+            }
+        }
+        return transformDegreeToUnitExact(coord, unit, decimals);
+    }
+
+    /**
+     * @return the formatted value or null if the value should be computed exactly
+     */
+    static String transformDegreeToUnitFast (double coord, String unit, int decimals) {
+        double abs = Math.abs(coord);
+        if (!(abs < FAST_MAX_DEGREES) || (abs != 0 && abs < FAST_MIN_VALUE)) {
+            return null;
+        }
+        boolean negative = coord < 0;
+        long rounded;
+        String separator = "";
+        StringBuilder sb = new StringBuilder(32);
+        switch (unit) {
+            case RADIAN:
+                rounded = roundHalfUp(abs * DEG_TO_RAD, decimals);
+                return rounded < 0 ? null : appendPlain(sb, negative, rounded, decimals).toString();
+            case GRADIAN:
+                rounded = roundHalfUp(abs * DEG_TO_GRAD, decimals);
+                return rounded < 0 ? null : appendPlain(sb, negative, rounded, decimals).toString();
+            case "DD":
+                rounded = roundHalfUp(abs, decimals);
+                return rounded < 0 ? null : appendFormated(sb, negative, rounded, decimals).toString();
+            case "DD MM":
+                separator = " ";
+            case "DDMM":
+                // Integer part and fraction of a double are exact
+                long dd = (long) abs;
+                rounded = roundHalfUp((abs - dd) * 60.0, decimals);
+                if (rounded < 0) {
+                    return null;
+                }
+                sb.append(getPrefixedIntPart(negative ? (int) -dd : (int) dd)).append(separator);
+                return appendFormated(sb, negative, rounded, decimals).toString();
+            case "DD MM SS":
+                separator = " ";
+            case "DDMMSS":
+                dd = (long) abs;
+                // m - err is the exact value of fraction * 60 (60 = 4 * 15, 4 * x is exact)
+                double x = (abs - dd) * 4.0;
+                double m = x * 15.0;
+                double err = (m - x * 16.0) + x;
+                long mm = (long) m;
+                if (err > 0.0 && m == mm) {
+                    // Exact value is just below a whole minute
+                    return null;
+                }
+                rounded = roundHalfUp(((m - mm) - err) * 60.0, decimals);
+                if (rounded < 0) {
+                    return null;
+                }
+                sb.append(getPrefixedIntPart(negative ? (int) -dd : (int) dd)).append(separator);
+                sb.append(getPrefixedIntPart(negative ? (int) -mm : (int) mm)).append(separator);
+                return appendFormated(sb, negative, rounded, decimals).toString();
+            default:
+                return null;
+        }
+    }
+
+    static String transformDegreeToUnitExact (double coord, String unit, int decimals) throws ActionException{
         BigDecimal value = new BigDecimal(coord, DECIMAL_PRECISION);
         BigDecimal fractPart;
         String separator = "";
@@ -121,10 +462,66 @@ public class CoordTransService {
         }
     }
     public static String round(double value, int decimals) {
+        double abs = Math.abs(value);
+        if (decimals >= 0 && decimals <= FAST_MAX_DECIMALS && (abs == 0 || abs >= FAST_MIN_VALUE)) {
+            long rounded = roundHalfUp(abs, decimals);
+            if (rounded >= 0) {
+                return appendPlain(new StringBuilder(24), value < 0, rounded, decimals).toString();
+            }
+        }
         BigDecimal bd = new BigDecimal(value);
         bd = bd.setScale(decimals, RoundingMode.HALF_UP);
         return bd.toPlainString();
     }
+    /**
+     * Round a non-negative value computed in double precision to decimals (HALF_UP)
+     *
+     * @return value * 10^decimals rounded, or -1 if the value is too close
+     *         to a tie for the rounding to be certain or too large
+     */
+    private static long roundHalfUp (double value, int decimals) {
+        double scaled = value * POW10[decimals];
+        if (!(scaled < FAST_MAX_SCALED)) {
+            return -1;
+        }
+        double floor = Math.floor(scaled);
+        double fraction = scaled - floor;
+        if (Math.abs(fraction - 0.5) <= scaled * FAST_MAX_RELATIVE_ERROR) {
+            return -1;
+        }
+        return (long) floor + (fraction > 0.5 ? 1 : 0);
+    }
+
+    // Same as BigDecimal.setScale(decimals).toPlainString()
+    private static StringBuilder appendPlain (StringBuilder sb, boolean negative, long rounded, int decimals) {
+        if (negative && rounded != 0) {
+            sb.append('-');
+        }
+        long pow = (long) POW10[decimals];
+        sb.append(rounded / pow);
+        if (decimals > 0) {
+            sb.append('.');
+            String fraction = Long.toString(rounded % pow);
+            for (int i = fraction.length(); i < decimals; i++) {
+                sb.append('0');
+            }
+            sb.append(fraction);
+        }
+        return sb;
+    }
+
+    // Same as getFormatedValue(BigDecimal, int)
+    private static StringBuilder appendFormated (StringBuilder sb, boolean negative, long rounded, int decimals) {
+        if (rounded >= 10 * (long) POW10[decimals]) {
+            return appendPlain(sb, negative, rounded, decimals);
+        } else if (negative && rounded != 0) {
+            sb.append("-0");
+        } else {
+            sb.append('0');
+        }
+        return appendPlain(sb, false, rounded, decimals);
+    }
+
     //Min and sec values cannot be negative so we can use this for formating them also
     private static String getFormatedValue (BigDecimal value, int decimals){
         value = value.setScale(decimals, RoundingMode.HALF_UP);
@@ -139,7 +536,9 @@ public class CoordTransService {
         return "0" + value.toPlainString();
     }
     private static String getPrefixedIntPart (BigDecimal value){
-        int intPart = value.intValue();
+        return getPrefixedIntPart(value.intValue());
+    }
+    private static String getPrefixedIntPart (int intPart){
         if (intPart >=10 || intPart <= -10){
             return Integer.toString(intPart);
         }
@@ -12,6 +12,8 @@ import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.IOHelper;
 import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.paikkatietoikkuna.http.HttpStatusException;
+import fi.nls.paikkatietoikkuna.http.PooledHttpClient;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -21,12 +23,19 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import javax.servlet.http.HttpServletRequest;
@@ -48,6 +57,9 @@ public class CoordinateTransformationActionHandler extends RestActionHandler {
     private static final String PROP_END_POINT = "coordtransform.endpoint";
     private static final String PROP_MAX_FILE_SIZE_MB = "coordtransform.max.filesize.mb";
     private static final String PROP_MAX_COORDS_FILE_TO_ARRAY = "coordtransform.max.coordinates.array";
+    private static final String PROP_THREADS = "coordtransform.threads";
+    private static final String PROP_POST = "coordtransform.post";
+    private static final String PROP_POST_MAX_LENGTH = "coordtransform.post.max.length";
 
     protected static final String PARAM_SOURCE_CRS = "sourceCrs";
     protected static final String PARAM_SOURCE_H_CRS = "sourceHeightCrs";
@@ -75,8 +87,22 @@ public class CoordinateTransformationActionHandler extends RestActionHandler {
     private String endPoint;
     private static final ObjectMapper mapper = new ObjectMapper();
     private static final int MB = 1024 * 1024;
+    // Number of lines of a file transformed and written at a time
+    private static final int F2F_CHUNK_SIZE = 10000;
+    private static final int POST_MAX_LENGTH_DEFAULT = 256 * 1024;
+    private static final String CONTENT_TYPE_FORM = "application/x-www-form-urlencoded; charset=UTF-8";
     private final int maxFileSize = PropertyUtil.getOptional(PROP_MAX_FILE_SIZE_MB, 50) * MB;
     private final int maxCoordsF2A = PropertyUtil.getOptional(PROP_MAX_COORDS_FILE_TO_ARRAY, 100);
+    private static final int THREADS_DEFAULT = 4;
+    // Shared by all requests, caps the number of concurrent requests to the CoordTrans service
+    private ExecutorService executor;
+    // false disables POST regardless of the properties
+    private final boolean allowPost;
+    private boolean usePost;
+    private int postMaxLength;
+    // null until the first POST request has told whether the CoordTrans service supports it
+    private volatile Boolean postSupported;
+    private boolean httpClientAcquired;
 
     // Store files smaller than 128kb in memory instead of writing them to disk
     private static final int MAX_SIZE_MEMORY = 128 * 1024;
@@ -87,8 +113,13 @@ public class CoordinateTransformationActionHandler extends RestActionHandler {
     }
 
     protected CoordinateTransformationActionHandler(String endPoint) {
+        this(endPoint, true);
+    }
+
+    protected CoordinateTransformationActionHandler(String endPoint, boolean allowPost) {
         this.jf = new JsonFactory();
         this.endPoint = endPoint;
+        this.allowPost = allowPost;
     }
 
     @Override
@@ -104,6 +135,36 @@ public class CoordinateTransformationActionHandler extends RestActionHandler {
         coordinateSeparators.put("tab", "\t");
         coordinateSeparators.put("comma", ",");
         coordinateSeparators.put("semicolon", ";");
+
+        usePost = allowPost && PropertyUtil.getOptional(PROP_POST, true);
+        postMaxLength = PropertyUtil.getOptional(PROP_POST_MAX_LENGTH, POST_MAX_LENGTH_DEFAULT);
+
+        int threads = PropertyUtil.getOptional(PROP_THREADS, THREADS_DEFAULT);
+        if (threads > 1) {
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "coordtransform-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        if (!httpClientAcquired) {
+            PooledHttpClient.acquireShared();
+            httpClientAcquired = true;
+        }
+    }
+
+    @Override
+    public void teardown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (httpClientAcquired) {
+            PooledHttpClient.releaseShared();
+            httpClientAcquired = false;
+        }
     }
 
     @Override
@@ -155,15 +216,14 @@ public class CoordinateTransformationActionHandler extends RestActionHandler {
                 inputCoords = coords.stream().map(c -> new Coordinate (c)).collect(Collectors.toList());
                 break;
             case "F2F":
-                transformToFile = true;
                 fileItems = getFileItems(params.getRequest());
                 formParams = getFormParams(fileItems);
                 file = getFile(fileItems);
                 importSettings = getFileSettings(formParams, KEY_IMPORT_SETTINGS);
                 exportSettings = getFileSettings(formParams, KEY_EXPORT_SETTINGS);
-                coords = getCoordsFromFile(importSettings, file, sourceDimension, addZeroes, exportSettings.isWriteLineEndings(), Integer.MAX_VALUE);
-                exportSettings.copyArrays(importSettings);
-                break;
+                handleFileToFile(params, file, importSettings, exportSettings,
+                        sourceCrs, targetCrs, sourceDimension, queryDimension, targetDimension, addZeroes);
+                return;
             default:
                 throw new ActionParamsException("Unknown transform type");
         }
@@ -194,43 +254,194 @@ public class CoordinateTransformationActionHandler extends RestActionHandler {
         }
     }
 
+    /**
+     * Split the coordinates into batches and transform them, concurrently if the
+     * handler has threads for it. Large batches are sent in the body of POST requests,
+     * unless disabled or the CoordTrans service turns out not to support POST, in which
+     * case the batches are limited by the length of a GET URL. Each batch changes its
+     * own Coordinate objects in place so the results end up in the original order.
+     * If a batch fails the batches still pending are cancelled.
+     */
     protected void transform(String sourceCrs, String targetCrs,
             int queryDimension, int targetDimension,
             List<Coordinate> coords) throws ActionException {
-        CoordTransQueryBuilder queryBuilder = new CoordTransQueryBuilder(endPoint, sourceCrs, targetCrs, queryDimension);
+        if (usePost && postSupported != Boolean.FALSE) {
+            List<String> bodies = new ArrayList<>();
+            List<List<Coordinate>> batches = split(CoordTransQueryBuilder.forPostBody(
+                    sourceCrs, targetCrs, queryDimension, postMaxLength), coords, bodies);
+            int first = 0;
+            if (postSupported == null) {
+                // Find out with the first batch, the rest can't be sent concurrently before we know
+                if (!probePost(bodies.get(0), batches.get(0), targetDimension)) {
+                    transformGet(sourceCrs, targetCrs, queryDimension, targetDimension, coords);
+                    // Only now that GET worked we know it was the POST that was rejected
+                    log.warn("CoordTrans service at", endPoint, "doesn't seem to support POST, using GET");
+                    postSupported = Boolean.FALSE;
+                    return;
+                }
+                first = 1;
+            }
+            transformBatches(bodies.subList(first, bodies.size()),
+                    batches.subList(first, batches.size()), targetDimension, true);
+            return;
+        }
+        transformGet(sourceCrs, targetCrs, queryDimension, targetDimension, coords);
+    }
+
+    private void transformGet(String sourceCrs, String targetCrs,
+            int queryDimension, int targetDimension,
+            List<Coordinate> coords) throws ActionException {
+        List<String> queries = new ArrayList<>();
+        List<List<Coordinate>> batches = split(new CoordTransQueryBuilder(
+                endPoint, sourceCrs, targetCrs, queryDimension), coords, queries);
+        transformBatches(queries, batches, targetDimension, false);
+    }
+
+    /**
+     * @return true if the batch was transformed with POST,
+     *         false if the service rejected the POST request and the batch is unchanged
+     * @throws ActionException
+     *         if the request failed for any other reason, whether POST is supported is still unknown
+     */
+    private boolean probePost(String body, List<Coordinate> batch, int targetDimension) throws ActionException {
+        // Transform a copy so that a partially parsed response can't leave the batch half transformed
+        List<Coordinate> copy = batch.stream().map(c -> new Coordinate(c)).collect(Collectors.toList());
+        try {
+            transformPost(body, copy, targetDimension);
+        } catch (ActionException e) {
+            if (!isPostRejected(e.getCause())) {
+                throw e;
+            }
+            log.debug("POST to CoordTrans was rejected, trying GET:", e.getMessage());
+            return false;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).setCoordinate(copy.get(i));
+        }
+        postSupported = Boolean.TRUE;
+        return true;
+    }
+
+    private static boolean isPostRejected(Throwable cause) {
+        if (!(cause instanceof HttpStatusException)) {
+            return false;
+        }
+        switch (((HttpStatusException) cause).getStatusCode()) {
+            case 404: // Not Found
+            case 405: // Method Not Allowed
+            case 413: // Payload Too Large
+            case 501: // Not Implemented
+                return true;
+            default:
+                return false;
+        }
+    }
 
+    /**
+     * @param requests
+     *      filled with the query (or body) of each batch
+     * @return the coordinates of each batch
+     */
+    private static List<List<Coordinate>> split(CoordTransQueryBuilder queryBuilder,
+            List<Coordinate> coords, List<String> requests) {
+        List<List<Coordinate>> batches = new ArrayList<>();
         List<Coordinate> batch = new ArrayList<>();
         for (Coordinate c : coords) {
             boolean fit = queryBuilder.add(c);
             if (!fit) {
-                transform(queryBuilder.build(), batch, targetDimension);
+                requests.add(queryBuilder.build());
+                batches.add(batch);
                 queryBuilder.reset();
-                batch.clear();
+                batch = new ArrayList<>();
                 queryBuilder.add(c);
             }
             batch.add(c);
         }
-        transform(queryBuilder.build(), batch, targetDimension);
+        requests.add(queryBuilder.build());
+        batches.add(batch);
+        return batches;
     }
 
-    protected void transform(String query, List<Coordinate> batch, int dimension) throws ActionException {
+    private void transformBatches(List<String> requests, List<List<Coordinate>> batches, int dimension,
+            boolean post) throws ActionException {
+        if (executor == null || batches.size() <= 1) {
+            for (int i = 0; i < batches.size(); i++) {
+                transform(requests.get(i), batches.get(i), dimension, post);
+            }
+            return;
+        }
+
+        CompletionService<Void> cs = new ExecutorCompletionService<>(executor);
+        List<Future<Void>> futures = new ArrayList<>(batches.size());
+        try {
+            for (int i = 0; i < batches.size(); i++) {
+                String request = requests.get(i);
+                List<Coordinate> batch = batches.get(i);
+                futures.add(cs.submit(() -> {
+                    transform(request, batch, dimension, post);
+                    return null;
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                cs.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ActionException("Interrupted while waiting for CoordTrans service", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ActionException) {
+                throw (ActionException) cause;
+            }
+            throw new ActionException("Failed to transform coordinates", cause);
+        } finally {
+            // No-op for the batches that have already completed
+            for (Future<Void> f : futures) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    private void transform(String request, List<Coordinate> batch, int dimension, boolean post)
+            throws ActionException {
+        if (post) {
+            transformPost(request, batch, dimension);
+        } else {
+            transform(request, batch, dimension);
+        }
+    }
+
+    protected void transformPost(String body, List<Coordinate> batch, int dimension) throws ActionException {
         if (batch.size() == 0) {
             return;
         }
 
-        HttpURLConnection conn;
+        byte[] serviceResponseBytes;
         try {
-            conn = IOHelper.getConnection(query);
+            serviceResponseBytes = PooledHttpClient.getShared().post(endPoint,
+                    body.getBytes(StandardCharsets.UTF_8), CONTENT_TYPE_FORM);
         } catch (IOException e) {
-            throw new ActionException("Failed to connect to CoordTrans service", e);
+            throw new ActionException("Failed to read response from CoordTrans service", e);
         }
+        parseResponse(serviceResponseBytes, batch, dimension);
+    }
+
+    protected void transform(String query, List<Coordinate> batch, int dimension) throws ActionException {
+        if (batch.size() == 0) {
+            return;
+        }
+
         byte[] serviceResponseBytes;
         try {
-            serviceResponseBytes = IOHelper.readBytes(conn);
+            serviceResponseBytes = PooledHttpClient.getShared().get(query);
         } catch (IOException e) {
             throw new ActionException("Failed to read response from CoordTrans service", e);
         }
+        parseResponse(serviceResponseBytes, batch, dimension);
+    }
 
+    private void parseResponse(byte[] serviceResponseBytes, List<Coordinate> batch, int dimension)
+            throws ActionException {
         try {
             // Change Coordinate.xyz values in place
             CoordTransService.parseResponse(serviceResponseBytes, batch, dimension);
@@ -250,106 +461,126 @@ public class CoordinateTransformationActionHandler extends RestActionHandler {
     protected List<Coordinate> getCoordsFromFile(CoordTransFile sourceOptions, FileItem file,
             int dimension, boolean addZeroes, boolean storeLineEnds, int limit) throws ActionException {
         List<Coordinate> coordinates = new ArrayList<>();
-        String line;
-        String[] coords;
-        int xIndex = 0;
-        int yIndex = 1;
-        int zIndex = 2;
-        int coordDimension = dimension;
-        int headerLineCount = sourceOptions.getHeaderLineCount();
+        try (CoordTransFileReader reader = createFileReader(sourceOptions, file, dimension, addZeroes, storeLineEnds)) {
+            reader.read(coordinates, sourceOptions.getIds(), sourceOptions.getLineEnds(), limit);
+            if (coordinates.size() == limit) {
+                sourceOptions.setHasMoreCoordinates(true);
+            }
+        } catch (UnsupportedEncodingException e){
+            throw new ActionParamsException("Encoding - Invalid file", e);
+        } catch (IOException e){
+            throw new ActionParamsException("IO - Invalid file", e);
+        }
+        return coordinates;
+    }
+
+    private CoordTransFileReader createFileReader(CoordTransFile sourceOptions, FileItem file,
+            int dimension, boolean addZeroes, boolean storeLineEnds) throws ActionParamsException, IOException {
         String coordSeparator = sourceOptions.getCoordinateSeparator();
         if (!coordinateSeparators.containsKey(coordSeparator)){
             throw new ActionParamsException("Invalid coordinate separator: " + coordSeparator);
         }
-        // get actual separator
-        coordSeparator = coordinateSeparators.get(coordSeparator);
-        if (sourceOptions.isAxisFlip()){
-            xIndex = 1;
-            yIndex = 0;
-        }
-        if (sourceOptions.isPrefixId()){
-            xIndex++;
-            yIndex++;
-            zIndex++;
-            coordDimension++;
-        }
-        boolean replaceCommas = false;
-        if (sourceOptions.getDecimalSeparator()==','){
-            replaceCommas = true;
-        }
-        String unit = sourceOptions.getUnit();
-        boolean transformUnit = false;
-        if (unit != null && !unit.equals(DEGREE)){
-            transformUnit = true;
-        }
-        double x,y,z;
-        try(BufferedReader br = new BufferedReader(new InputStreamReader(file.getInputStream()))){
-            //skip row and store row as header row
-            for (int i = 0 ; i < headerLineCount && (line=br.readLine())!=null ;i++) {
-                sourceOptions.addHeaderRow(line);
+        /* Now coordinate separator comes from frontend
+        //try to get coordinate separator from first coordinate line
+        coordSeparator = CoordTransService.getCoordSeparator(line, dimension, sourceOptions.isPrefixId());
+        */
+        BufferedReader br = new BufferedReader(new InputStreamReader(file.getInputStream()));
+        return new CoordTransFileReader(br, sourceOptions, coordinateSeparators.get(coordSeparator),
+                dimension, addZeroes, storeLineEnds);
+    }
+
+    /**
+     * Transform a file to a file a chunk of lines at a time: parse a chunk, transform it
+     * and write it to the response before reading the next one. This keeps the memory
+     * use constant regardless of the size of the file.
+     */
+    private void handleFileToFile(ActionParameters params, FileItem file,
+            CoordTransFile importSettings, CoordTransFile exportSettings,
+            String sourceCrs, String targetCrs, int sourceDimension, int queryDimension, int targetDimension,
+            boolean addZeroes) throws ActionException {
+        HttpServletResponse response = params.getResponse();
+        String fileName = addFileExt(exportSettings.getFileName());
+        try {
+            writeFileResponse(() -> {
+                response.setContentType(FILE_TYPE);
+                response.setHeader("Content-Disposition", "attachment; filename=" + fileName);
+                return response.getOutputStream();
+            }, file, importSettings, exportSettings,
+                    sourceCrs, targetCrs, sourceDimension, queryDimension, targetDimension, addZeroes);
+        } catch (IOException e) {
+            throw new ActionException("Failed to write file", e);
+        }
+    }
+
+    @FunctionalInterface
+    interface ResponseOpener {
+        OutputStream open() throws IOException;
+    }
+
+    /**
+     * The response is only opened once the first chunk has been parsed and transformed,
+     * so that an empty or invalid file and a failing CoordTrans service are still reported
+     * as an error response. If a later chunk fails the part already written can't be taken
+     * back, so an error line is written to the end of the file before the exception is thrown.
+     */
+    protected void writeFileResponse(ResponseOpener opener, FileItem file,
+            CoordTransFile importSettings, CoordTransFile exportSettings,
+            String sourceCrs, String targetCrs, int sourceDimension, int queryDimension, int targetDimension,
+            boolean addZeroes) throws ActionException, IOException {
+        List<Coordinate> coords = new ArrayList<>(F2F_CHUNK_SIZE);
+        List<String> ids = new ArrayList<>(F2F_CHUNK_SIZE);
+        List<String> lineEnds = new ArrayList<>(F2F_CHUNK_SIZE);
+        try (CoordTransFileReader reader = createFileReader(importSettings, file, sourceDimension, addZeroes,
+                exportSettings.isWriteLineEndings())) {
+            if (readChunk(reader, coords, ids, lineEnds) == 0) {
+                throw new ActionParamsException("No coordinates", "no_coordinates");
             }
-            while ((line=br.readLine())!=null) {
-                /* Now coordinate separator comes from frontend
-                //try to get coordinate separator from first coordinate line
-                if(coordSeparator==null){
-                    coordSeparator = CoordTransService.getCoordSeparator(line, dimension, sourceOptions.isPrefixId());
-                    sourceOptions.setCoordinateSeparator(coordSeparator);
-                }*/
-                //skip empty lines
-                if (line.trim().isEmpty()){
-                    continue;
-                }
-                //replace commas
-                if (replaceCommas){
-                    line = line.replace(',','.');
-                }
-                coords = line.split(coordSeparator);
-                if (coords.length < coordDimension){
-                    throw new ActionParamsException("Invalid coord in line: " + line, "invalid_coord_length");
-                }
-                if (transformUnit){
-                    x = CoordTransService.transformUnitToDegree (coords[xIndex], unit);
-                    y = CoordTransService.transformUnitToDegree (coords[yIndex], unit);
-                } else {
-                    x = Double.valueOf(coords[xIndex]);
-                    y = Double.valueOf(coords[yIndex]);
-                }
-                if (dimension == 3){
-                    z = Double.valueOf(coords[zIndex]);
-                    coordinates.add(new Coordinate(x, y, z));
-                }else if (addZeroes == true){
-                    coordinates.add(new Coordinate(x, y, 0));
-                } else {
-                    coordinates.add(new Coordinate(x, y));
-                }
-                if (sourceOptions.isPrefixId()){
-                    sourceOptions.addId(coords[0]);
-                }
-                if (storeLineEnds == true){
-                    String lineEnd = "";
-                    //add coordSeparator back if lineEnding string is slitted (e.g. coordSeparator is " ")
-                    for (int i = coordDimension; i < coords.length; i++){
-                        if (i == coordDimension){
-                            lineEnd += coords[i];
-                        } else {
-                            lineEnd += coordSeparator + coords[i];
-                        }
+            transform(sourceCrs, targetCrs, queryDimension, targetDimension, coords);
+
+            try (OutputStream out = opener.open()) {
+                BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out));
+                CoordTransFileWriter writer = createFileWriter(bw, exportSettings, targetDimension);
+                writer.writeHeader(targetCrs, importSettings.getHeaderRows());
+                try {
+                    writer.write(coords, ids, lineEnds);
+                    bw.flush();
+                    while (readNextChunk(reader, coords, ids, lineEnds) > 0) {
+                        transform(sourceCrs, targetCrs, queryDimension, targetDimension, coords);
+                        writer.write(coords, ids, lineEnds);
+                        bw.flush();
                     }
-                    sourceOptions.addLineEnd(lineEnd);
-                }
-                if (coordinates.size() == limit) {
-                    sourceOptions.setHasMoreCoordinates(true);
-                    break;
+                } catch (ActionException e) {
+                    writer.writeError(e.getMessage());
+                    bw.flush();
+                    throw e;
                 }
             }
+        }
+    }
+
+    private static int readNextChunk(CoordTransFileReader reader,
+            List<Coordinate> coords, List<String> ids, List<String> lineEnds) throws ActionException {
+        coords.clear();
+        ids.clear();
+        lineEnds.clear();
+        return readChunk(reader, coords, ids, lineEnds);
+    }
+
+    private static int readChunk(CoordTransFileReader reader,
+            List<Coordinate> coords, List<String> ids, List<String> lineEnds) throws ActionException {
+        try {
+            return reader.read(coords, ids, lineEnds, F2F_CHUNK_SIZE);
         } catch (UnsupportedEncodingException e){
             throw new ActionParamsException("Encoding - Invalid file", e);
         } catch (IOException e){
             throw new ActionParamsException("IO - Invalid file", e);
-        } catch (NumberFormatException e){
-            throw new ActionParamsException("Expected a number", e);
         }
-        return coordinates;
+    }
+
+    private CoordTransFileWriter createFileWriter(Writer out, CoordTransFile opts, int dimension) {
+        String lineSeparator = lineSeparators.get(opts.getLineSeparator());
+        String coordSeparator = coordinateSeparators.get(opts.getCoordinateSeparator());
+        return new CoordTransFileWriter(out, opts, dimension, lineSeparator, coordSeparator);
     }
 
     private CoordTransFile getFileSettings(Map<String, String> formParams, String key) throws ActionParamsException {
@@ -501,86 +732,9 @@ public class CoordinateTransformationActionHandler extends RestActionHandler {
     protected void writeFileResponse(OutputStream out, List<Coordinate> coords, final int dimension, CoordTransFile opts, String crs)
         throws ActionException {
         try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out))){
-            String xCoord;
-            String yCoord;
-            String zCoord;
-            String lineSeparator = lineSeparators.get(opts.getLineSeparator());
-            String coordSeparator = coordinateSeparators.get(opts.getCoordinateSeparator());
-            int decimals = opts.getDecimalCount();
-            boolean replaceCommas = opts.getDecimalSeparator() == ',';
-            boolean prefixId = opts.isPrefixId();
-            boolean flipAxis = opts.isAxisFlip();
-            boolean prefixWithIndex = false;
-            boolean writeCardinals = opts.isWriteCardinals();
-            List <String> ids = opts.getIds();
-            List <String> lineEndings = opts.getLineEnds();
-            boolean writeEndings = opts.isWriteLineEndings() && !lineEndings.isEmpty();
-            String unit = opts.getUnit();
-            boolean transformUnit = false;
-            if (unit != null && !unit.equals(DEGREE)){
-                transformUnit = true;
-            }
-            if (opts.isPrefixId()){
-                if(ids.isEmpty()){
-                    prefixWithIndex = true;
-                }
-            }
-            // TODO: should we add only: Coordinate Reference System: KKJ
-            // if we want localized header then frontend should send header String instead of boolean
-            if (opts.isWriteHeader()){
-                bw.write("Coordinate Reference System:" + crs);
-                bw.write(lineSeparator);
-                for (String headerRow : opts.getHeaderRows()){
-                    bw.write(headerRow);
-                    bw.write(lineSeparator);
-                }
-            }
-            for (int i = 0; i < coords.size() ; i++) {
-                Coordinate coord = coords.get(i);
-                if (transformUnit){
-                    xCoord = CoordTransService.transformDegreeToUnit(coord.x, unit, decimals);
-                    yCoord = CoordTransService.transformDegreeToUnit(coord.y, unit, decimals);
-                } else {
-                    xCoord = CoordTransService.round(coord.x, decimals);
-                    yCoord = CoordTransService.round(coord.y, decimals);
-                }
-                if (replaceCommas){
-                    xCoord = xCoord.replace('.',',');
-                    yCoord = yCoord.replace('.',',');
-                }
-                //TODO: should we use also W, S for negative coordinates
-                if (writeCardinals){
-                    xCoord += "E";
-                    yCoord += "N";
-                }
-                if (prefixId && prefixWithIndex){
-                    bw.write(i + coordSeparator);
-                } else if (prefixId){
-                    bw.write(ids.get(i) + coordSeparator);
-                }
-                if (flipAxis){
-                    bw.write(yCoord);
-                    bw.write(coordSeparator);
-                    bw.write(xCoord);
-                }else {
-                    bw.write(xCoord);
-                    bw.write(coordSeparator);
-                    bw.write(yCoord);
-                }
-                if (dimension == 3) {
-                    zCoord = CoordTransService.round(coord.z, decimals);
-                    if (replaceCommas){
-                        zCoord = zCoord.replace('.',',');
-                    }
-                    bw.write(coordSeparator);
-                    bw.write(zCoord);
-                }
-                if (writeEndings){
-                    bw.write(coordSeparator);
-                    bw.write(lineEndings.get(i));
-                }
-                bw.write(lineSeparator);
-            }
+            CoordTransFileWriter writer = createFileWriter(bw, opts, dimension);
+            writer.writeHeader(crs, opts.getHeaderRows());
+            writer.write(coords, opts.getIds(), opts.getLineEnds());
         } catch (IOException e) {
             throw new ActionException("Failed to write file", e);
         }
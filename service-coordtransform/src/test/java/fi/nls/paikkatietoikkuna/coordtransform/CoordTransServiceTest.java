@@ -1,8 +1,17 @@
 package fi.nls.paikkatietoikkuna.coordtransform;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import fi.nls.oskari.control.ActionException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
 import org.junit.Test;
 
 public class CoordTransServiceTest {
@@ -48,4 +57,159 @@ public class CoordTransServiceTest {
             assertEquals ("Unit: " + units[i], coord,  deg, 0.00000000000001);
         }
     }
+
+    @Test
+    public void testTransformToUnitMatchesExact () throws ActionException {
+        String [] units = {"radian", "gradian", "DD", "DDMM", "DD MM", "DDMMSS", "DD MM SS"};
+        Random r = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            // Random values and values close to rounding ties and whole minutes/seconds
+            double coord = (r.nextDouble() - 0.5) * 360;
+            double tie = Math.round(coord * 3600) / 3600.0 + (r.nextInt(3) - 1) * 0.5e-4 / 3600;
+            int decimals = r.nextInt(11);
+            for (String unit : units) {
+                assertEquals(unit + " " + coord, CoordTransService.transformDegreeToUnitExact(coord, unit, decimals),
+                        CoordTransService.transformDegreeToUnit(coord, unit, decimals));
+                assertEquals(unit + " " + tie, CoordTransService.transformDegreeToUnitExact(tie, unit, 4),
+                        CoordTransService.transformDegreeToUnit(tie, unit, 4));
+            }
+            assertEquals(new BigDecimal(coord).setScale(decimals, RoundingMode.HALF_UP).toPlainString(),
+                    CoordTransService.round(coord, decimals));
+            double projected = 6600000 + Math.round(r.nextDouble() * 1e9) / 1000.0 + 0.0005;
+            assertEquals(new BigDecimal(projected).setScale(3, RoundingMode.HALF_UP).toPlainString(),
+                    CoordTransService.round(projected, 3));
+        }
+        double [] special = {0, -0.0, 0.5, -0.5, 1e-10, -1e-10, 59.99999999999999, 1.0 / 3, -179.99999999, 1e-300};
+        for (double coord : special) {
+            for (String unit : units) {
+                assertEquals(unit + " " + coord, CoordTransService.transformDegreeToUnitExact(coord, unit, 6),
+                        CoordTransService.transformDegreeToUnit(coord, unit, 6));
+                assertEquals(unit + " " + coord, CoordTransService.transformDegreeToUnitExact(coord, unit, 0),
+                        CoordTransService.transformDegreeToUnit(coord, unit, 0));
+            }
+        }
+    }
+    @Test
+    public void testTransformToDegreeMatchesExact () throws ActionException {
+        String [] units = {"radian", "gradian", "DDMMSS", "DD MM SS", "DDMM", "DD MM"};
+        Random r = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            double coord = r.nextDouble() * 90;
+            int decimals = r.nextInt(15);
+            for (String unit : units) {
+                String value = CoordTransService.transformDegreeToUnitExact(coord, unit, decimals);
+                double exact = CoordTransService.transformUnitToDegreeExact(value, unit);
+                assertEquals(unit + " " + value, exact, CoordTransService.transformUnitToDegree(value, unit),
+                        Math.abs(exact) * 0x1p-50);
+            }
+        }
+    }
+    @Test(expected = NumberFormatException.class)
+    public void testTransformToDegreeInvalid () throws ActionException {
+        CoordTransService.transformUnitToDegree("NaN", "gradian");
+    }
+    @Test
+    public void testTransformToDegreeMisplacedSpaces () throws ActionException {
+        // Same as the exact path: the fixed width parts don't line up
+        String[] invalid = {"60 3 15", "60 03 1 5", "6 003 15"};
+        for (String coord : invalid) {
+            try {
+                CoordTransService.transformUnitToDegree(coord, "DD MM SS");
+                fail("Should throw: " + coord);
+            } catch (NumberFormatException expected) {
+            }
+        }
+        try {
+            CoordTransService.transformUnitToDegree("60 3 5", "DD MM");
+            fail("Should throw");
+        } catch (NumberFormatException expected) {
+        }
+        try {
+            CoordTransService.transformUnitToDegree("1 5", "gradian");
+            fail("Should throw");
+        } catch (NumberFormatException expected) {
+        }
+        assertEquals(60 + 3 / 60.0 + 15 / 3600.0, CoordTransService.transformUnitToDegree("60 03 15", "DD MM SS"), 1e-12);
+    }
+    @Test
+    public void testParseResponse () {
+        List<Coordinate> coords = coords(3);
+        CoordTransService.parseResponse(bytes("385000.123,6672000.5;-1.5e2,0;1,2\n"), coords, 2);
+        assertEquals(385000.123, coords.get(0).x, 0.0);
+        assertEquals(6672000.5, coords.get(0).y, 0.0);
+        assertEquals(-150.0, coords.get(1).x, 0.0);
+        assertEquals(0.0, coords.get(1).y, 0.0);
+        assertEquals(1.0, coords.get(2).x, 0.0);
+        assertEquals(2.0, coords.get(2).y, 0.0);
+
+        coords = coords(2);
+        CoordTransService.parseResponse(bytes("1,2,3.25;4,5,-6;"), coords, 3);
+        assertEquals(3.25, coords.get(0).z, 0.0);
+        assertEquals(4.0, coords.get(1).x, 0.0);
+        assertEquals(-6.0, coords.get(1).z, 0.0);
+    }
+    @Test
+    public void testParseResponseError () {
+        try {
+            CoordTransService.parseResponse(bytes("Virhe: Invalid coordinate"), coords(1), 2);
+            fail("Should throw");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Invalid coordinate", e.getMessage());
+        }
+        String[] invalid = {"1;2", "1,2,x", "1,abc", "1,2;3,4"};
+        for (String resp : invalid) {
+            try {
+                CoordTransService.parseResponse(bytes(resp), coords(1), 3);
+                fail("Should throw: " + resp);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            CoordTransService.parseResponse(bytes("Virhe"), coords(1), 2);
+            fail("Should throw");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Virhe", e.getMessage());
+        }
+        // Empty and truncated responses
+        String[] missing = {"", " \n", "1,2", "1,2;3,4;"};
+        for (String resp : missing) {
+            try {
+                CoordTransService.parseResponse(bytes(resp), coords(3), 2);
+                fail("Should throw: " + resp);
+            } catch (IllegalArgumentException e) {
+                assertEquals("Fewer coordinates in response than requested", e.getMessage());
+            }
+        }
+    }
+    @Test
+    public void testParseDoubleMatchesDoubleParseDouble () {
+        String[] values = {"0", "-0", "0.1", "1e-5", "1E22", "1e23", "123456789012345678901234",
+                "0.000000000000000000000000001", "9007199254740993", "6672000.000000000000000",
+                "2.2250738585072014E-308", "NaN", "-Infinity", "+7", "1.7976931348623157e308"};
+        for (String value : values) {
+            assertParsed(value);
+        }
+        Random r = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            double d = (r.nextDouble() - 0.5) * Math.pow(10, r.nextInt(16) - 4);
+            assertParsed(Double.toString(d));
+            assertParsed(String.format(Locale.ROOT, "%.3f", d));
+            assertParsed(CoordTransService.round(d, r.nextInt(12)));
+        }
+    }
+    private static void assertParsed(String value) {
+        byte[] b = bytes(" " + value + " ");
+        assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value)),
+                Double.doubleToLongBits(CoordTransService.parseDouble(b, 0, b.length)));
+    }
+    private static List<Coordinate> coords(int n) {
+        List<Coordinate> coords = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            coords.add(new Coordinate());
+        }
+        return coords;
+    }
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
 }
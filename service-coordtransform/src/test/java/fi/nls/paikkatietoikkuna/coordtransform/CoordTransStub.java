@@ -0,0 +1,144 @@
+package fi.nls.paikkatietoikkuna.coordtransform;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the CoordTrans service. Accepts the parameters
+ * sourceCRS, targetCRS and coords ("x,y[,z];x,y[,z];...") either in the
+ * query string (GET) or in a form encoded body (POST), and "transforms"
+ * each coordinate by adding DX, DY (and DZ) to it. Like the real service
+ * it responds to invalid input with status 200 and a "Virhe: " message.
+ */
+public class CoordTransStub implements AutoCloseable {
+
+    public static final double DX = 1000.0;
+    public static final double DY = 2000.0;
+    public static final double DZ = 0.5;
+    public static final String PATH = "/CoordTrans";
+
+    private final HttpServer server;
+    private final boolean allowPost;
+    private final AtomicInteger getRequests = new AtomicInteger();
+    private final AtomicInteger postRequests = new AtomicInteger();
+
+    /**
+     * @param allowPost
+     *      if false POST requests are rejected with 405 like by a GET-only backend
+     */
+    public CoordTransStub(boolean allowPost) throws IOException {
+        this.allowPost = allowPost;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(PATH, this::handle);
+        server.start();
+    }
+
+    public String getEndPoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    public int getGetRequests() {
+        return getRequests.get();
+    }
+
+    public int getPostRequests() {
+        return postRequests.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String params;
+        if ("POST".equals(exchange.getRequestMethod())) {
+            postRequests.incrementAndGet();
+            byte[] body = readAll(exchange.getRequestBody());
+            if (!allowPost) {
+                respond(exchange, 405, "Method Not Allowed");
+                return;
+            }
+            params = new String(body, StandardCharsets.UTF_8);
+        } else {
+            getRequests.incrementAndGet();
+            params = exchange.getRequestURI().getRawQuery();
+        }
+        respond(exchange, 200, transform(parse(params)));
+    }
+
+    private static Map<String, String> parse(String params) throws IOException {
+        Map<String, String> map = new HashMap<>();
+        if (params == null) {
+            return map;
+        }
+        for (String kvp : params.split("&")) {
+            int i = kvp.indexOf('=');
+            if (i > 0) {
+                map.put(kvp.substring(0, i), URLDecoder.decode(kvp.substring(i + 1), "UTF-8"));
+            }
+        }
+        return map;
+    }
+
+    private static String transform(Map<String, String> params) {
+        if (params.get("sourceCRS") == null || params.get("targetCRS") == null) {
+            return "Virhe: Missing CRS";
+        }
+        String coords = params.get("coords");
+        if (coords == null || coords.isEmpty()) {
+            return "Virhe: Missing coords";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String coord : coords.split(";")) {
+            String[] parts = coord.split(",");
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            try {
+                double x = Double.parseDouble(parts[0]);
+                double y = Double.parseDouble(parts[1]);
+                if (!Double.isFinite(x) || !Double.isFinite(y)) {
+                    return "Virhe: Invalid coordinate " + coord;
+                }
+                sb.append(x + DX).append(',').append(y + DY);
+                if (parts.length > 2) {
+                    sb.append(',').append(Double.parseDouble(parts[2]) + DZ);
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                return "Virhe: Invalid coordinate " + coord;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            baos.write(buf, 0, n);
+        }
+        return baos.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+}
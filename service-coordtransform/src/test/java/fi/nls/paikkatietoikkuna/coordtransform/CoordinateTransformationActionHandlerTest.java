@@ -2,13 +2,25 @@ package fi.nls.paikkatietoikkuna.coordtransform;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.junit.Ignore;
@@ -19,7 +31,12 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.vividsolutions.jts.geom.Coordinate;
 
+import org.apache.commons.fileupload.FileItem;
+
 import fi.nls.oskari.control.ActionException;
+import fi.nls.oskari.control.ActionParamsException;
+import fi.nls.paikkatietoikkuna.http.HttpStatusException;
+import fi.nls.paikkatietoikkuna.http.PooledHttpClient;
 
 public class CoordinateTransformationActionHandlerTest {
 
@@ -149,4 +166,319 @@ public class CoordinateTransformationActionHandlerTest {
         }
     }
 
+    @Test
+    public void fileToFileIsTransformedInChunks() throws Exception {
+        int n = 2500;
+        StringBuilder sb = new StringBuilder("first header\nsecond header\n");
+        for (int i = 0; i < n; i++) {
+            // axisFlip: north first
+            sb.append("id").append(i).append('\t').append(6700000 + i).append('\t').append(300000 + i)
+                    .append("\tend ").append(i).append('\n');
+            if (i == 10) {
+                sb.append("\n");
+            }
+        }
+        FileItem file = mock(FileItem.class);
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        when(file.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(bytes));
+
+        List<Integer> batchSizes = new ArrayList<>();
+        CoordinateTransformationActionHandler handler = new CoordinateTransformationActionHandler("http://localhost", false) {
+            @Override
+            protected void transform(String query, List<Coordinate> batch, int dimension) {
+                batchSizes.add(batch.size());
+                for (Coordinate c : batch) {
+                    c.x += 1;
+                    c.y += 2;
+                }
+            }
+        };
+        handler.init();
+
+        CoordTransFile importSettings = getFileSettings();
+        CoordTransFile exportSettings = getFileSettings();
+        exportSettings.setLineSeparator("mac");
+        exportSettings.setDecimalCount(0);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        handler.writeFileResponse(() -> baos, file, importSettings, exportSettings,
+                "EPSG:3067", "EPSG:3067", 2, 2, 2, false);
+
+        String[] lines = new String(baos.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(n + 3, lines.length);
+        assertEquals("Coordinate Reference System:EPSG:3067", lines[0]);
+        assertEquals("first header", lines[1]);
+        assertEquals("second header", lines[2]);
+        for (int i = 0; i < n; i++) {
+            assertEquals("id" + i + "\t" + (6700000 + i + 2) + "\t" + (300000 + i + 1) + "\tend " + i, lines[i + 3]);
+        }
+        int total = 0;
+        for (int size : batchSizes) {
+            total += size;
+        }
+        assertEquals(n, total);
+        // Batches never span a chunk
+        assertTrue(batchSizes.size() >= 3);
+    }
+
+    @Test
+    public void failureAfterTheFirstChunkEndsTheFileWithAnError() throws Exception {
+        int n = 25000;
+        StringBuilder sb = new StringBuilder("first header\nsecond header\n");
+        for (int i = 0; i < n; i++) {
+            sb.append("id").append(i).append('\t').append(6700000 + i).append('\t').append(300000 + i).append('\n');
+        }
+        FileItem file = mock(FileItem.class);
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        when(file.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(bytes));
+
+        AtomicInteger transformed = new AtomicInteger();
+        CoordinateTransformationActionHandler handler = new CoordinateTransformationActionHandler("http://localhost", false) {
+            @Override
+            protected void transform(String query, List<Coordinate> batch, int dimension) throws ActionException {
+                if (transformed.addAndGet(batch.size()) > 10000) {
+                    throw new ActionException("Service unavailable");
+                }
+            }
+        };
+        handler.init();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            CoordTransFile exportSettings = getFileSettings();
+            exportSettings.setLineSeparator("mac");
+            handler.writeFileResponse(() -> baos, file, getFileSettings(), exportSettings,
+                    "EPSG:3067", "EPSG:3067", 2, 2, 2, false);
+            fail();
+        } catch (ActionException e) {
+            assertEquals("Service unavailable", e.getMessage());
+        } finally {
+            handler.teardown();
+        }
+        String[] lines = new String(baos.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        // The header, the first chunk and the error
+        assertEquals(3 + 10000 + 1, lines.length);
+        assertEquals("ERROR: transformation failed, the file is incomplete: Service unavailable",
+                lines[lines.length - 1]);
+    }
+
+    @Test
+    public void emptyFileThrowsBeforeTheResponseIsOpened() throws Exception {
+        FileItem file = mock(FileItem.class);
+        when(file.getInputStream()).thenReturn(new ByteArrayInputStream(
+                "h1\nh2\n".getBytes(StandardCharsets.UTF_8)));
+        CoordinateTransformationActionHandler handler = new CoordinateTransformationActionHandler("http://localhost");
+        handler.init();
+        try {
+            handler.writeFileResponse(() -> {
+                throw new AssertionError("Response opened");
+            }, file, getFileSettings(), getFileSettings(), "EPSG:3067", "EPSG:3067", 2, 2, 2, false);
+            fail();
+        } catch (ActionParamsException e) {
+            assertEquals("No coordinates", e.getMessage());
+        } finally {
+            handler.teardown();
+        }
+    }
+
+    @Test(expected = ActionParamsException.class)
+    public void invalidLineInFileThrows() throws Exception {
+        FileItem file = mock(FileItem.class);
+        when(file.getInputStream()).thenReturn(new ByteArrayInputStream(
+                "h1\nh2\na\t1\t2\nb\t3\n".getBytes(StandardCharsets.UTF_8)));
+        CoordinateTransformationActionHandler handler = new CoordinateTransformationActionHandler("http://localhost");
+        handler.init();
+        handler.getCoordsFromFile(getFileSettings(), file, 2, false, false, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void batchesAreTransformedConcurrentlyInOrder() throws Exception {
+        // The first two batches only get past the barrier if they run at the same time
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        AtomicInteger batches = new AtomicInteger();
+        CoordinateTransformationActionHandler handler = new CoordinateTransformationActionHandler("http://localhost", false) {
+            @Override
+            protected void transform(String query, List<Coordinate> batch, int dimension) throws ActionException {
+                if (batches.getAndIncrement() < 2) {
+                    try {
+                        barrier.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+                        throw new ActionException("Batches were not transformed concurrently", e);
+                    }
+                }
+                for (Coordinate c : batch) {
+                    c.x = -c.x;
+                }
+            }
+        };
+        handler.init();
+        try {
+            List<Coordinate> coordinates = getRandomCoordinates(2000, 300000, 600000, 6700000, 6730000, 0, 0);
+            List<Coordinate> originals = coordinates.stream().map(c -> new Coordinate(c)).collect(Collectors.toList());
+            handler.transform("EPSG:3067", "EPSG:4258", 2, 2, coordinates);
+            assertTrue(batches.get() > 4);
+            for (int i = 0; i < originals.size(); i++) {
+                assertEquals(-originals.get(i).x, coordinates.get(i).x, 0.0);
+                assertEquals(originals.get(i).y, coordinates.get(i).y, 0.0);
+            }
+        } finally {
+            handler.teardown();
+        }
+    }
+
+    @Test
+    public void failedBatchAbortsTheRest() throws Exception {
+        // With 4 threads the first 3 batches block until they're interrupted
+        // and the 4th one fails once they're all blocked
+        CountDownLatch blocked = new CountDownLatch(3);
+        CountDownLatch interrupted = new CountDownLatch(3);
+        CountDownLatch never = new CountDownLatch(1);
+        AtomicInteger batches = new AtomicInteger();
+        CoordinateTransformationActionHandler handler = new CoordinateTransformationActionHandler("http://localhost", false) {
+            @Override
+            protected void transform(String query, List<Coordinate> batch, int dimension) throws ActionException {
+                try {
+                    if (batches.getAndIncrement() == 3) {
+                        blocked.await(10, TimeUnit.SECONDS);
+                        throw new ActionException("Failed batch");
+                    }
+                    blocked.countDown();
+                    never.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw new ActionException("Interrupted");
+                }
+            }
+        };
+        handler.init();
+        try {
+            List<Coordinate> coordinates = getRandomCoordinates(5000, 300000, 600000, 6700000, 6730000, 0, 0);
+            handler.transform("EPSG:3067", "EPSG:4258", 2, 2, coordinates);
+            fail();
+        } catch (ActionException e) {
+            assertEquals("Failed batch", e.getMessage());
+            // Cancelled by the failure, not by the teardown
+            assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        } finally {
+            handler.teardown();
+        }
+    }
+
+    @Test
+    public void largeBatchesArePosted() throws Exception {
+        try (CoordTransStub stub = new CoordTransStub(true)) {
+            CoordinateTransformationActionHandler handler = new CoordinateTransformationActionHandler(stub.getEndPoint());
+            handler.init();
+            try {
+                List<Coordinate> coordinates = getRandomCoordinates(5000, 300000, 600000, 6700000, 6730000, 0, 100);
+                List<Coordinate> originals = coordinates.stream().map(c -> new Coordinate(c)).collect(Collectors.toList());
+                handler.transform("EPSG:3067,EPSG:3900", "EPSG:4258,EPSG:3900", 3, 3, coordinates);
+                // Roughly 40 GET requests, 1 with POST
+                assertEquals(0, stub.getGetRequests());
+                assertTrue(stub.getPostRequests() <= 2);
+                assertTransformed(originals, coordinates, true);
+            } finally {
+                handler.teardown();
+            }
+        }
+    }
+
+    @Test
+    public void fallsBackToGetIfPostIsNotSupported() throws Exception {
+        try (CoordTransStub stub = new CoordTransStub(false)) {
+            CoordinateTransformationActionHandler handler = new CoordinateTransformationActionHandler(stub.getEndPoint());
+            handler.init();
+            try {
+                for (int round = 0; round < 2; round++) {
+                    List<Coordinate> coordinates = getRandomCoordinates(1000, 300000, 600000, 6700000, 6730000, 0, 0);
+                    List<Coordinate> originals = coordinates.stream().map(c -> new Coordinate(c)).collect(Collectors.toList());
+                    handler.transform("EPSG:3067", "EPSG:4258", 2, 2, coordinates);
+                    assertTransformed(originals, coordinates, false);
+                }
+                // POST is only tried once
+                assertEquals(1, stub.getPostRequests());
+                assertTrue(stub.getGetRequests() > 2);
+            } finally {
+                handler.teardown();
+            }
+        }
+    }
+
+    @Test
+    public void otherPostFailuresDontFallBackToGet() throws Exception {
+        AtomicInteger postRequests = new AtomicInteger();
+        AtomicInteger getRequests = new AtomicInteger();
+        CoordinateTransformationActionHandler handler = new CoordinateTransformationActionHandler("http://localhost") {
+            @Override
+            protected void transformPost(String body, List<Coordinate> batch, int dimension) throws ActionException {
+                postRequests.incrementAndGet();
+                throw new ActionException("Failed to read response from CoordTrans service",
+                        new HttpStatusException(503, "Service Unavailable"));
+            }
+
+            @Override
+            protected void transform(String query, List<Coordinate> batch, int dimension) {
+                getRequests.incrementAndGet();
+            }
+        };
+        handler.init();
+        try {
+            for (int round = 0; round < 2; round++) {
+                try {
+                    handler.transform("EPSG:3067", "EPSG:4258", 2, 2,
+                            getRandomCoordinates(1000, 300000, 600000, 6700000, 6730000, 0, 0));
+                    fail();
+                } catch (ActionException e) {
+                    assertEquals(503, ((HttpStatusException) e.getCause()).getStatusCode());
+                }
+            }
+            // POST support is still unknown so it's probed again
+            assertEquals(2, postRequests.get());
+            assertEquals(0, getRequests.get());
+        } finally {
+            handler.teardown();
+        }
+    }
+
+    @Test
+    public void teardownKeepsTheSharedClientOfOtherUsers() {
+        PooledHttpClient client = PooledHttpClient.acquireShared();
+        try {
+            CoordinateTransformationActionHandler handler = new CoordinateTransformationActionHandler("http://localhost");
+            handler.init();
+            handler.teardown();
+            handler.teardown();
+            assertSame(client, PooledHttpClient.getSharedIfCreated());
+        } finally {
+            PooledHttpClient.releaseShared();
+        }
+    }
+
+    @Test
+    public void serviceErrorIsReported() throws Exception {
+        try (CoordTransStub stub = new CoordTransStub(true)) {
+            CoordinateTransformationActionHandler handler = new CoordinateTransformationActionHandler(stub.getEndPoint());
+            handler.init();
+            try {
+                List<Coordinate> coordinates = new ArrayList<>();
+                coordinates.add(new Coordinate(Double.NaN, 1));
+                handler.transform("EPSG:3067", "EPSG:4258", 2, 2, coordinates);
+                fail();
+            } catch (ActionException e) {
+                assertEquals("Invalid coordinate NaN,1.0", e.getMessage());
+            } finally {
+                handler.teardown();
+            }
+        }
+    }
+
+    private static void assertTransformed(List<Coordinate> originals, List<Coordinate> transformed, boolean z) {
+        assertEquals(originals.size(), transformed.size());
+        for (int i = 0; i < originals.size(); i++) {
+            assertEquals(originals.get(i).x + CoordTransStub.DX, transformed.get(i).x, 1e-6);
+            assertEquals(originals.get(i).y + CoordTransStub.DY, transformed.get(i).y, 1e-6);
+            if (z) {
+                assertEquals(originals.get(i).z + CoordTransStub.DZ, transformed.get(i).z, 1e-6);
+            }
+        }
+    }
+
 }
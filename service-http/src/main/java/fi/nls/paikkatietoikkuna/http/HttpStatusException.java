@@ -0,0 +1,23 @@
+package fi.nls.paikkatietoikkuna.http;
+
+import java.io.IOException;
+
+/**
+ * The backend responded with a status code other than 2xx
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public HttpStatusException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+}
@@ -0,0 +1,263 @@
+package fi.nls.paikkatietoikkuna.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+
+/**
+ * HTTP client for the backend services (WCS, CoordTrans) that keeps the
+ * connections alive and reuses them across requests, so that short requests
+ * don't pay for the TCP and TLS handshakes every time.
+ *
+ * Use {@link #getShared()} to get the instance shared by all the action
+ * handlers of the webapp, configured with the http.client.* properties.
+ * The proxy is configured with the standard JVM properties (http.proxyHost,
+ * https.proxyHost, http.nonProxyHosts...). Each user of the shared client
+ * calls {@link #acquireShared()} on init and {@link #releaseShared()} on
+ * teardown, the client (and its connection evictor thread) is closed once
+ * all of them have released it.
+ */
+public class PooledHttpClient implements Closeable {
+
+    private static final Logger LOG = LogFactory.getLogger(PooledHttpClient.class);
+
+    public static final String PROPERTY_MAX_CONNECTIONS = "http.client.max.connections";
+    public static final String PROPERTY_MAX_CONNECTIONS_PER_HOST = "http.client.max.connections.per.host";
+    public static final String PROPERTY_CONNECT_TIMEOUT_MS = "http.client.connect.timeout.ms";
+    public static final String PROPERTY_READ_TIMEOUT_MS = "http.client.read.timeout.ms";
+    public static final String PROPERTY_POOL_TIMEOUT_MS = "http.client.pool.timeout.ms";
+    public static final String PROPERTY_IDLE_TIMEOUT_MS = "http.client.idle.timeout.ms";
+
+    private static final int MAX_CONNECTIONS_DEFAULT = 100;
+    private static final int MAX_CONNECTIONS_PER_HOST_DEFAULT = 20;
+    private static final int CONNECT_TIMEOUT_MS_DEFAULT = 5000;
+    private static final int READ_TIMEOUT_MS_DEFAULT = 30000;
+    private static final int POOL_TIMEOUT_MS_DEFAULT = 10000;
+    private static final int IDLE_TIMEOUT_MS_DEFAULT = 30000;
+
+    private static PooledHttpClient shared;
+    private static int refCount;
+
+    private final PoolingHttpClientConnectionManager cm;
+    private final CloseableHttpClient client;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder timeNanos = new LongAdder();
+
+    /**
+     * @param maxConnections
+     *      maximum number of open connections in total
+     * @param maxConnectionsPerHost
+     *      maximum number of open connections to a single host,
+     *      further requests to the host wait for a free connection
+     * @param connectTimeoutMs
+     *      timeout for establishing the connection
+     * @param readTimeoutMs
+     *      timeout for waiting for data (socket timeout)
+     * @param poolTimeoutMs
+     *      timeout for waiting for a free connection from the pool
+     * @param idleTimeoutMs
+     *      idle connections are closed after this
+     */
+    public PooledHttpClient(int maxConnections, int maxConnectionsPerHost,
+            int connectTimeoutMs, int readTimeoutMs, int poolTimeoutMs, int idleTimeoutMs) {
+        cm = new PoolingHttpClientConnectionManager();
+        cm.setMaxTotal(maxConnections);
+        cm.setDefaultMaxPerRoute(maxConnectionsPerHost);
+        // Check the connections that have been idle for a while before reusing them
+        cm.setValidateAfterInactivity(2000);
+        RequestConfig config = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMs)
+                .setSocketTimeout(readTimeoutMs)
+                .setConnectionRequestTimeout(poolTimeoutMs)
+                .build();
+        client = HttpClients.custom()
+                .setConnectionManager(cm)
+                .setDefaultRequestConfig(config)
+                .useSystemProperties()
+                .evictIdleConnections(idleTimeoutMs, TimeUnit.MILLISECONDS)
+                .evictExpiredConnections()
+                .build();
+    }
+
+    /**
+     * @return client shared by all the users within the JVM, created on first call
+     */
+    public static synchronized PooledHttpClient getShared() {
+        if (shared == null) {
+            int maxConnections = PropertyUtil.getOptional(PROPERTY_MAX_CONNECTIONS, MAX_CONNECTIONS_DEFAULT);
+            int maxPerHost = PropertyUtil.getOptional(PROPERTY_MAX_CONNECTIONS_PER_HOST,
+                    MAX_CONNECTIONS_PER_HOST_DEFAULT);
+            LOG.info("Creating shared HTTP client, max connections:", maxConnections, "per host:", maxPerHost);
+            shared = new PooledHttpClient(maxConnections, maxPerHost,
+                    PropertyUtil.getOptional(PROPERTY_CONNECT_TIMEOUT_MS, CONNECT_TIMEOUT_MS_DEFAULT),
+                    PropertyUtil.getOptional(PROPERTY_READ_TIMEOUT_MS, READ_TIMEOUT_MS_DEFAULT),
+                    PropertyUtil.getOptional(PROPERTY_POOL_TIMEOUT_MS, POOL_TIMEOUT_MS_DEFAULT),
+                    PropertyUtil.getOptional(PROPERTY_IDLE_TIMEOUT_MS, IDLE_TIMEOUT_MS_DEFAULT));
+        }
+        return shared;
+    }
+
+    /**
+     * @return the shared client, null if it hasn't been created (or has been closed)
+     */
+    public static synchronized PooledHttpClient getSharedIfCreated() {
+        return shared;
+    }
+
+    /**
+     * Register a user of the shared client, which keeps it open until
+     * the user calls {@link #releaseShared()}
+     *
+     * @return the shared client, created on the first call
+     */
+    public static synchronized PooledHttpClient acquireShared() {
+        refCount++;
+        return getShared();
+    }
+
+    /**
+     * Release the client acquired with {@link #acquireShared()}. Once all the
+     * users have released it the client is closed and its counters are logged.
+     * A later call to {@link #getShared()} creates a new client.
+     */
+    public static synchronized void releaseShared() {
+        if (refCount <= 0) {
+            return;
+        }
+        if (--refCount == 0) {
+            closeShared();
+        }
+    }
+
+    private static void closeShared() {
+        if (shared == null) {
+            return;
+        }
+        LOG.info("Closing shared HTTP client,", shared);
+        try {
+            shared.close();
+        } catch (IOException e) {
+            LOG.warn(e, "Failed to close shared HTTP client");
+        }
+        shared = null;
+    }
+
+    /**
+     * @return response body
+     * @throws IOException if the request fails, HttpStatusException if the status code is not 2xx
+     */
+    public byte[] get(String url) throws IOException {
+        return execute(new HttpGet(url));
+    }
+
+    /**
+     * @return response body
+     * @throws IOException if the request fails, HttpStatusException if the status code is not 2xx
+     */
+    public byte[] post(String url, byte[] body, String contentType) throws IOException {
+        HttpPost post = new HttpPost(url);
+        post.setEntity(new ByteArrayEntity(body, ContentType.parse(contentType)));
+        return execute(post);
+    }
+
+    private byte[] execute(HttpUriRequest request) throws IOException {
+        long start = System.nanoTime();
+        requests.increment();
+        try (CloseableHttpResponse response = client.execute(request)) {
+            int status = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+            if (status < 200 || status >= 300) {
+                // Read the rest of the body so the connection can be reused
+                EntityUtils.consumeQuietly(entity);
+                throw new HttpStatusException(status, "Unexpected status " + status + " from " + request.getURI().getHost());
+            }
+            byte[] body = entity != null ? EntityUtils.toByteArray(entity) : new byte[0];
+            bytesRead.add(body.length);
+            return body;
+        } catch (IOException e) {
+            failures.increment();
+            throw e;
+        } finally {
+            timeNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * @return total time spent in requests (including waiting for a connection) in milliseconds
+     */
+    public long getTotalTimeMs() {
+        return TimeUnit.NANOSECONDS.toMillis(timeNanos.sum());
+    }
+
+    /**
+     * @return number of connections currently in use
+     */
+    public int getLeasedConnections() {
+        return cm.getTotalStats().getLeased();
+    }
+
+    /**
+     * @return number of idle connections kept alive for reuse
+     */
+    public int getAvailableConnections() {
+        return cm.getTotalStats().getAvailable();
+    }
+
+    /**
+     * @return number of requests waiting for a free connection
+     */
+    public int getPendingRequests() {
+        return cm.getTotalStats().getPending();
+    }
+
+    @Override
+    public String toString() {
+        PoolStats stats = cm.getTotalStats();
+        return "requests: " + getRequestCount()
+                + ", failures: " + getFailureCount()
+                + ", bytes: " + getBytesRead()
+                + ", time ms: " + getTotalTimeMs()
+                + ", leased: " + stats.getLeased()
+                + ", available: " + stats.getAvailable()
+                + ", pending: " + stats.getPending();
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+
+}
@@ -0,0 +1,121 @@
+package fi.nls.paikkatietoikkuna.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class PooledHttpClientTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private PooledHttpClient client;
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ok", exchange -> respond(exchange, 200, "ok".getBytes(StandardCharsets.UTF_8)));
+        server.createContext("/missing", exchange -> respond(exchange, 404, "not found".getBytes(StandardCharsets.UTF_8)));
+        server.createContext("/echo", exchange -> respond(exchange, 200, readAll(exchange.getRequestBody())));
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        client = new PooledHttpClient(10, 2, 1000, 5000, 1000, 30000);
+    }
+
+    @After
+    public void stop() throws IOException {
+        client.close();
+        server.stop(0);
+    }
+
+    private void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        readAll(exchange.getRequestBody());
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            baos.write(buf, 0, n);
+        }
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void connectionIsReused() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals("ok".getBytes(StandardCharsets.UTF_8), client.get(baseUrl + "/ok"));
+        }
+        assertEquals(1, clientPorts.size());
+        assertEquals(10, client.getRequestCount());
+        assertEquals(0, client.getFailureCount());
+        assertEquals(20, client.getBytesRead());
+        assertEquals(0, client.getLeasedConnections());
+        assertEquals(1, client.getAvailableConnections());
+    }
+
+    @Test
+    public void errorStatusThrowsAndKeepsConnection() throws IOException {
+        try {
+            client.get(baseUrl + "/missing");
+            fail();
+        } catch (HttpStatusException e) {
+            assertEquals(404, e.getStatusCode());
+            assertEquals("Unexpected status 404 from 127.0.0.1", e.getMessage());
+        }
+        assertEquals(1, client.getFailureCount());
+        client.get(baseUrl + "/ok");
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void sharedClientIsClosedWhenAllUsersHaveReleasedIt() {
+        PooledHttpClient first = PooledHttpClient.acquireShared();
+        assertSame(first, PooledHttpClient.acquireShared());
+        assertSame(first, PooledHttpClient.getSharedIfCreated());
+        PooledHttpClient.releaseShared();
+        // Still used by the other user
+        assertSame(first, PooledHttpClient.getSharedIfCreated());
+        PooledHttpClient.releaseShared();
+        assertNull(PooledHttpClient.getSharedIfCreated());
+        // Extra releases don't close the client of later users
+        PooledHttpClient.releaseShared();
+        PooledHttpClient second = PooledHttpClient.acquireShared();
+        assertNotSame(first, second);
+        PooledHttpClient.releaseShared();
+        assertNull(PooledHttpClient.getSharedIfCreated());
+    }
+
+    @Test
+    public void postSendsBody() throws IOException {
+        byte[] body = "a=1&b=2".getBytes(StandardCharsets.UTF_8);
+        byte[] response = client.post(baseUrl + "/echo", body, "application/x-www-form-urlencoded");
+        assertArrayEquals(body, response);
+    }
+
+}
@@ -0,0 +1,175 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+/**
+ * Distributes the points of a profile according to the roughness of the terrain.
+ *
+ * A coarse, evenly spaced pilot profile is sampled first. The rest of the
+ * points are then divided between the segments of the pilot profile in
+ * proportion to how much the altitude changes within (and around) each
+ * segment. Flat segments get few or no extra points, steep ones get many.
+ * The pilot points are part of the final profile, so only the added points
+ * need to be sampled in the second pass.
+ */
+public class AdaptiveSampling {
+
+    // Share of the points used for the pilot profile
+    private static final int PILOT_DIVISOR = 4;
+    private static final int PILOT_MIN_SIZE = 8;
+    // Share of the mean weight given to every segment, so that flat parts aren't left empty
+    private static final double FLAT_WEIGHT = 0.1;
+
+    /**
+     * @return number of points in the pilot profile, if not less than
+     *         numPoints adaptive sampling isn't worth it
+     */
+    public static int getPilotSize(int numPoints) {
+        return Math.max(PILOT_MIN_SIZE, numPoints / PILOT_DIVISOR);
+    }
+
+    /**
+     * @param length
+     *      length of the line
+     * @param pilot
+     *      altitudes of the pilot profile, pilot.length points evenly spaced along the line
+     * @param noData
+     *      altitudes with this value are considered flat
+     * @param numPoints
+     *      total number of points, must be at least pilot.length
+     * @return distances from the start of the line of numPoints points in ascending order,
+     *         containing the distances of the points of the pilot profile
+     */
+    public static double[] getDistances(double length, float[] pilot, float noData, int numPoints) {
+        return getDistances(length, getExtraPoints(pilot, noData, numPoints));
+    }
+
+    /**
+     * @param pilot
+     *      altitudes of the pilot profile, pilot.length points evenly spaced along the line
+     * @param noData
+     *      altitudes with this value are considered flat
+     * @param numPoints
+     *      total number of points, must be at least pilot.length
+     * @return number of points added between each pair of consecutive pilot points
+     */
+    public static int[] getExtraPoints(float[] pilot, float noData, int numPoints) {
+        return allocate(getWeights(pilot, noData), numPoints - pilot.length);
+    }
+
+    /**
+     * @param length
+     *      length of the line
+     * @param extra
+     *      number of points added to each segment of the pilot profile
+     * @return distances from the start of the line of all the points in ascending order,
+     *         containing the distances of the points of the pilot profile
+     */
+    public static double[] getDistances(double length, int[] extra) {
+        int numSegments = extra.length;
+        double segmentLength = length / numSegments;
+        double[] distances = new double[numSegments + 1 + sum(extra)];
+        int k = 0;
+        for (int i = 0; i < numSegments; i++) {
+            double d0 = i * segmentLength;
+            distances[k++] = d0;
+            double step = segmentLength / (extra[i] + 1);
+            for (int j = 1; j <= extra[i]; j++) {
+                distances[k++] = d0 + j * step;
+            }
+        }
+        distances[k] = length;
+        return distances;
+    }
+
+    /**
+     * @param extra
+     *      number of points added to each segment of the pilot profile
+     * @return positions of the pilot points within the distances returned
+     *         by {@link #getDistances(double, int[])}
+     */
+    public static int[] getPilotIndices(int[] extra) {
+        int[] indices = new int[extra.length + 1];
+        for (int i = 0; i < extra.length; i++) {
+            indices[i + 1] = indices[i] + extra[i] + 1;
+        }
+        return indices;
+    }
+
+    private static int sum(int[] a) {
+        int sum = 0;
+        for (int v : a) {
+            sum += v;
+        }
+        return sum;
+    }
+
+    /**
+     * Weight of each segment is the change of altitude within the segment
+     * plus the mean curvature at its ends
+     */
+    static double[] getWeights(float[] pilot, float noData) {
+        int n = pilot.length;
+        double[] z = new double[n];
+        for (int i = 0; i < n; i++) {
+            z[i] = pilot[i] == noData || Float.isNaN(pilot[i]) ? Double.NaN : pilot[i];
+        }
+
+        double[] curvature = new double[n];
+        for (int i = 1; i < n - 1; i++) {
+            curvature[i] = abs(z[i - 1] - 2 * z[i] + z[i + 1]);
+        }
+
+        double[] weights = new double[n - 1];
+        double sum = 0.0;
+        for (int i = 0; i < n - 1; i++) {
+            weights[i] = abs(z[i + 1] - z[i]) + 0.5 * (curvature[i] + curvature[i + 1]);
+            sum += weights[i];
+        }
+
+        double floor = sum > 0.0 ? FLAT_WEIGHT * sum / weights.length : 1.0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] += floor;
+        }
+        return weights;
+    }
+
+    /**
+     * NaN (noData) is considered flat
+     */
+    private static double abs(double d) {
+        return Double.isNaN(d) ? 0.0 : Math.abs(d);
+    }
+
+    /**
+     * Divide n points in proportion to the weights (largest remainder method)
+     */
+    static int[] allocate(double[] weights, int n) {
+        double sum = 0.0;
+        for (double w : weights) {
+            sum += w;
+        }
+        int[] counts = new int[weights.length];
+        double[] remainders = new double[weights.length];
+        int allocated = 0;
+        for (int i = 0; i < weights.length; i++) {
+            double share = n * weights[i] / sum;
+            counts[i] = (int) share;
+            remainders[i] = share - counts[i];
+            allocated += counts[i];
+        }
+
+        // Less than weights.length points are left, give them to the largest remainders
+        while (allocated < n) {
+            int max = 0;
+            for (int i = 1; i < remainders.length; i++) {
+                if (remainders[i] > remainders[max]) {
+                    max = i;
+                }
+            }
+            counts[max]++;
+            remainders[max] = -1.0;
+            allocated++;
+        }
+        return counts;
+    }
+
+}
@@ -0,0 +1,63 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a terrain profile in a compact binary format. All values are big-endian.
+ *
+ * <pre>
+ * offset  type       description
+ * 0       byte[4]    magic "TPRF"
+ * 4       uint8      version (1)
+ * 5       uint8      flags, bit 0 set if coordinates are included
+ * 6       uint16     reserved (0)
+ * 8       int32      number of points (n)
+ * 12      float32[n] distance from start (m)
+ * 12+4n   float32[n] altitude (m), NaN if noData
+ * if coordinates are included:
+ * 12+8n   float64    east of the first point
+ * 20+8n   float64    north of the first point
+ * 28+8n   float32[2n] east and north of each point relative to the first point
+ * </pre>
+ */
+public class CompactProfileWriter {
+
+    public static final String CONTENT_TYPE = "application/octet-stream";
+
+    private static final byte[] MAGIC = { 'T', 'P', 'R', 'F' };
+    private static final int VERSION = 1;
+    private static final int FLAG_COORDINATES = 1;
+
+    public static void write(TerrainProfile profile, OutputStream out, final float noData,
+            boolean includeCoordinates) throws IOException {
+        int n = profile.size();
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.write(MAGIC);
+        dos.writeByte(VERSION);
+        dos.writeByte(includeCoordinates ? FLAG_COORDINATES : 0);
+        dos.writeShort(0);
+        dos.writeInt(n);
+        for (int i = 0; i < n; i++) {
+            dos.writeFloat((float) profile.getDistFromStart(i));
+        }
+        for (int i = 0; i < n; i++) {
+            float alt = profile.getAltitude(i);
+            dos.writeFloat(alt == noData ? Float.NaN : alt);
+        }
+        if (includeCoordinates && n > 0) {
+            double e0 = profile.getE(0);
+            double n0 = profile.getN(0);
+            dos.writeDouble(e0);
+            dos.writeDouble(n0);
+            for (int i = 0; i < n; i++) {
+                dos.writeFloat((float) (profile.getE(i) - e0));
+                dos.writeFloat((float) (profile.getN(i) - n0));
+            }
+        }
+        dos.flush();
+    }
+
+}
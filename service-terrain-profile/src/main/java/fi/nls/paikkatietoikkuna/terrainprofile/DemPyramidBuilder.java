@@ -0,0 +1,246 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.ServiceException;
+
+/**
+ * Builds the overview pyramid read by {@link PyramidElevationSource}.
+ *
+ * Each level is computed from the previous one with a [1 2 1] / 4 filter
+ * (in both directions) centered on every other cell, cells with noData
+ * are left out of the average. If the source is a local grid the first
+ * level is computed from it the same way. Remote sources (WCS) can't be
+ * read cell by cell, so the first level built is requested from the source
+ * at its scale factor (the service downsamples it once, when building)
+ * and the levels below it are not built.
+ */
+public class DemPyramidBuilder {
+
+    private static final Logger LOG = LogFactory.getLogger(DemPyramidBuilder.class);
+
+    public static final String LEVEL_DIR_PREFIX = "level_";
+    private static final int TILE_SIZE = 256;
+    private static final float[] FILTER = { 0.25f, 0.5f, 0.25f };
+
+    private final ElevationSource source;
+    private final double minEast;
+    private final double minNorth;
+    private final double maxEast;
+    private final double maxNorth;
+
+    /**
+     * @param source
+     *      source of the DEM at its native resolution
+     * @param extent
+     *      [minEast, minNorth, maxEast, maxNorth] of the area to build
+     */
+    public DemPyramidBuilder(ElevationSource source, double[] extent) {
+        this.source = source;
+        this.minEast = extent[0];
+        this.minNorth = extent[1];
+        this.maxEast = extent[2];
+        this.maxNorth = extent[3];
+    }
+
+    public static Path getLevelDir(Path dir, int level) {
+        return dir.resolve(LEVEL_DIR_PREFIX + level);
+    }
+
+    /**
+     * @param fromLevel
+     *      first level to build if the source is not a local grid, ignored otherwise
+     * @param toLevel
+     *      last level to build, scaleFactor 1/2^toLevel
+     */
+    public void build(Path dir, int fromLevel, int toLevel) throws IOException, ServiceException {
+        FloatRaster prev;
+        int level;
+        if (source instanceof FloatRaster) {
+            prev = (FloatRaster) source;
+            level = 1;
+        } else {
+            buildFromSource(dir, fromLevel);
+            prev = new TiledGridElevationSource(getLevelDir(dir, fromLevel));
+            level = fromLevel + 1;
+        }
+        for (; level <= toLevel; level++) {
+            buildFromPrevious(dir, level, prev);
+            prev = new TiledGridElevationSource(getLevelDir(dir, level));
+        }
+    }
+
+    private void buildFromSource(Path dir, int level) throws IOException, ServiceException {
+        double scaleFactor = 1.0 / (1 << level);
+        Path levelDir = createLevelDir(dir, level);
+        int[] tiles = getTileRange(level);
+        int n = TILE_SIZE * TILE_SIZE;
+        int[] indices = new int[n];
+        for (int i = 0; i < n; i++) {
+            indices[i] = i;
+        }
+        double dx = source.getOffsetVectorX() / scaleFactor;
+        double dy = source.getOffsetVectorY() / scaleFactor;
+        for (int tileY = tiles[1]; tileY <= tiles[3]; tileY++) {
+            for (int tileX = tiles[0]; tileX <= tiles[2]; tileX++) {
+                TerrainProfile cells = new TerrainProfile(n);
+                for (int y = 0; y < TILE_SIZE; y++) {
+                    int row = tileY * TILE_SIZE + y;
+                    for (int x = 0; x < TILE_SIZE; x++) {
+                        int col = tileX * TILE_SIZE + x;
+                        int i = y * TILE_SIZE + x;
+                        cells.setPoint(i, source.getOriginEast() + col * dx,
+                                source.getOriginNorth() + row * dy, 0.0);
+                        cells.setGridCell(i, col, row, tileX, tileY);
+                    }
+                }
+                source.setAltitudes(tileX, tileY, cells, indices, 0, n,
+                        TILE_SIZE, scaleFactor, Interpolation.NEAREST);
+                float[] values = new float[n];
+                for (int i = 0; i < n; i++) {
+                    values[i] = cells.getAltitude(i);
+                }
+                TiledGridElevationSource.writeTile(levelDir, tileX, tileY, values, ByteOrder.LITTLE_ENDIAN);
+            }
+            LOG.info("Level", level, "row", tileY, "/", tiles[3]);
+        }
+    }
+
+    private void buildFromPrevious(Path dir, int level, FloatRaster prev) throws IOException {
+        Path levelDir = createLevelDir(dir, level);
+        float noData = source.getNoData();
+        int[] tiles = getTileRange(level);
+        float[] values = new float[TILE_SIZE * TILE_SIZE];
+        for (int tileY = tiles[1]; tileY <= tiles[3]; tileY++) {
+            for (int tileX = tiles[0]; tileX <= tiles[2]; tileX++) {
+                for (int y = 0; y < TILE_SIZE; y++) {
+                    int row = tileY * TILE_SIZE + y;
+                    for (int x = 0; x < TILE_SIZE; x++) {
+                        int col = tileX * TILE_SIZE + x;
+                        values[y * TILE_SIZE + x] = downsample(prev, col * 2, row * 2, noData);
+                    }
+                }
+                TiledGridElevationSource.writeTile(levelDir, tileX, tileY, values, ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        LOG.info("Level", level, "done");
+    }
+
+    /**
+     * @return weighted average of the 3x3 cells centered on (col, row), noData if all are noData
+     */
+    static float downsample(FloatRaster r, int col, int row, float noData) {
+        float sum = 0.0f;
+        float weights = 0.0f;
+        for (int j = -1; j <= 1; j++) {
+            int y = row + j;
+            if (y < 0 || y >= r.getHeight()) {
+                continue;
+            }
+            for (int i = -1; i <= 1; i++) {
+                int x = col + i;
+                if (x < 0 || x >= r.getWidth()) {
+                    continue;
+                }
+                float v = r.getValue(x, y);
+                if (v == noData || Float.isNaN(v)) {
+                    continue;
+                }
+                float w = FILTER[i + 1] * FILTER[j + 1];
+                sum += w * v;
+                weights += w;
+            }
+        }
+        return weights > 0.0f ? sum / weights : noData;
+    }
+
+    private Path createLevelDir(Path dir, int level) throws IOException {
+        Path levelDir = Files.createDirectories(getLevelDir(dir, level));
+        double cellSize = Math.abs(source.getOffsetVectorX()) * (1 << level);
+        TiledGridElevationSource.writeMetadata(levelDir, source.getOriginEast(), source.getOriginNorth(),
+                cellSize, TILE_SIZE, TILE_SIZE, source.getNoData(), ByteOrder.LITTLE_ENDIAN);
+        return levelDir;
+    }
+
+    /**
+     * @return [minTileX, minTileY, maxTileX, maxTileY] of the tiles covering the extent at the level
+     */
+    private int[] getTileRange(int level) {
+        double cellSize = Math.abs(source.getOffsetVectorX()) * (1 << level);
+        int minCol = Math.max(0, (int) Math.floor((minEast - source.getOriginEast()) / cellSize));
+        int maxCol = Math.max(0, (int) Math.ceil((maxEast - source.getOriginEast()) / cellSize));
+        int minRow = Math.max(0, (int) Math.floor((source.getOriginNorth() - maxNorth) / cellSize));
+        int maxRow = Math.max(0, (int) Math.ceil((source.getOriginNorth() - minNorth) / cellSize));
+        return new int[] { minCol / TILE_SIZE, minRow / TILE_SIZE, maxCol / TILE_SIZE, maxRow / TILE_SIZE };
+    }
+
+    private static final String USAGE = "Usage: DemPyramidBuilder source pyramidDir fromLevel toLevel"
+            + " minEast minNorth maxEast maxNorth [coverageId [noData]]";
+
+    /**
+     * Usage: DemPyramidBuilder source pyramidDir fromLevel toLevel minEast minNorth maxEast maxNorth [coverageId [noData]]
+     *
+     * where source is either the directory of a local grid or the URL of a WCS,
+     * in which case the id of the DEM coverage is required. The NODATA value of
+     * the coverage defaults to terrain.profile.wcs.noData, it must be the same
+     * as the one the pyramid is served with.
+     */
+    public static void main(String[] args) throws Exception {
+        try {
+            run(args);
+        } catch (IllegalArgumentException e) {
+            LOG.error(e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * @see #main(String[])
+     * @throws IllegalArgumentException if the arguments are invalid
+     */
+    static void run(String[] args) throws IOException, ServiceException {
+        if (args.length < 8) {
+            throw new IllegalArgumentException(USAGE);
+        }
+        ElevationSource source;
+        if (args[0].startsWith("http://") || args[0].startsWith("https://")) {
+            if (args.length < 9) {
+                throw new IllegalArgumentException("coverageId is required when the source is a WCS");
+            }
+            source = new WCSElevationSource(args[0], args[8], new DemTileCache(16 * 1024 * 1024),
+                    getWCSNoData(args));
+        } else {
+            source = new TiledGridElevationSource(Paths.get(args[0]));
+        }
+        double[] extent = {
+                Double.parseDouble(args[4]),
+                Double.parseDouble(args[5]),
+                Double.parseDouble(args[6]),
+                Double.parseDouble(args[7])
+        };
+        new DemPyramidBuilder(source, extent).build(Paths.get(args[1]),
+                Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+    }
+
+    /**
+     * @return the NODATA value of the WCS coverage, from the arguments or the properties
+     * @throws IllegalArgumentException if the argument is not a number
+     */
+    static float getWCSNoData(String[] args) {
+        if (args.length < 10) {
+            return TerrainProfileServiceProvider.getNoDataValue();
+        }
+        try {
+            return Float.parseFloat(args[9]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid noData: " + args[9]);
+        }
+    }
+
+}
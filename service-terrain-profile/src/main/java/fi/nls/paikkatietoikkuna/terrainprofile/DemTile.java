@@ -0,0 +1,91 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.util.Arrays;
+
+/**
+ * Decoded block of DEM values, stored row by row
+ */
+public class DemTile implements FloatRaster {
+
+    private final int width;
+    private final int height;
+    private final float[] values;
+    private final float noData;
+
+    public DemTile(int width, int height, float[] values) {
+        this(width, height, values, Float.NaN);
+    }
+
+    /**
+     * @param noData
+     *      value returned for the cells outside the tile
+     */
+    public DemTile(int width, int height, float[] values, float noData) {
+        if (values.length < width * height) {
+            throw new IllegalArgumentException("Not enough values for the tile");
+        }
+        this.width = width;
+        this.height = height;
+        this.values = values;
+        this.noData = noData;
+    }
+
+    /**
+     * Cells of the tile not covered by the TIFF (at the edge of the coverage) are set to noData
+     */
+    public static DemTile copyOf(FloatGeoTIFF tiff, int width, int height, float noData) {
+        return copyOf(tiff, 0, 0, width, height, noData);
+    }
+
+    /**
+     * @param offsetX
+     *      column of the tile where the first column of the TIFF goes
+     * @param offsetY
+     *      row of the tile where the first row of the TIFF goes
+     */
+    public static DemTile copyOf(FloatGeoTIFF tiff, int offsetX, int offsetY, int width, int height, float noData) {
+        int w = Math.min(width - offsetX, tiff.getWidth());
+        int h = Math.min(height - offsetY, tiff.getHeight());
+        float[] values = new float[width * height];
+        if (offsetX > 0 || offsetY > 0 || w < width || h < height) {
+            Arrays.fill(values, noData);
+        }
+        for (int y = 0; y < h; y++) {
+            int row = (offsetY + y) * width + offsetX;
+            for (int x = 0; x < w; x++) {
+                values[row + x] = tiff.getValue(x, y);
+            }
+        }
+        return new DemTile(width, height, values, noData);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return value at (x, y), noData if (x, y) is outside the tile
+     */
+    @Override
+    public float getValue(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return noData;
+        }
+        return values[y * width + x];
+    }
+
+    public float getNoData() {
+        return noData;
+    }
+
+    public long getSizeInBytes() {
+        return 4L * values.length;
+    }
+
+}
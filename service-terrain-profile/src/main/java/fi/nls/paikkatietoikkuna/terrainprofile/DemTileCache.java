@@ -0,0 +1,107 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+
+/**
+ * In-memory LRU cache of decoded DEM tiles bounded by the total size of the tiles in bytes
+ */
+public class DemTileCache {
+
+    private static final Logger LOG = LogFactory.getLogger(DemTileCache.class);
+    private static final int RECENT_MISSES_MAX = 4096;
+
+    private final long maxSizeInBytes;
+    private final LinkedHashMap<DemTileKey, DemTile> tiles;
+    private final LinkedHashMap<DemTileKey, Boolean> recentMisses;
+    private long sizeInBytes;
+    private long hits;
+    private long misses;
+
+    public DemTileCache(long maxSizeInBytes) {
+        this.maxSizeInBytes = maxSizeInBytes;
+        // accessOrder = true, iteration order goes from least recently accessed to most recently
+        this.tiles = new LinkedHashMap<>(16, 0.75f, true);
+        this.recentMisses = new LinkedHashMap<DemTileKey, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<DemTileKey, Boolean> eldest) {
+                return size() > RECENT_MISSES_MAX;
+            }
+        };
+    }
+
+    public synchronized DemTile get(DemTileKey key) {
+        DemTile tile = tiles.get(key);
+        if (tile == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return tile;
+    }
+
+    /**
+     * Remember the keys of the tiles that were missed but not put into the cache
+     *
+     * @return true if the tile hasn't been missed recently, false if it's
+     *         a repeated miss (the tile is being requested again)
+     */
+    public synchronized boolean isFirstMiss(DemTileKey key) {
+        return recentMisses.put(key, Boolean.TRUE) == null;
+    }
+
+    public synchronized void put(DemTileKey key, DemTile tile) {
+        recentMisses.remove(key);
+        long size = tile.getSizeInBytes();
+        if (size > maxSizeInBytes) {
+            LOG.debug("Tile too large to be cached, size:", size, "max:", maxSizeInBytes);
+            return;
+        }
+        DemTile prev = tiles.put(key, tile);
+        if (prev != null) {
+            sizeInBytes -= prev.getSizeInBytes();
+        }
+        sizeInBytes += size;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<DemTileKey, DemTile>> it = tiles.entrySet().iterator();
+        while (sizeInBytes > maxSizeInBytes && it.hasNext()) {
+            DemTile eldest = it.next().getValue();
+            it.remove();
+            sizeInBytes -= eldest.getSizeInBytes();
+        }
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        recentMisses.clear();
+        sizeInBytes = 0L;
+    }
+
+    public synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public long getMaxSizeInBytes() {
+        return maxSizeInBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+}
@@ -0,0 +1,79 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+public class DemTileKey {
+
+    private final String coverageId;
+    private final int gridVersion;
+    private final double scaleFactor;
+    private final int tileX;
+    private final int tileY;
+
+    public DemTileKey(String coverageId, double scaleFactor, int tileX, int tileY) {
+        this(coverageId, 0, scaleFactor, tileX, tileY);
+    }
+
+    /**
+     * @param gridVersion
+     *      version of the grid of the coverage (see {@link WCSMetadata#getGridVersion()}),
+     *      tiles cached before the grid changed are never returned for the new grid
+     */
+    public DemTileKey(String coverageId, int gridVersion, double scaleFactor, int tileX, int tileY) {
+        this.coverageId = coverageId;
+        this.gridVersion = gridVersion;
+        this.scaleFactor = scaleFactor;
+        this.tileX = tileX;
+        this.tileY = tileY;
+    }
+
+    public String getCoverageId() {
+        return coverageId;
+    }
+
+    public int getGridVersion() {
+        return gridVersion;
+    }
+
+    public double getScaleFactor() {
+        return scaleFactor;
+    }
+
+    public int getTileX() {
+        return tileX;
+    }
+
+    public int getTileY() {
+        return tileY;
+    }
+
+    public int hashCode() {
+        int h = coverageId.hashCode();
+        h = h * 31 + gridVersion;
+        h = h * 31 + Double.hashCode(scaleFactor);
+        h = h * 31 + tileX;
+        return h * 31 + tileY;
+    }
+
+    public boolean equals(Object o) {
+        if (o == null) {
+            return false;
+        }
+        if (!(o instanceof DemTileKey)) {
+            return false;
+        }
+        DemTileKey k = (DemTileKey) o;
+        if (tileX != k.tileX) {
+            return false;
+        }
+        if (tileY != k.tileY) {
+            return false;
+        }
+        if (gridVersion != k.gridVersion) {
+            return false;
+        }
+        if (Double.compare(scaleFactor, k.scaleFactor) != 0) {
+            return false;
+        }
+        return coverageId.equals(k.coverageId);
+    }
+
+}
@@ -0,0 +1,61 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import fi.nls.oskari.service.ServiceException;
+
+/**
+ * Source of the elevation data (DEM) used by TerrainProfileService
+ *
+ * The grid is described by the origin (center of the upper-left cell) and
+ * the offset vectors at the native resolution of the DEM (scaleFactor 1)
+ */
+public interface ElevationSource {
+
+    /**
+     * @return false while the source is still initializing, the grid
+     *         of a source that isn't ready must not be accessed
+     */
+    public default boolean isReady() {
+        return true;
+    }
+
+    /**
+     * @return true if reading the same tile again is cheap (local data or
+     *         a tile cache), if false the tiles are only read once per profile
+     */
+    public default boolean isCached() {
+        return true;
+    }
+
+    public double getOriginEast();
+
+    public double getOriginNorth();
+
+    public double getOffsetVectorX();
+
+    public double getOffsetVectorY();
+
+    public float getNoData();
+
+    /**
+     * Set the altitudes of the points, all of which reside in the same tile
+     *
+     * @param tileX
+     *      column of the tile the points belong to
+     * @param tileY
+     *      row of the tile the points belong to
+     * @param points
+     *      points with gridX and gridY computed against the scaled grid
+     * @param indices
+     *      indices of the points in the tile are indices[from]...indices[to - 1],
+     *      in the order they appear along the line
+     * @param tileSize
+     *      width and height of a tile in (scaled) grid cells
+     * @param scaleFactor
+     *      1/2^n, where 0<=n<=8
+     * @param interpolation
+     *      how to sample the DEM at the exact location of the points
+     */
+    public void setAltitudes(int tileX, int tileY, TerrainProfile points, int[] indices, int from, int to,
+            int tileSize, double scaleFactor, Interpolation interpolation) throws ServiceException;
+
+}
@@ -1,21 +1,45 @@
 package fi.nls.paikkatietoikkuna.terrainprofile;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import org.oskari.wcs.geotiff.IFD;
 import org.oskari.wcs.geotiff.TIFFReader;
 
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 
-public class FloatGeoTIFF {
+/**
+ * Tiled float32 GeoTIFF. Tiles are decoded lazily, only when a value
+ * from them is requested. Uncompressed single band tiles are not decoded
+ * at all, the values are read straight from the response buffer.
+ * Safe to read from multiple threads.
+ */
+public class FloatGeoTIFF implements FloatRaster {
 
     private static final Logger LOG = LogFactory.getLogger(FloatGeoTIFF.class);
 
+    private static final int TIFF_MAGIC = 42;
+    private static final int TAG_COMPRESSION = 259;
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+    private static final int COMPRESSION_NONE = 1;
+
     private final TIFFReader r;
     private final IFD ifd;
-    private final float[][] tiles;
+    private final AtomicReferenceArray<float[]> tiles;
     private final int tilesAcross;
+    private final ByteBuffer uncompressed;
 
     public FloatGeoTIFF(byte[] buf) throws IllegalArgumentException {
+        this(buf, true);
+    }
+
+    /**
+     * @param readInPlace
+     *      false to always decode the tiles, even if they could be read in place
+     */
+    FloatGeoTIFF(byte[] buf, boolean readInPlace) throws IllegalArgumentException {
         this.r = new TIFFReader(buf);
         this.ifd = r.getIFD(0);
         if (ifd.getSampleFormat()[0] != 3) {
@@ -38,17 +62,33 @@ public class FloatGeoTIFF {
         }
         this.tilesAcross = tilesAcross;
 
-        tiles = new float[ifd.getTileOffsets().length][tw * th];
-        for (int i = 0; i < ifd.getTileOffsets().length; i++) {
-            r.readTile(0, i, tiles[i]);
+        if (readInPlace && isUncompressedSingleBand(buf)) {
+            checkTilesInBuffer(ifd.getTileOffsets(), 4L * tw * th, buf.length);
+            this.uncompressed = ByteBuffer.wrap(buf).order(getByteOrder(buf));
+            this.tiles = null;
+        } else {
+            this.uncompressed = null;
+            this.tiles = new AtomicReferenceArray<>(ifd.getTileOffsets().length);
         }
 
         LOG.debug("Width:", ifd.getWidth(), "Height:", ifd.getHeight(),
                 "TileWidth:", tw, "TileHeight:", th,
                 "TilesAcross:", tilesAcross, "TilesDown:", tilesDown,
-                "NumTiles:", ifd.getTileOffsets().length);
+                "NumTiles:", ifd.getTileOffsets().length,
+                "Uncompressed:", uncompressed != null);
+    }
+
+    @Override
+    public int getWidth() {
+        return ifd.getWidth();
     }
 
+    @Override
+    public int getHeight() {
+        return ifd.getHeight();
+    }
+
+    @Override
     public float getValue(int x, int y) {
         int tileX = x / ifd.getTileWidth();
         int offX = x % ifd.getTileWidth();
@@ -57,8 +97,12 @@ public class FloatGeoTIFF {
         int tileIndex = tileY * tilesAcross + tileX;
         int tileOffset = offY * ifd.getTileWidth() + offX;
         try {
-            return tiles[tileIndex][tileOffset];
-        } catch (ArrayIndexOutOfBoundsException e) {
+            if (uncompressed != null) {
+                // Offsets are checked to be within the buffer, so they fit in an int
+                return uncompressed.getFloat(ifd.getTileOffsets()[tileIndex] + 4 * tileOffset);
+            }
+            return getTile(tileIndex)[tileOffset];
+        } catch (IndexOutOfBoundsException e) {
             LOG.warn("Tile X:", tileX, "Off X", offX,
                     "Tile Y:", tileY, "Off Y", offY,
                     "TileIndex:", tileIndex, "TileOffset:", tileOffset);
@@ -66,4 +110,71 @@ public class FloatGeoTIFF {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Decoded tiles are read without locking, decoding is serialized
+     * as TIFFReader is not meant to be used from multiple threads
+     */
+    private float[] getTile(int tileIndex) {
+        float[] tile = tiles.get(tileIndex);
+        if (tile != null) {
+            return tile;
+        }
+        synchronized (r) {
+            tile = tiles.get(tileIndex);
+            if (tile == null) {
+                tile = new float[ifd.getTileWidth() * ifd.getTileHeight()];
+                r.readTile(0, tileIndex, tile);
+                tiles.set(tileIndex, tile);
+            }
+            return tile;
+        }
+    }
+
+    /**
+     * TIFF offsets are unsigned 32-bit, anything past the end of the
+     * buffer (including offsets >= 2 GB, negative as int) is invalid
+     */
+    static void checkTilesInBuffer(int[] tileOffsets, long tileBytes, int bufferLength) {
+        for (int offset : tileOffsets) {
+            long end = (offset & 0xFFFFFFFFL) + tileBytes;
+            if (end > bufferLength) {
+                throw new IllegalArgumentException("Tile data outside of the TIFF file, offset: "
+                        + (offset & 0xFFFFFFFFL));
+            }
+        }
+    }
+
+    static ByteOrder getByteOrder(byte[] buf) {
+        return buf[0] == 'M' ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    }
+
+    /**
+     * Check from the first IFD whether the values can be read directly from the buffer
+     */
+    static boolean isUncompressedSingleBand(byte[] buf) {
+        if (buf.length < 8) {
+            return false;
+        }
+        ByteBuffer bb = ByteBuffer.wrap(buf).order(getByteOrder(buf));
+        if ((bb.getShort(2) & 0xFFFF) != TIFF_MAGIC) {
+            // Not classic TIFF (e.g. BigTIFF), let TIFFReader handle it
+            return false;
+        }
+        return getShortTagValue(bb, TAG_COMPRESSION, COMPRESSION_NONE) == COMPRESSION_NONE
+                && getShortTagValue(bb, TAG_SAMPLES_PER_PIXEL, 1) == 1;
+    }
+
+    private static int getShortTagValue(ByteBuffer bb, int tag, int defaultValue) {
+        int ifdOffset = bb.getInt(4);
+        int numEntries = bb.getShort(ifdOffset) & 0xFFFF;
+        for (int i = 0; i < numEntries; i++) {
+            // Each entry is 12 bytes: tag(2), type(2), count(4), value/offset(4)
+            int entry = ifdOffset + 2 + i * 12;
+            if ((bb.getShort(entry) & 0xFFFF) == tag) {
+                return bb.getShort(entry + 8) & 0xFFFF;
+            }
+        }
+        return defaultValue;
+    }
+
+}
@@ -0,0 +1,14 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+/**
+ * Grid of float values, cell (x, y) is centered at integer coordinates (x, y)
+ */
+public interface FloatRaster {
+
+    public int getWidth();
+
+    public int getHeight();
+
+    public float getValue(int x, int y);
+
+}
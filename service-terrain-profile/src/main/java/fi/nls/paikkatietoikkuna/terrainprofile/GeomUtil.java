@@ -54,4 +54,36 @@ public class GeomUtil {
         return sum;
     }
 
+    /**
+     * @param lineString [x1,y1,x2,y2,...,xN,yN]
+     * @param distances distances from the start of the LineString in ascending order
+     * @return [x1,y1,...,xM,yM] coordinates of the points on the LineString at the
+     *         given distances, distances past the end map to the last coordinate
+     */
+    public static double[] getPointsAtDistances(double[] lineString, double[] distances) {
+        double[] points = new double[distances.length * 2];
+        int j = 0;
+        double x1 = lineString[j++];
+        double y1 = lineString[j++];
+        double x2 = x1;
+        double y2 = y1;
+        double start = 0.0;
+        double segmentLength = 0.0;
+        for (int i = 0; i < distances.length; i++) {
+            double d = distances[i];
+            while (d > start + segmentLength && j < lineString.length) {
+                start += segmentLength;
+                x1 = x2;
+                y1 = y2;
+                x2 = lineString[j++];
+                y2 = lineString[j++];
+                segmentLength = getDistance(x1, y1, x2, y2);
+            }
+            double t = segmentLength > 0.0 ? Math.min(1.0, (d - start) / segmentLength) : 1.0;
+            points[i * 2] = x1 + t * (x2 - x1);
+            points[i * 2 + 1] = y1 + t * (y2 - y1);
+        }
+        return points;
+    }
+
 }
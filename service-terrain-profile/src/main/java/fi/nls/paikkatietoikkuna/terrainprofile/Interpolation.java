@@ -0,0 +1,129 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+/**
+ * Methods for sampling a FloatRaster at non-integer coordinates
+ */
+public enum Interpolation {
+
+    NEAREST(0),
+    BILINEAR(1),
+    BICUBIC(2);
+
+    private final int margin;
+
+    private Interpolation(int margin) {
+        this.margin = margin;
+    }
+
+    /**
+     * @return number of extra cells required around the sampled cells
+     */
+    public int getMargin() {
+        return margin;
+    }
+
+    /**
+     * @return the largest margin required by any of the methods
+     */
+    public static int getMaxMargin() {
+        int max = 0;
+        for (Interpolation i : values()) {
+            max = Math.max(max, i.margin);
+        }
+        return max;
+    }
+
+    /**
+     * @return Interpolation matching the name (case-insensitive), null if none match
+     */
+    public static Interpolation fromString(String name) {
+        for (Interpolation i : values()) {
+            if (i.name().equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sample the raster at (x, y). Cells outside the raster are clamped to
+     * the nearest edge cell. If any of the cells required is noData (or NaN)
+     * the value of the nearest cell is returned instead.
+     */
+    public float sample(FloatRaster r, double x, double y, float noData) {
+        switch (this) {
+        case BILINEAR:
+            return bilinear(r, x, y, noData);
+        case BICUBIC:
+            return bicubic(r, x, y, noData);
+        default:
+            return nearest(r, x, y);
+        }
+    }
+
+    private static float nearest(FloatRaster r, double x, double y) {
+        return get(r, (int) Math.round(x), (int) Math.round(y));
+    }
+
+    private static float bilinear(FloatRaster r, double x, double y, float noData) {
+        int x0 = (int) Math.floor(x);
+        int y0 = (int) Math.floor(y);
+        double tx = x - x0;
+        double ty = y - y0;
+
+        float v00 = get(r, x0, y0);
+        float v10 = get(r, x0 + 1, y0);
+        float v01 = get(r, x0, y0 + 1);
+        float v11 = get(r, x0 + 1, y0 + 1);
+        if (isNoData(v00, noData) || isNoData(v10, noData)
+                || isNoData(v01, noData) || isNoData(v11, noData)) {
+            return nearest(r, x, y);
+        }
+
+        double top = v00 + (v10 - v00) * tx;
+        double bottom = v01 + (v11 - v01) * tx;
+        return (float) (top + (bottom - top) * ty);
+    }
+
+    private static float bicubic(FloatRaster r, double x, double y, float noData) {
+        int x0 = (int) Math.floor(x);
+        int y0 = (int) Math.floor(y);
+        double tx = x - x0;
+        double ty = y - y0;
+
+        double[] row = new double[4];
+        for (int j = 0; j < 4; j++) {
+            int yy = y0 - 1 + j;
+            float p0 = get(r, x0 - 1, yy);
+            float p1 = get(r, x0, yy);
+            float p2 = get(r, x0 + 1, yy);
+            float p3 = get(r, x0 + 2, yy);
+            if (isNoData(p0, noData) || isNoData(p1, noData)
+                    || isNoData(p2, noData) || isNoData(p3, noData)) {
+                return nearest(r, x, y);
+            }
+            row[j] = cubic(p0, p1, p2, p3, tx);
+        }
+        return (float) cubic(row[0], row[1], row[2], row[3], ty);
+    }
+
+    /**
+     * Catmull-Rom spline between p1 and p2
+     */
+    private static double cubic(double p0, double p1, double p2, double p3, double t) {
+        return p1 + 0.5 * t * (p2 - p0
+                + t * (2.0 * p0 - 5.0 * p1 + 4.0 * p2 - p3
+                + t * (3.0 * (p1 - p2) + p3 - p0)));
+    }
+
+    private static float get(FloatRaster r, int x, int y) {
+        x = Math.max(0, Math.min(x, r.getWidth() - 1));
+        y = Math.max(0, Math.min(y, r.getHeight() - 1));
+        return r.getValue(x, y);
+    }
+
+    private static boolean isNoData(float v, float noData) {
+        return v == noData || Float.isNaN(v);
+    }
+
+}
@@ -0,0 +1,175 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.control.ActionException;
+import fi.nls.oskari.control.ActionHandler;
+import fi.nls.oskari.control.ActionParameters;
+import fi.nls.oskari.control.ActionParamsException;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.ServiceException;
+import fi.nls.oskari.service.ServiceRuntimeException;
+import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.paikkatietoikkuna.terrainprofile.TerrainProfileMetrics.Stage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Altitudes of scattered points, e.g. GPX waypoints or measurement sites.
+ *
+ * The points are read either from the parameter 'points' or, if it's
+ * missing, streamed from the request body. The points are grouped by
+ * DEM tile by TerrainProfileService, so a large batch costs one read per
+ * tile touched instead of one request per point. The number of tiles a
+ * batch may touch is limited, as every tile read at the native resolution
+ * may cost a GetCoverage request of a whole tile.
+ */
+@OskariActionRoute("PointElevation")
+public class PointElevationHandler extends ActionHandler {
+
+    private static final Logger LOG = LogFactory.getLogger(PointElevationHandler.class);
+
+    protected static final String PARAM_POINTS = "points";
+    protected static final String PARAM_SCALE_FACTOR = "scaleFactor";
+    protected static final String PARAM_INTERPOLATION = "interpolation";
+    protected static final String PROPERTY_TILES_MAX = "terrain.profile.points.tiles.max";
+
+    private static final int NUM_POINTS_MAX = 100000;
+    private static final double SCALE_FACTOR_DEFAULT = 1.0;
+    private static final int SCALE_FACTOR_MAX_LEVEL = 7;
+    private static final int TILES_MAX_DEFAULT = 32;
+
+    private final JsonFactory jf = new JsonFactory();
+    private TerrainProfileService tps;
+    private boolean acquired;
+    private boolean gzipEnabled = true;
+    private int tilesMax = TILES_MAX_DEFAULT;
+
+    public PointElevationHandler() {
+        this(null);
+    }
+
+    public PointElevationHandler(TerrainProfileService tps) {
+        this.tps = tps;
+    }
+
+    @Override
+    public void init() {
+        gzipEnabled = PropertyUtil.getOptional(TerrainProfileHandler.PROPERTY_GZIP, true);
+        tilesMax = PropertyUtil.getOptional(PROPERTY_TILES_MAX, TILES_MAX_DEFAULT);
+        if (tps == null) {
+            try {
+                tps = TerrainProfileServiceProvider.acquire();
+                acquired = true;
+            } catch (ServiceException ex) {
+                throw new ServiceRuntimeException(
+                        "Failed to init TerrainProfileService: " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    @Override
+    public void teardown() {
+        if (acquired) {
+            TerrainProfileServiceProvider.release();
+            acquired = false;
+            tps = null;
+        }
+    }
+
+    @Override
+    public void handleAction(ActionParameters params) throws ActionException {
+        double scaleFactor = getScaleFactor(params);
+        Interpolation interpolation = getInterpolation(params);
+        double[] coordinates = readPoints(params);
+        LOG.debug("Number of points:", coordinates.length / 2);
+
+        TerrainProfile points;
+        try {
+            int numTiles = tps.getNumTiles(coordinates, scaleFactor);
+            if (numTiles > tilesMax) {
+                throw new ActionParamsException("The points are spread over " + numTiles
+                        + " DEM tiles, maximum is " + tilesMax
+                        + " - use a smaller scaleFactor or split the request");
+            }
+            points = tps.getElevations(coordinates, scaleFactor, interpolation);
+        } catch (ServiceException e) {
+            throw new ActionException(e.getMessage(), e);
+        }
+        writeResponse(params, points);
+    }
+
+    protected double[] readPoints(ActionParameters params) throws ActionException {
+        String pointsStr = params.getHttpParam(PARAM_POINTS);
+        try {
+            if (pointsStr != null && !pointsStr.isEmpty()) {
+                try (JsonParser parser = jf.createParser(pointsStr)) {
+                    return PointParser.parse(parser, NUM_POINTS_MAX);
+                }
+            }
+            try (InputStream in = params.getRequest().getInputStream();
+                    JsonParser parser = jf.createParser(in)) {
+                return PointParser.parse(parser, NUM_POINTS_MAX);
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            throw new ActionParamsException("Invalid input - expected GeoJSON MultiPoint"
+                    + " or an array of positions: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Default is the native resolution, unlike with profiles the
+     * extent of scattered points says nothing about the detail wanted
+     */
+    protected static double getScaleFactor(ActionParameters params) throws ActionParamsException {
+        String value = params.getHttpParam(PARAM_SCALE_FACTOR);
+        if (value == null || value.isEmpty()) {
+            return SCALE_FACTOR_DEFAULT;
+        }
+        try {
+            double scaleFactor = Double.parseDouble(value);
+            for (int n = 0; n <= SCALE_FACTOR_MAX_LEVEL; n++) {
+                if (scaleFactor == 1.0 / (1 << n)) {
+                    return scaleFactor;
+                }
+            }
+        } catch (NumberFormatException ignore) {
+            // Throw below
+        }
+        throw new ActionParamsException("Invalid parameter value '" + PARAM_SCALE_FACTOR
+                + "', must be 1/2^n where 0<=n<=" + SCALE_FACTOR_MAX_LEVEL);
+    }
+
+    protected static Interpolation getInterpolation(ActionParameters params) throws ActionParamsException {
+        String value = params.getHttpParam(PARAM_INTERPOLATION);
+        if (value == null || value.isEmpty()) {
+            return Interpolation.NEAREST;
+        }
+        Interpolation interpolation = Interpolation.fromString(value);
+        if (interpolation == null) {
+            throw new ActionParamsException("Invalid parameter value '" + PARAM_INTERPOLATION + "'");
+        }
+        return interpolation;
+    }
+
+    private void writeResponse(ActionParameters params, TerrainProfile points) throws ActionException {
+        params.getResponse().setContentType(IOHelper.CONTENT_TYPE_JSON);
+        TerrainProfileMetrics metrics = TerrainProfileMetrics.get();
+        long start = metrics.start();
+        try (OutputStream out = TerrainProfileHandler.getOutputStream(params, gzipEnabled);
+                JsonGenerator json = jf.createGenerator(out)) {
+            TerrainProfileHandler.writeMultiPoint(points, json, tps.getNoData());
+        } catch (IOException e) {
+            throw new ActionException("Failed to write response", e);
+        } finally {
+            metrics.stop(Stage.WRITE_RESPONSE, start);
+        }
+    }
+
+}
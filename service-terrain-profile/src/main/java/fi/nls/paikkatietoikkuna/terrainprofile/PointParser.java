@@ -0,0 +1,126 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads the coordinates of points from JSON with a streaming parser,
+ * so that large batches are never materialized as a tree of objects.
+ *
+ * Accepts a GeoJSON MultiPoint, a Feature with a MultiPoint geometry or
+ * a bare array of positions [[e1,n1],...,[eN,nN]]. Any further ordinates
+ * of a position (e.g. altitude) are ignored.
+ */
+public class PointParser {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final JsonParser parser;
+    private final int maxPoints;
+    private double[] coordinates = new double[INITIAL_CAPACITY];
+    private int size;
+    private boolean found;
+
+    private PointParser(JsonParser parser, int maxPoints) {
+        this.parser = parser;
+        this.maxPoints = maxPoints;
+    }
+
+    /**
+     * @param maxPoints
+     *      maximum number of points accepted
+     * @return array of doubles [e1,n1,...,eN,nN]
+     * @throws IllegalArgumentException if the input is not one of the
+     *         accepted structures, is empty or has too many points
+     */
+    public static double[] parse(JsonParser parser, int maxPoints) throws IOException {
+        return new PointParser(parser, maxPoints).parse();
+    }
+
+    private double[] parse() throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_ARRAY) {
+            readPositions();
+        } else if (token == JsonToken.START_OBJECT) {
+            readObject();
+        } else {
+            throw new IllegalArgumentException("Expected MultiPoint or an array of positions");
+        }
+        if (!found || size == 0) {
+            throw new IllegalArgumentException("No points");
+        }
+        return Arrays.copyOf(coordinates, size);
+    }
+
+    /**
+     * Reads a MultiPoint or a Feature, the members may be in any order
+     */
+    private void readObject() throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+            case "type":
+                String type = parser.getValueAsString();
+                if (!"MultiPoint".equals(type) && !"Feature".equals(type)) {
+                    throw new IllegalArgumentException("Unsupported type " + type + ", expected MultiPoint");
+                }
+                break;
+            case "geometry":
+                if (value != JsonToken.START_OBJECT) {
+                    throw new IllegalArgumentException("Expected geometry object");
+                }
+                readObject();
+                break;
+            case "coordinates":
+                if (value != JsonToken.START_ARRAY) {
+                    throw new IllegalArgumentException("Expected coordinates array");
+                }
+                readPositions();
+                break;
+            default:
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void readPositions() throws IOException {
+        found = true;
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.START_ARRAY) {
+            double e = readOrdinate();
+            double n = readOrdinate();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                // Skip altitude and measure
+                parser.skipChildren();
+            }
+            add(e, n);
+        }
+        if (token != JsonToken.END_ARRAY) {
+            throw new IllegalArgumentException("Expected position [e,n]");
+        }
+    }
+
+    private double readOrdinate() throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_NUMBER_INT) {
+            throw new IllegalArgumentException("Expected position [e,n]");
+        }
+        return parser.getDoubleValue();
+    }
+
+    private void add(double e, double n) {
+        if (size / 2 >= maxPoints) {
+            throw new IllegalArgumentException("Too many points, maximum is " + maxPoints);
+        }
+        if (size == coordinates.length) {
+            coordinates = Arrays.copyOf(coordinates, size * 2);
+        }
+        coordinates[size++] = e;
+        coordinates[size++] = n;
+    }
+
+}
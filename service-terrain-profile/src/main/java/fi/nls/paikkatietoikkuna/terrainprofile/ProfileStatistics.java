@@ -0,0 +1,126 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+/**
+ * Summary figures of a terrain profile computed in one pass over the points.
+ *
+ * Points with the NODATA altitude (or NaN) are skipped. The ascent and
+ * descent bridge over the skipped points, the slope histogram only counts
+ * segments between two consecutive valid points. The histogram is
+ * weighted by the horizontal length of the segments so that it doesn't
+ * depend on how densely the profile was sampled.
+ */
+public class ProfileStatistics {
+
+    /**
+     * Upper bounds (exclusive) of the slope classes in percent,
+     * the last class (steeper than the last bound) is open ended
+     */
+    public static final double[] SLOPE_CLASSES = { 2, 5, 10, 15, 25 };
+
+    private double ascent;
+    private double descent;
+    private float min;
+    private float max;
+    private int numNoData;
+    private final double[] slopeHistogram = new double[SLOPE_CLASSES.length + 1];
+
+    public static ProfileStatistics compute(TerrainProfile profile, float noData) {
+        ProfileStatistics stats = new ProfileStatistics();
+        stats.update(profile, noData);
+        return stats;
+    }
+
+    /**
+     * Reset and compute the statistics of the profile, allocates nothing
+     */
+    public void update(TerrainProfile profile, float noData) {
+        ascent = 0.0;
+        descent = 0.0;
+        min = Float.NaN;
+        max = Float.NaN;
+        numNoData = 0;
+        for (int k = 0; k < slopeHistogram.length; k++) {
+            slopeHistogram[k] = 0.0;
+        }
+
+        int prev = -1;
+        float prevAlt = Float.NaN;
+        for (int i = 0; i < profile.size(); i++) {
+            float alt = profile.getAltitude(i);
+            if (alt == noData || Float.isNaN(alt)) {
+                numNoData++;
+                continue;
+            }
+            if (prev < 0) {
+                min = alt;
+                max = alt;
+            } else {
+                if (alt < min) {
+                    min = alt;
+                } else if (alt > max) {
+                    max = alt;
+                }
+                double dz = alt - prevAlt;
+                if (dz > 0) {
+                    ascent += dz;
+                } else {
+                    descent -= dz;
+                }
+                double length = profile.getDistFromStart(i) - profile.getDistFromStart(prev);
+                if (prev == i - 1 && length > 0) {
+                    slopeHistogram[getSlopeClass(Math.abs(dz) / length * 100.0)] += length;
+                }
+            }
+            prev = i;
+            prevAlt = alt;
+        }
+    }
+
+    static int getSlopeClass(double slopePercent) {
+        int k = 0;
+        while (k < SLOPE_CLASSES.length && slopePercent >= SLOPE_CLASSES[k]) {
+            k++;
+        }
+        return k;
+    }
+
+    /**
+     * @return total ascent in metres
+     */
+    public double getAscent() {
+        return ascent;
+    }
+
+    /**
+     * @return total descent in metres (positive)
+     */
+    public double getDescent() {
+        return descent;
+    }
+
+    /**
+     * @return lowest altitude, NaN if the profile has no valid altitudes
+     */
+    public float getMin() {
+        return min;
+    }
+
+    /**
+     * @return highest altitude, NaN if the profile has no valid altitudes
+     */
+    public float getMax() {
+        return max;
+    }
+
+    public int getNumNoData() {
+        return numNoData;
+    }
+
+    /**
+     * @return horizontal length in metres per slope class, see {@link #SLOPE_CLASSES}
+     */
+    public double[] getSlopeHistogram() {
+        return slopeHistogram;
+    }
+
+}
@@ -0,0 +1,148 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.ServiceException;
+
+/**
+ * Serves the coarser scale factors from a locally built overview pyramid
+ * (see {@link DemPyramidBuilder}) and everything else from the base source.
+ *
+ * Level k of the pyramid is a tiled grid (see {@link TiledGridElevationSource})
+ * in directory level_k with the same origin as the base source and
+ * 2^k times its cell size, i.e. it corresponds to scaleFactor 1/2^k.
+ * The level grids are memory-mapped, so long profiles are served without
+ * asking the base source to downsample the DEM.
+ */
+public class PyramidElevationSource implements ElevationSource {
+
+    private static final Logger LOG = LogFactory.getLogger(PyramidElevationSource.class);
+
+    private final ElevationSource base;
+    private final Map<Integer, TiledGridElevationSource> levels;
+    private volatile boolean validated;
+
+    public PyramidElevationSource(ElevationSource base, Path dir) throws ServiceException {
+        this.base = base;
+        this.levels = readLevels(dir);
+        if (base.isReady()) {
+            validate();
+        }
+        LOG.info("DEM pyramid levels:", levels.keySet());
+    }
+
+    /**
+     * Check that the levels match the grid and the noData value of the base source
+     */
+    private void validate() throws ServiceException {
+        for (Map.Entry<Integer, TiledGridElevationSource> e : levels.entrySet()) {
+            TiledGridElevationSource level = e.getValue();
+            double expectedCellSize = Math.abs(base.getOffsetVectorX()) * (1 << e.getKey());
+            if (level.getOriginEast() != base.getOriginEast()
+                    || level.getOriginNorth() != base.getOriginNorth()
+                    || Math.abs(level.getOffsetVectorX() - expectedCellSize) > 1e-6) {
+                throw new ServiceException("Pyramid level " + e.getKey()
+                        + " doesn't match the grid of the elevation source");
+            }
+            // Float.compare so that NaN matches NaN
+            if (Float.compare(level.getNoData(), base.getNoData()) != 0) {
+                throw new ServiceException("Pyramid level " + e.getKey() + " has noData " + level.getNoData()
+                        + ", elevation source has " + base.getNoData());
+            }
+        }
+        validated = true;
+    }
+
+    private static Map<Integer, TiledGridElevationSource> readLevels(Path dir) throws ServiceException {
+        Map<Integer, TiledGridElevationSource> levels = new TreeMap<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, DemPyramidBuilder.LEVEL_DIR_PREFIX + "*")) {
+            for (Path levelDir : ds) {
+                int level;
+                try {
+                    level = Integer.parseInt(levelDir.getFileName().toString()
+                            .substring(DemPyramidBuilder.LEVEL_DIR_PREFIX.length()));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring", levelDir);
+                    continue;
+                }
+                if (level > 0 && level < 31
+                        && Files.exists(levelDir.resolve(TiledGridElevationSource.METADATA_FILE))) {
+                    levels.put(level, new TiledGridElevationSource(levelDir));
+                }
+            }
+        } catch (IOException e) {
+            throw new ServiceException("Failed to read DEM pyramid from " + dir, e);
+        }
+        return levels;
+    }
+
+    /**
+     * @return level of the scale factor, -1 if scaleFactor is not 1/2^k
+     */
+    static int getLevel(double scaleFactor) {
+        if (scaleFactor <= 0 || scaleFactor > 1) {
+            return -1;
+        }
+        int level = (int) Math.round(-Math.log(scaleFactor) / Math.log(2));
+        return scaleFactor == 1.0 / (1L << level) ? level : -1;
+    }
+
+    public boolean hasLevel(double scaleFactor) {
+        return levels.containsKey(getLevel(scaleFactor));
+    }
+
+    @Override
+    public boolean isReady() {
+        return base.isReady();
+    }
+
+    @Override
+    public boolean isCached() {
+        return base.isCached();
+    }
+
+    @Override
+    public double getOriginEast() {
+        return base.getOriginEast();
+    }
+
+    @Override
+    public double getOriginNorth() {
+        return base.getOriginNorth();
+    }
+
+    @Override
+    public double getOffsetVectorX() {
+        return base.getOffsetVectorX();
+    }
+
+    @Override
+    public double getOffsetVectorY() {
+        return base.getOffsetVectorY();
+    }
+
+    @Override
+    public float getNoData() {
+        return base.getNoData();
+    }
+
+    @Override
+    public void setAltitudes(int tileX, int tileY, TerrainProfile points, int[] indices, int from, int to,
+            int tileSize, double scaleFactor, Interpolation interpolation) throws ServiceException {
+        TiledGridElevationSource level = levels.get(getLevel(scaleFactor));
+        if (level != null && !validated) {
+            // The base source wasn't ready when this was created
+            validate();
+        }
+        ElevationSource source = level != null ? level : base;
+        source.setAltitudes(tileX, tileY, points, indices, from, to, tileSize, scaleFactor, interpolation);
+    }
+
+}
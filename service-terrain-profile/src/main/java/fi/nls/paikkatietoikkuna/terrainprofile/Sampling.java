@@ -0,0 +1,30 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+/**
+ * How the points of a profile are distributed along the line
+ */
+public enum Sampling {
+
+    /**
+     * Points are evenly spaced along the line
+     */
+    UNIFORM,
+    /**
+     * Points are concentrated where the altitude changes quickly,
+     * see {@link AdaptiveSampling}
+     */
+    ADAPTIVE;
+
+    /**
+     * @return Sampling matching the name (case-insensitive), null if none match
+     */
+    public static Sampling fromString(String name) {
+        for (Sampling s : values()) {
+            if (s.name().equalsIgnoreCase(name)) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,62 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import fi.nls.oskari.service.ServiceException;
+
+/**
+ * Coalesces concurrent loads of the same key: the first caller loads
+ * the value, the others wait for it and share the result (or the failure).
+ * Nothing is cached, once the load completes the next call loads again.
+ */
+public class SingleFlight<K, V> {
+
+    @FunctionalInterface
+    public interface Loader<V> {
+        public V load() throws ServiceException;
+    }
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    public V get(K key, Loader<V> loader) throws ServiceException {
+        CompletableFuture<V> f = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, f);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            V value = loader.load();
+            f.complete(value);
+            return value;
+        } catch (Throwable e) {
+            // Errors too, otherwise the waiting callers would block forever
+            f.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, f);
+        }
+    }
+
+    private V await(CompletableFuture<V> f) throws ServiceException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while waiting for a shared request", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new ServiceException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * @return number of loads currently in progress
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+}
@@ -0,0 +1,111 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+/**
+ * Points of one or more terrain profiles stored column by column in
+ * primitive arrays. The points are stored in the order they appear
+ * along the line, a profile of a batch is a slice sharing the
+ * arrays of the whole batch.
+ */
+public class TerrainProfile {
+
+    private final double[] e;
+    private final double[] n;
+    private final double[] distFromStart;
+    private final int[] gridX;
+    private final int[] gridY;
+    private final int[] tileX;
+    private final int[] tileY;
+    private final float[] altitude;
+    private final int offset;
+    private final int size;
+
+    public TerrainProfile(int size) {
+        this.e = new double[size];
+        this.n = new double[size];
+        this.distFromStart = new double[size];
+        this.gridX = new int[size];
+        this.gridY = new int[size];
+        this.tileX = new int[size];
+        this.tileY = new int[size];
+        this.altitude = new float[size];
+        this.offset = 0;
+        this.size = size;
+    }
+
+    private TerrainProfile(TerrainProfile parent, int offset, int size) {
+        this.e = parent.e;
+        this.n = parent.n;
+        this.distFromStart = parent.distFromStart;
+        this.gridX = parent.gridX;
+        this.gridY = parent.gridY;
+        this.tileX = parent.tileX;
+        this.tileY = parent.tileY;
+        this.altitude = parent.altitude;
+        this.offset = parent.offset + offset;
+        this.size = size;
+    }
+
+    /**
+     * @return view of the points [from, to) sharing the same arrays
+     */
+    public TerrainProfile slice(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("from: " + from + " to: " + to + " size: " + size);
+        }
+        return new TerrainProfile(this, from, to - from);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void setPoint(int i, double e, double n, double distFromStart) {
+        this.e[offset + i] = e;
+        this.n[offset + i] = n;
+        this.distFromStart[offset + i] = distFromStart;
+    }
+
+    public void setGridCell(int i, int gridX, int gridY, int tileX, int tileY) {
+        this.gridX[offset + i] = gridX;
+        this.gridY[offset + i] = gridY;
+        this.tileX[offset + i] = tileX;
+        this.tileY[offset + i] = tileY;
+    }
+
+    public void setAltitude(int i, float altitude) {
+        this.altitude[offset + i] = altitude;
+    }
+
+    public double getE(int i) {
+        return e[offset + i];
+    }
+
+    public double getN(int i) {
+        return n[offset + i];
+    }
+
+    public double getDistFromStart(int i) {
+        return distFromStart[offset + i];
+    }
+
+    public int getGridX(int i) {
+        return gridX[offset + i];
+    }
+
+    public int getGridY(int i) {
+        return gridY[offset + i];
+    }
+
+    public int getTileX(int i) {
+        return tileX[offset + i];
+    }
+
+    public int getTileY(int i) {
+        return tileY[offset + i];
+    }
+
+    public float getAltitude(int i) {
+        return altitude[offset + i];
+    }
+
+}
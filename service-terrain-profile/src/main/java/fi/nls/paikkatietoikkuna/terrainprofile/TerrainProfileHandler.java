@@ -14,12 +14,20 @@ import fi.nls.oskari.service.ServiceException;
 import fi.nls.oskari.service.ServiceRuntimeException;
 import fi.nls.oskari.util.IOHelper;
 import fi.nls.oskari.util.PropertyUtil;
-import fi.nls.oskari.util.ResponseHelper;
-import java.io.ByteArrayOutputStream;
+import fi.nls.paikkatietoikkuna.terrainprofile.TerrainProfileMetrics.Stage;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.geojson.Feature;
+import org.geojson.FeatureCollection;
 import org.geojson.LineString;
 
 @OskariActionRoute("TerrainProfile")
@@ -28,20 +36,39 @@ public class TerrainProfileHandler extends ActionHandler {
     private static final Logger LOG = LogFactory.getLogger(TerrainProfileHandler.class);
 
     protected static final String PARAM_ROUTE = "route";
+    protected static final String PARAM_ROUTES = "routes";
+    protected static final String PARAM_FORMAT = "format";
+    protected static final String PARAM_INCLUDE_COORDINATES = "includeCoordinates";
+    protected static final String PARAM_STATISTICS = "statistics";
+
+    protected static final String FORMAT_GEOJSON = "geojson";
+    protected static final String FORMAT_BINARY = "binary";
+
+    protected static final String STATISTICS_INCLUDE = "true";
+    protected static final String STATISTICS_ONLY = "only";
 
-    protected static final String PROPERTY_ENDPOINT = "terrain.profile.wcs.endPoint";
-    protected static final String PROPERTY_DEM_COVERAGE_ID = "terrain.profile.wcs.demCoverageId";
-    protected static final String PROPERTY_NODATA_VALUE = "terrain.profile.wcs.noData";
+    protected static final String PROPERTY_GZIP = "terrain.profile.response.gzip";
 
     protected static final String JSON_PROPERTY_NUM_POINTS = "numPoints";
     protected static final String JSON_PROPERTY_SCALE_FACTOR = "scaleFactor";
     protected static final String JSON_PROPERTY_DISTANCE_FROM_START = "distanceFromStart";
+    protected static final String JSON_PROPERTY_INTERPOLATION = "interpolation";
+    protected static final String JSON_PROPERTY_SAMPLING = "sampling";
+    protected static final String JSON_PROPERTY_STATISTICS = "statistics";
 
     private static final int NUM_POINTS_MAX = 1000;
+    private static final int NUM_ROUTES_MAX = 50;
+    private static final String HEADER_ACCEPT = "Accept";
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_VARY = "Vary";
+    private static final String ENCODING_GZIP = "gzip";
 
     private final ObjectMapper om;
     private TerrainProfileService tps;
+    private boolean acquired;
     private float noDataValue;
+    private boolean gzipEnabled = true;
 
     public TerrainProfileHandler() {
         this(new ObjectMapper(), null);
@@ -54,40 +81,46 @@ public class TerrainProfileHandler extends ActionHandler {
 
     @Override
     public void init() {
+        noDataValue = TerrainProfileServiceProvider.getNoDataValue();
+        gzipEnabled = PropertyUtil.getOptional(PROPERTY_GZIP, true);
         if (tps == null) {
             try {
-                tps = new TerrainProfileService(
-                        PropertyUtil.get(PROPERTY_ENDPOINT),
-                        PropertyUtil.get(PROPERTY_DEM_COVERAGE_ID));
+                tps = TerrainProfileServiceProvider.acquire();
+                acquired = true;
+                noDataValue = tps.getNoData();
             } catch (ServiceException ex) {
                 throw new ServiceRuntimeException(
                         "Failed to init TerrainProfileService: " + ex.getMessage(), ex);
             }
         }
-        noDataValue = getNoDataValue();
         LOG.debug("NODATA value:", noDataValue);
     }
 
-    private float getNoDataValue() {
-        String noDataStr = PropertyUtil.getOptional(PROPERTY_NODATA_VALUE);
-        if (noDataStr != null && !noDataStr.isEmpty()) {
-            try {
-                return Float.parseFloat(noDataStr);
-            } catch (NumberFormatException e) {
-                LOG.warn("Could not parse NODATA value from " + noDataStr);
-            }
+    @Override
+    public void teardown() {
+        if (acquired) {
+            TerrainProfileServiceProvider.release();
+            acquired = false;
+            tps = null;
         }
-        return Float.NaN;
     }
 
     @Override
     public void handleAction(ActionParameters params) throws ActionException {
+        String routesStr = params.getHttpParam(PARAM_ROUTES);
+        if (routesStr != null && !routesStr.isEmpty()) {
+            handleBatch(params, routesStr);
+            return;
+        }
+
         String routeStr = params.getRequiredParam(PARAM_ROUTE);
         Feature route = parseFeature(routeStr);
         LineString geom = (LineString) route.getGeometry();
         double[] points = GeoJSONHelper.getCoordinates2D(geom);
         int numPoints = Math.min(getNumPoints(route), NUM_POINTS_MAX);
         double scaleFactor = getScaleFactor(route);
+        Interpolation interpolation = getInterpolation(route);
+        Sampling sampling = getSampling(route);
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Number of coords:", (points.length / 2),
@@ -95,7 +128,31 @@ public class TerrainProfileHandler extends ActionHandler {
         }
 
         try {
-            writeResponse(params, tps.getTerrainProfile(points, numPoints, scaleFactor));
+            writeResponse(params, tps.getTerrainProfile(new TerrainProfileRequest(
+                    points, numPoints, scaleFactor, interpolation, sampling)));
+        } catch (ServiceException e) {
+            throw new ActionException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Compute the profiles of all the routes of a FeatureCollection with
+     * one tile fetch plan, the profiles are returned in the same order
+     */
+    private void handleBatch(ActionParameters params, String routesStr) throws ActionException {
+        List<Feature> routes = parseFeatureCollection(routesStr);
+        List<TerrainProfileRequest> requests = new ArrayList<>(routes.size());
+        for (Feature route : routes) {
+            double[] points = GeoJSONHelper.getCoordinates2D((LineString) route.getGeometry());
+            int numPoints = Math.min(getNumPoints(route), NUM_POINTS_MAX);
+            requests.add(new TerrainProfileRequest(points, numPoints,
+                    getScaleFactor(route), getInterpolation(route), getSampling(route)));
+        }
+
+        LOG.debug("Number of routes:", requests.size());
+
+        try {
+            writeResponse(params, tps.getTerrainProfiles(requests), true);
         } catch (ServiceException e) {
             throw new ActionException(e.getMessage(), e);
         }
@@ -104,26 +161,52 @@ public class TerrainProfileHandler extends ActionHandler {
     protected Feature parseFeature(String routeStr) throws ActionParamsException {
         try {
             Feature route = om.readValue(routeStr, Feature.class);
-            if (!(route.getGeometry() instanceof LineString)) {
-                throw new ActionParamsException("Invalid input"
-                        + " - expected LineString geometry");
-            }
-            LineString ls = (LineString) route.getGeometry();
-            int numPoints = ls.getCoordinates().size();
-            if (numPoints < 2) {
-                throw new ActionParamsException("Invalid input"
-                        + " - expected LineString with atleast two coordinates");
-            }
-            if (numPoints > NUM_POINTS_MAX) {
-                throw new ActionParamsException("Invalid input"
-                        + " - too many coordinates, maximum is " + NUM_POINTS_MAX);
-            }
+            validateRoute(route);
             return route;
         } catch (IllegalArgumentException | IOException e) {
             throw new ActionParamsException("Invalid input - expected GeoJSON feature", e);
         }
     }
 
+    protected List<Feature> parseFeatureCollection(String routesStr) throws ActionParamsException {
+        FeatureCollection fc;
+        try {
+            fc = om.readValue(routesStr, FeatureCollection.class);
+        } catch (IllegalArgumentException | IOException e) {
+            throw new ActionParamsException("Invalid input - expected GeoJSON FeatureCollection", e);
+        }
+        List<Feature> routes = fc.getFeatures();
+        if (routes == null || routes.isEmpty()) {
+            throw new ActionParamsException("Invalid input"
+                    + " - expected FeatureCollection with atleast one feature");
+        }
+        if (routes.size() > NUM_ROUTES_MAX) {
+            throw new ActionParamsException("Invalid input"
+                    + " - too many features, maximum is " + NUM_ROUTES_MAX);
+        }
+        for (Feature route : routes) {
+            validateRoute(route);
+        }
+        return routes;
+    }
+
+    private void validateRoute(Feature route) throws ActionParamsException {
+        if (!(route.getGeometry() instanceof LineString)) {
+            throw new ActionParamsException("Invalid input"
+                    + " - expected LineString geometry");
+        }
+        LineString ls = (LineString) route.getGeometry();
+        int numPoints = ls.getCoordinates().size();
+        if (numPoints < 2) {
+            throw new ActionParamsException("Invalid input"
+                    + " - expected LineString with atleast two coordinates");
+        }
+        if (numPoints > NUM_POINTS_MAX) {
+            throw new ActionParamsException("Invalid input"
+                    + " - too many coordinates, maximum is " + NUM_POINTS_MAX);
+        }
+    }
+
     protected int getNumPoints(Feature route) throws ActionParamsException {
         Object numPoints = route.getProperty(JSON_PROPERTY_NUM_POINTS);
         if (numPoints == null) {
@@ -158,31 +241,233 @@ public class TerrainProfileHandler extends ActionHandler {
         return 0;
     }
 
-    protected void writeResponse(ActionParameters params, List<DataPoint> dp) throws ActionException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (JsonGenerator json = om.getFactory().createGenerator(baos)) {
-            writeMultiPointFeature(dp, json, noDataValue);
+    protected Interpolation getInterpolation(Feature route) throws ActionParamsException {
+        Object interpolation = route.getProperty(JSON_PROPERTY_INTERPOLATION);
+        if (interpolation == null) {
+            return Interpolation.NEAREST;
+        }
+        if (interpolation instanceof String) {
+            Interpolation i = Interpolation.fromString((String) interpolation);
+            if (i != null) {
+                return i;
+            }
+        }
+        throw new ActionParamsException(String.format(
+                "Invalid property value '%s'", JSON_PROPERTY_INTERPOLATION));
+    }
+
+    protected Sampling getSampling(Feature route) throws ActionParamsException {
+        Object sampling = route.getProperty(JSON_PROPERTY_SAMPLING);
+        if (sampling == null) {
+            return Sampling.UNIFORM;
+        }
+        if (sampling instanceof String) {
+            Sampling s = Sampling.fromString((String) sampling);
+            if (s != null) {
+                return s;
+            }
+        }
+        throw new ActionParamsException(String.format(
+                "Invalid property value '%s'", JSON_PROPERTY_SAMPLING));
+    }
+
+    /**
+     * Write the profile straight to the response, gzip compressed if the client accepts it.
+     * GeoJSON by default, compact binary format if requested with the format parameter or
+     * with the Accept header
+     */
+    protected void writeResponse(ActionParameters params, TerrainProfile profile) throws ActionException {
+        writeResponse(params, Collections.singletonList(profile), false);
+    }
+
+    /**
+     * @param collection
+     *      write the profiles as a FeatureCollection (in binary format the
+     *      profiles are written one after another)
+     */
+    protected void writeResponse(ActionParameters params, List<TerrainProfile> profiles,
+            boolean collection) throws ActionException {
+        HttpServletResponse response = params.getResponse();
+        boolean binary = isBinaryRequested(params);
+        String statistics = getStatistics(params);
+        if (binary && statistics != null) {
+            throw new ActionParamsException("Parameter '" + PARAM_STATISTICS + "' requires GeoJSON format");
+        }
+        boolean includePoints = !STATISTICS_ONLY.equals(statistics);
+        boolean includeStatistics = statistics != null;
+        response.setContentType(binary ? CompactProfileWriter.CONTENT_TYPE : IOHelper.CONTENT_TYPE_JSON);
+        TerrainProfileMetrics metrics = TerrainProfileMetrics.get();
+        long start = metrics.start();
+        try (OutputStream out = getOutputStream(params, gzipEnabled)) {
+            if (binary) {
+                boolean includeCoordinates = "true".equals(params.getHttpParam(PARAM_INCLUDE_COORDINATES));
+                for (TerrainProfile profile : profiles) {
+                    CompactProfileWriter.write(profile, out, noDataValue, includeCoordinates);
+                }
+            } else {
+                try (JsonGenerator json = om.getFactory().createGenerator(out)) {
+                    if (collection) {
+                        writeFeatureCollection(profiles, json, noDataValue, includePoints, includeStatistics);
+                    } else {
+                        writeMultiPointFeature(profiles.get(0), json, noDataValue,
+                                includePoints, includeStatistics);
+                    }
+                }
+            }
         } catch (IOException e) {
-            throw new ActionException("Failed to encode GeoJSON", e);
+            throw new ActionException("Failed to write response", e);
+        } finally {
+            metrics.stop(Stage.WRITE_RESPONSE, start);
         }
-        ResponseHelper.writeResponse(params, 200, IOHelper.CONTENT_TYPE_JSON, baos);
     }
 
-    protected static void writeMultiPointFeature(List<DataPoint> dp,
+    protected static boolean isBinaryRequested(ActionParameters params) throws ActionParamsException {
+        String format = params.getHttpParam(PARAM_FORMAT);
+        if (format != null && !format.isEmpty()) {
+            if (FORMAT_BINARY.equals(format)) {
+                return true;
+            }
+            if (FORMAT_GEOJSON.equals(format)) {
+                return false;
+            }
+            throw new ActionParamsException("Invalid parameter value '" + PARAM_FORMAT + "'");
+        }
+        String accept = params.getRequest().getHeader(HEADER_ACCEPT);
+        return accept != null && accept.contains(CompactProfileWriter.CONTENT_TYPE);
+    }
+
+    /**
+     * @return null if no statistics were requested, STATISTICS_INCLUDE or STATISTICS_ONLY
+     */
+    protected static String getStatistics(ActionParameters params) throws ActionParamsException {
+        String statistics = params.getHttpParam(PARAM_STATISTICS);
+        if (statistics == null || statistics.isEmpty() || "false".equals(statistics)) {
+            return null;
+        }
+        if (STATISTICS_INCLUDE.equals(statistics) || STATISTICS_ONLY.equals(statistics)) {
+            return statistics;
+        }
+        throw new ActionParamsException("Invalid parameter value '" + PARAM_STATISTICS + "'");
+    }
+
+    /**
+     * @param gzipEnabled
+     *      if false the response is never compressed
+     * @return output stream of the response, gzip compressed (and the
+     *         headers set accordingly) if the client accepts it
+     */
+    protected static OutputStream getOutputStream(ActionParameters params, boolean gzipEnabled)
+            throws IOException {
+        HttpServletResponse response = params.getResponse();
+        if (gzipEnabled && acceptsGzip(params.getRequest())) {
+            response.setHeader(HEADER_CONTENT_ENCODING, ENCODING_GZIP);
+            response.setHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+            return new GZIPOutputStream(response.getOutputStream());
+        }
+        return response.getOutputStream();
+    }
+
+    protected static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HEADER_ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            if (!ENCODING_GZIP.equalsIgnoreCase(parts[0].trim())) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException ignore) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    protected static void writeFeatureCollection(List<TerrainProfile> profiles,
             JsonGenerator json, final float noData) throws IOException {
+        writeFeatureCollection(profiles, json, noData, true, false);
+    }
+
+    protected static void writeFeatureCollection(List<TerrainProfile> profiles,
+            JsonGenerator json, final float noData,
+            boolean includePoints, boolean includeStatistics) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("type", "FeatureCollection");
+        json.writeFieldName("features");
+        json.writeStartArray();
+        for (TerrainProfile profile : profiles) {
+            writeMultiPointFeature(profile, json, noData, includePoints, includeStatistics);
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    protected static void writeMultiPointFeature(TerrainProfile profile,
+            JsonGenerator json, final float noData) throws IOException {
+        writeMultiPointFeature(profile, json, noData, true, false);
+    }
+
+    /**
+     * @param includePoints
+     *      if false the geometry is null and the distances are left out
+     * @param includeStatistics
+     *      add the summary figures of the profile (see {@link ProfileStatistics})
+     */
+    protected static void writeMultiPointFeature(TerrainProfile profile,
+            JsonGenerator json, final float noData,
+            boolean includePoints, boolean includeStatistics) throws IOException {
+        int n = profile.size();
         json.writeStartObject();
         json.writeStringField("type", "Feature");
 
         json.writeFieldName("geometry");
+        if (!includePoints) {
+            json.writeNull();
+        } else {
+            writeMultiPoint(profile, json, noData);
+        }
+
+        json.writeFieldName("properties");
+        json.writeStartObject();
+        json.writeNumberField(JSON_PROPERTY_NUM_POINTS, n);
+        if (includePoints) {
+            json.writeFieldName(JSON_PROPERTY_DISTANCE_FROM_START);
+            json.writeStartArray();
+            for (int i = 0; i < n; i++) {
+                json.writeNumber(profile.getDistFromStart(i));
+            }
+            json.writeEndArray();
+        }
+        if (includeStatistics) {
+            json.writeFieldName(JSON_PROPERTY_STATISTICS);
+            writeStatistics(ProfileStatistics.compute(profile, noData), json);
+        }
+        json.writeEndObject();
+
+        json.writeEndObject();
+    }
+
+    protected static void writeMultiPoint(TerrainProfile profile,
+            JsonGenerator json, final float noData) throws IOException {
+        int n = profile.size();
         json.writeStartObject();
         json.writeStringField("type", "MultiPoint");
         json.writeFieldName("coordinates");
         json.writeStartArray();
-        for (DataPoint p : dp) {
+        for (int i = 0; i < n; i++) {
             json.writeStartArray();
-            json.writeNumber(p.getE());
-            json.writeNumber(p.getN());
-            float alt = p.getAltitude();
+            json.writeNumber(profile.getE(i));
+            json.writeNumber(profile.getN(i));
+            float alt = profile.getAltitude(i);
             if (alt == noData) {
                 json.writeNull();
             } else {
@@ -192,19 +477,37 @@ public class TerrainProfileHandler extends ActionHandler {
         }
         json.writeEndArray();
         json.writeEndObject();
+    }
 
-        json.writeFieldName("properties");
+    private static void writeStatistics(ProfileStatistics stats, JsonGenerator json) throws IOException {
         json.writeStartObject();
-        json.writeNumberField(JSON_PROPERTY_NUM_POINTS, dp.size());
-        json.writeFieldName(JSON_PROPERTY_DISTANCE_FROM_START);
+        json.writeNumberField("ascent", stats.getAscent());
+        json.writeNumberField("descent", stats.getDescent());
+        writeNullableNumber(json, "min", stats.getMin());
+        writeNullableNumber(json, "max", stats.getMax());
+        json.writeNumberField("noDataPoints", stats.getNumNoData());
+        json.writeFieldName("slopeClasses");
         json.writeStartArray();
-        for (DataPoint p : dp) {
-            json.writeNumber(p.getDistFromStart());
+        for (double bound : ProfileStatistics.SLOPE_CLASSES) {
+            json.writeNumber(bound);
+        }
+        json.writeEndArray();
+        json.writeFieldName("slopeHistogram");
+        json.writeStartArray();
+        for (double length : stats.getSlopeHistogram()) {
+            json.writeNumber(length);
         }
         json.writeEndArray();
         json.writeEndObject();
+    }
 
-        json.writeEndObject();
+    private static void writeNullableNumber(JsonGenerator json, String field, float value) throws IOException {
+        json.writeFieldName(field);
+        if (Float.isNaN(value)) {
+            json.writeNull();
+        } else {
+            json.writeNumber(value);
+        }
     }
 
 }
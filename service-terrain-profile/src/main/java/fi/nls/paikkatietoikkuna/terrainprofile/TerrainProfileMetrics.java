@@ -0,0 +1,319 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import fi.nls.paikkatietoikkuna.http.PooledHttpClient;
+
+/**
+ * Per-stage timers and counters of the terrain profile pipeline so that
+ * the time of a slow profile can be attributed to the WCS, TIFF decoding,
+ * sampling or writing the response.
+ *
+ * Recording is lock-free (LongAdder) and cheap enough to stay always on.
+ * The values are cumulative since startup, rates are left to whoever
+ * scrapes them (see TerrainProfileMetricsHandler).
+ */
+public class TerrainProfileMetrics {
+
+    public enum Stage {
+        /** Choosing the scale factor of a profile */
+        SCALE_FACTOR("scale_factor"),
+        /** Setting the altitudes of the points of one tile, includes the stages below */
+        TILE("tile"),
+        /** GetCoverage request to the WCS */
+        WCS_DOWNLOAD("wcs_download"),
+        /** Parsing the structure of the GeoTIFF returned by the WCS */
+        TIFF_DECODE("tiff_decode"),
+        /** Sampling (and interpolating) the altitudes from a raster */
+        SAMPLE("sample"),
+        /** Writing the response */
+        WRITE_RESPONSE("write_response");
+
+        private final String id;
+
+        private Stage(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    public enum RequestType {
+        /** Terrain profile along a line, each profile of a batch counts (an adaptive profile once) */
+        PROFILE("profile"),
+        /** Altitudes of a batch of scattered points */
+        POINTS("points"),
+        /** Line of sight between an observer and a target */
+        LINE_OF_SIGHT("line_of_sight"),
+        /** Viewshed around an observer */
+        VIEWSHED("viewshed");
+
+        private final String id;
+
+        private RequestType(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    public static class Timer {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0L);
+
+        public void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+    }
+
+    // Scale factors 1/2^n, 0 <= n < SCALE_FACTOR_LEVELS
+    private static final int SCALE_FACTOR_LEVELS = 8;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private static final TerrainProfileMetrics INSTANCE = new TerrainProfileMetrics();
+
+    private final Timer[] timers;
+    private final LongAdder[] requests;
+    private final LongAdder points = new LongAdder();
+    private final LongAdder tiles = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final LongAdder[] scaleFactors;
+
+    public TerrainProfileMetrics() {
+        timers = new Timer[Stage.values().length];
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new Timer();
+        }
+        requests = new LongAdder[RequestType.values().length];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new LongAdder();
+        }
+        scaleFactors = new LongAdder[SCALE_FACTOR_LEVELS];
+        for (int i = 0; i < scaleFactors.length; i++) {
+            scaleFactors[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return the registry shared by the whole terrain profile pipeline
+     */
+    public static TerrainProfileMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return start time to be passed to {@link #stop(Stage, long)}
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void stop(Stage stage, long start) {
+        timers[stage.ordinal()].record(System.nanoTime() - start);
+    }
+
+    public Timer getTimer(Stage stage) {
+        return timers[stage.ordinal()];
+    }
+
+    public void countRequests(RequestType type, int n) {
+        requests[type.ordinal()].add(n);
+    }
+
+    public void countPoints(int n) {
+        points.add(n);
+    }
+
+    public void countTiles(int n) {
+        tiles.add(n);
+    }
+
+    public void countBytesDownloaded(long n) {
+        bytesDownloaded.add(n);
+    }
+
+    public void countScaleFactor(double scaleFactor) {
+        int level = (int) Math.round(-Math.log(scaleFactor) / Math.log(2));
+        if (level >= 0 && level < SCALE_FACTOR_LEVELS) {
+            scaleFactors[level].increment();
+        }
+    }
+
+    public long getRequests(RequestType type) {
+        return requests[type.ordinal()].sum();
+    }
+
+    public long getPoints() {
+        return points.sum();
+    }
+
+    public long getTiles() {
+        return tiles.sum();
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded.sum();
+    }
+
+    /**
+     * @return number of profiles (RequestType.PROFILE) that used the scale factor 1/2^level
+     */
+    public long getScaleFactorCount(int level) {
+        return scaleFactors[level].sum();
+    }
+
+    public void writeJson(JsonGenerator json) throws IOException {
+        writeJson(json, null);
+    }
+
+    /**
+     * @param http
+     *      client whose counters are included as "httpClient", null to leave them out
+     */
+    public void writeJson(JsonGenerator json, PooledHttpClient http) throws IOException {
+        json.writeStartObject();
+        json.writeObjectFieldStart("requests");
+        for (RequestType type : RequestType.values()) {
+            json.writeNumberField(type.getId(), getRequests(type));
+        }
+        json.writeEndObject();
+        json.writeNumberField("points", getPoints());
+        json.writeNumberField("tiles", getTiles());
+        json.writeNumberField("bytesDownloaded", getBytesDownloaded());
+        json.writeObjectFieldStart("scaleFactors");
+        for (int level = 0; level < SCALE_FACTOR_LEVELS; level++) {
+            json.writeNumberField(getScaleFactorLabel(level), getScaleFactorCount(level));
+        }
+        json.writeEndObject();
+        json.writeObjectFieldStart("stages");
+        for (Stage stage : Stage.values()) {
+            Timer timer = getTimer(stage);
+            json.writeObjectFieldStart(stage.getId());
+            json.writeNumberField("count", timer.getCount());
+            json.writeNumberField("totalMs", timer.getTotalNanos() / 1e6);
+            json.writeNumberField("maxMs", timer.getMaxNanos() / 1e6);
+            json.writeEndObject();
+        }
+        json.writeEndObject();
+        if (http != null) {
+            json.writeObjectFieldStart("httpClient");
+            json.writeNumberField("requests", http.getRequestCount());
+            json.writeNumberField("failures", http.getFailureCount());
+            json.writeNumberField("bytesRead", http.getBytesRead());
+            json.writeNumberField("totalMs", http.getTotalTimeMs());
+            json.writeNumberField("leased", http.getLeasedConnections());
+            json.writeNumberField("available", http.getAvailableConnections());
+            json.writeNumberField("pending", http.getPendingRequests());
+            json.writeEndObject();
+        }
+        json.writeEndObject();
+    }
+
+    /**
+     * Write the metrics in the Prometheus text exposition format
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        writePrometheus(out, null);
+    }
+
+    /**
+     * @param http
+     *      client whose counters are included as http_client_*, null to leave them out
+     */
+    public void writePrometheus(Appendable out, PooledHttpClient http) throws IOException {
+        writeType(out, "terrain_profile_requests_total", "counter");
+        for (RequestType type : RequestType.values()) {
+            writeSample(out, "terrain_profile_requests_total", "type=\"" + type.getId() + "\"", getRequests(type));
+        }
+        writeType(out, "terrain_profile_points_total", "counter");
+        writeSample(out, "terrain_profile_points_total", null, getPoints());
+        writeType(out, "terrain_profile_tiles_total", "counter");
+        writeSample(out, "terrain_profile_tiles_total", null, getTiles());
+        writeType(out, "terrain_profile_wcs_bytes_total", "counter");
+        writeSample(out, "terrain_profile_wcs_bytes_total", null, getBytesDownloaded());
+
+        writeType(out, "terrain_profile_scale_factor_total", "counter");
+        for (int level = 0; level < SCALE_FACTOR_LEVELS; level++) {
+            writeSample(out, "terrain_profile_scale_factor_total",
+                    "scale_factor=\"" + getScaleFactorLabel(level) + "\"", getScaleFactorCount(level));
+        }
+
+        writeType(out, "terrain_profile_stage_seconds", "summary");
+        for (Stage stage : Stage.values()) {
+            String label = "stage=\"" + stage.getId() + "\"";
+            Timer timer = getTimer(stage);
+            writeSample(out, "terrain_profile_stage_seconds_count", label, timer.getCount());
+            writeSample(out, "terrain_profile_stage_seconds_sum", label, timer.getTotalNanos() / NANOS_PER_SECOND);
+        }
+        writeType(out, "terrain_profile_stage_max_seconds", "gauge");
+        for (Stage stage : Stage.values()) {
+            writeSample(out, "terrain_profile_stage_max_seconds", "stage=\"" + stage.getId() + "\"",
+                    getTimer(stage).getMaxNanos() / NANOS_PER_SECOND);
+        }
+
+        if (http != null) {
+            writeType(out, "http_client_requests_total", "counter");
+            writeSample(out, "http_client_requests_total", null, http.getRequestCount());
+            writeType(out, "http_client_failures_total", "counter");
+            writeSample(out, "http_client_failures_total", null, http.getFailureCount());
+            writeType(out, "http_client_bytes_total", "counter");
+            writeSample(out, "http_client_bytes_total", null, http.getBytesRead());
+            writeType(out, "http_client_seconds_total", "counter");
+            writeSample(out, "http_client_seconds_total", null, http.getTotalTimeMs() / 1000.0);
+            writeType(out, "http_client_connections", "gauge");
+            writeSample(out, "http_client_connections", "state=\"leased\"", http.getLeasedConnections());
+            writeSample(out, "http_client_connections", "state=\"available\"", http.getAvailableConnections());
+            writeType(out, "http_client_pending_requests", "gauge");
+            writeSample(out, "http_client_pending_requests", null, http.getPendingRequests());
+        }
+    }
+
+    private static String getScaleFactorLabel(int level) {
+        return level == 0 ? "1" : "1/" + (1 << level);
+    }
+
+    private static void writeType(Appendable out, String name, String type) throws IOException {
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeSample(Appendable out, String name, String labels, double value)
+            throws IOException {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value)) {
+            out.append(Long.toString((long) value));
+        } else {
+            out.append(String.format(Locale.ROOT, "%.6f", value));
+        }
+        out.append('\n');
+    }
+
+}
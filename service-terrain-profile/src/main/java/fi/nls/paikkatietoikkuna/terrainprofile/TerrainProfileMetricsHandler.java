@@ -0,0 +1,81 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.control.ActionDeniedException;
+import fi.nls.oskari.control.ActionException;
+import fi.nls.oskari.control.ActionHandler;
+import fi.nls.oskari.control.ActionParameters;
+import fi.nls.oskari.control.ActionParamsException;
+import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.paikkatietoikkuna.http.PooledHttpClient;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Exposes {@link TerrainProfileMetrics} and the counters of the shared
+ * {@link PooledHttpClient} for monitoring, either as JSON (default) or
+ * in the Prometheus text format with format=prometheus.
+ * Disabled unless terrain.profile.metrics.enabled=true.
+ */
+@OskariActionRoute("TerrainProfileMetrics")
+public class TerrainProfileMetricsHandler extends ActionHandler {
+
+    protected static final String PROPERTY_ENABLED = "terrain.profile.metrics.enabled";
+    protected static final String PARAM_FORMAT = "format";
+    protected static final String FORMAT_JSON = "json";
+    protected static final String FORMAT_PROMETHEUS = "prometheus";
+    protected static final String CONTENT_TYPE_PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final JsonFactory jf = new JsonFactory();
+    private final TerrainProfileMetrics metrics;
+    private boolean enabled;
+
+    public TerrainProfileMetricsHandler() {
+        this(TerrainProfileMetrics.get());
+    }
+
+    public TerrainProfileMetricsHandler(TerrainProfileMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void init() {
+        enabled = PropertyUtil.getOptional(PROPERTY_ENABLED, false);
+    }
+
+    @Override
+    public void handleAction(ActionParameters params) throws ActionException {
+        if (!enabled) {
+            throw new ActionDeniedException("Metrics are not enabled");
+        }
+        String format = params.getHttpParam(PARAM_FORMAT, FORMAT_JSON);
+        HttpServletResponse response = params.getResponse();
+        PooledHttpClient http = PooledHttpClient.getSharedIfCreated();
+        try {
+            if (FORMAT_PROMETHEUS.equals(format)) {
+                response.setContentType(CONTENT_TYPE_PROMETHEUS);
+                try (Writer out = new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8)) {
+                    metrics.writePrometheus(out, http);
+                }
+            } else if (FORMAT_JSON.equals(format)) {
+                response.setContentType(IOHelper.CONTENT_TYPE_JSON);
+                try (JsonGenerator json = jf.createGenerator(response.getOutputStream())) {
+                    metrics.writeJson(json, http);
+                }
+            } else {
+                throw new ActionParamsException("Invalid parameter value '" + PARAM_FORMAT + "'");
+            }
+        } catch (IOException e) {
+            throw new ActionException("Failed to write response", e);
+        }
+    }
+
+}
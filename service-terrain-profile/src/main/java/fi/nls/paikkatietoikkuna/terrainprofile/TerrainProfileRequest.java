@@ -0,0 +1,55 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+/**
+ * Parameters of a single profile within a batch request
+ */
+public class TerrainProfileRequest {
+
+    private final double[] coordinates;
+    private final int numPoints;
+    private final double scaleFactor;
+    private final Interpolation interpolation;
+    private final Sampling sampling;
+
+    /**
+     * @see TerrainProfileService#getTerrainProfile(double[], int, double, Interpolation)
+     */
+    public TerrainProfileRequest(double[] coordinates, int numPoints, double scaleFactor,
+            Interpolation interpolation) {
+        this(coordinates, numPoints, scaleFactor, interpolation, Sampling.UNIFORM);
+    }
+
+    /**
+     * @param sampling
+     *      how the numPoints points are distributed along the line
+     */
+    public TerrainProfileRequest(double[] coordinates, int numPoints, double scaleFactor,
+            Interpolation interpolation, Sampling sampling) {
+        this.coordinates = coordinates;
+        this.numPoints = numPoints;
+        this.scaleFactor = scaleFactor;
+        this.interpolation = interpolation;
+        this.sampling = sampling;
+    }
+
+    public double[] getCoordinates() {
+        return coordinates;
+    }
+
+    public int getNumPoints() {
+        return numPoints;
+    }
+
+    public double getScaleFactor() {
+        return scaleFactor;
+    }
+
+    public Interpolation getInterpolation() {
+        return interpolation;
+    }
+
+    public Sampling getSampling() {
+        return sampling;
+    }
+
+}
@@ -1,35 +1,22 @@
 package fi.nls.paikkatietoikkuna.terrainprofile;
 
-import java.io.BufferedInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
-
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.oskari.wcs.capabilities.Capabilities;
-import org.oskari.wcs.coverage.CoverageDescription;
-import org.oskari.wcs.coverage.RectifiedGridCoverage;
-import org.oskari.wcs.extension.scaling.ScaleByFactor;
-import org.oskari.wcs.gml.RectifiedGrid;
-import org.oskari.wcs.parser.CapabilitiesParser;
-import org.oskari.wcs.parser.CoverageDescriptionsParser;
-import org.oskari.wcs.request.DescribeCoverage;
-import org.oskari.wcs.request.GetCapabilities;
-import org.oskari.wcs.request.GetCoverage;
-import org.xml.sax.SAXException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import fi.nls.oskari.service.ServiceException;
-import fi.nls.oskari.util.IOHelper;
+import fi.nls.paikkatietoikkuna.terrainprofile.TerrainProfileMetrics.RequestType;
+import fi.nls.paikkatietoikkuna.terrainprofile.TerrainProfileMetrics.Stage;
 
 public class TerrainProfileService {
 
-    private static final String FORMAT_TIFF = "image/tiff";
     private static final int REQUEST_MAX_SIZE_METRES = 8192;
     private static final int REQUEST_SIZE_DEFAULT = 1024;
     private static final int SCALE_SIZE_THRESHOLD = 2048;
@@ -44,51 +31,101 @@ public class TerrainProfileService {
             0.0078125
     };
 
-    private final String endPoint;
-    private final Capabilities caps;
-    private final RectifiedGridCoverage desc;
-    private final double originEast;
-    private final double originNorth;
-    private final double offsetVectorX;
-    private final double offsetVectorY;
+    private final ElevationSource source;
+    private final ExecutorService executor;
+    private final long timeoutMs;
+    private final TerrainProfileMetrics metrics = TerrainProfileMetrics.get();
 
     public TerrainProfileService(String endPoint, String coverageId) throws ServiceException {
-        try {
-            this.endPoint = endPoint;
-            caps = getCapabilities(endPoint);
-            CoverageDescription tmp = describeCoverage(endPoint, coverageId);
-            if (!(tmp instanceof RectifiedGridCoverage)) {
-                throw new ServiceException("Expected coverage of type RectifiedGridCoverage");
-            }
-            desc = (RectifiedGridCoverage) tmp;
-            RectifiedGrid grid = desc.getDomainSet();
-            originEast = grid.getOrigin().getPos()[0];
-            originNorth = grid.getOrigin().getPos()[1];
-            offsetVectorX = grid.getOffsetVectors()[0].getPos()[0];
-            offsetVectorY = grid.getOffsetVectors()[1].getPos()[1];
-        } catch (IOException | ParserConfigurationException | SAXException e) {
-            throw new ServiceException("Failed to initialize", e);
-        }
+        this(new WCSElevationSource(endPoint, coverageId, null), null, 0L);
+    }
+
+    /**
+     * @param source
+     *      source of the elevation data
+     * @param executor
+     *      executor used to fetch the tiles of a profile concurrently,
+     *      if null the tiles are fetched one after another
+     * @param timeoutMs
+     *      maximum time to wait for all the tiles of a single profile,
+     *      ignored if executor is null
+     */
+    public TerrainProfileService(ElevationSource source, ExecutorService executor, long timeoutMs) {
+        this.source = source;
+        this.executor = executor;
+        this.timeoutMs = timeoutMs;
     }
 
-    private Capabilities getCapabilities(String endPoint)
-            throws IOException, ParserConfigurationException, SAXException {
-        Map<String, String> params = GetCapabilities.toQueryParameters();
-        String url = IOHelper.constructUrl(endPoint, params);
-        HttpURLConnection conn = IOHelper.getConnection(url);
-        try (InputStream in = new BufferedInputStream(conn.getInputStream())) {
-            return CapabilitiesParser.parse(in);
+    public float getNoData() {
+        return source.getNoData();
+    }
+
+    /**
+     * @return width of a DEM cell in metres at the native resolution (scaleFactor 1)
+     */
+    public double getCellSize() throws ServiceException {
+        if (!source.isReady()) {
+            throw new ServiceException("Elevation data is not available yet");
         }
+        return Math.abs(source.getOffsetVectorX());
+    }
+
+    /**
+     * Sample the altitudes of scattered points. The points are grouped
+     * by tile the same way as the points of a profile, so each tile is
+     * fetched only once no matter how the points are ordered.
+     *
+     * @param coordinates
+     *      array of doubles [e1,n1,...,eN,nN]
+     * @return the points in the same order, distFromStart is the length
+     *         of the polyline through the points and usually meaningless
+     */
+    public TerrainProfile getElevations(double[] coordinates, double scaleFactor,
+            Interpolation interpolation) throws ServiceException {
+        return getElevations(coordinates, scaleFactor, interpolation, RequestType.POINTS);
+    }
+
+    /**
+     * @param type
+     *      type of the request in the metrics
+     * @see #getElevations(double[], double, Interpolation)
+     */
+    public TerrainProfile getElevations(double[] coordinates, double scaleFactor,
+            Interpolation interpolation, RequestType type) throws ServiceException {
+        TerrainProfileRequest request = new TerrainProfileRequest(coordinates, 0, scaleFactor, interpolation);
+        return getTerrainProfiles(Collections.singletonList(request), type).get(0);
     }
 
-    private CoverageDescription describeCoverage(String endPoint, String coverageId)
-            throws IOException, ParserConfigurationException, SAXException {
-        Map<String, String> params = DescribeCoverage.toQueryParameters(coverageId);
-        String url = IOHelper.constructUrl(endPoint, params);
-        HttpURLConnection conn = IOHelper.getConnection(url);
-        try (InputStream in = new BufferedInputStream(conn.getInputStream())) {
-            return CoverageDescriptionsParser.parse(in).get(0);
+    /**
+     * @param coordinates
+     *      array of doubles [e1,n1,...,eN,nN]
+     * @return number of distinct DEM tiles the points fall on, i.e. the number
+     *         of tile reads {@link #getElevations(double[], double, Interpolation)}
+     *         would do with the same arguments
+     */
+    public int getNumTiles(double[] coordinates, double scaleFactor) throws ServiceException {
+        if (!source.isReady()) {
+            throw new ServiceException("Elevation data is not available yet");
+        }
+        double[] extent = GeomUtil.getEnvelope(coordinates);
+        double sf = determineScaleFactor(scaleFactor, extent);
+        double dx = source.getOffsetVectorX() / sf;
+        double dy = source.getOffsetVectorY() / sf;
+        int tileSize = getTileSize(extent, dx);
+        long[] keys = new long[coordinates.length / 2];
+        for (int i = 0; i < keys.length; i++) {
+            int gridX = (int) Math.round((coordinates[i * 2] - source.getOriginEast()) / dx);
+            int gridY = (int) Math.round((coordinates[i * 2 + 1] - source.getOriginNorth()) / dy);
+            keys[i] = TileGroup.toTileKey(gridX / tileSize, gridY / tileSize);
         }
+        Arrays.sort(keys);
+        int numTiles = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                numTiles++;
+            }
+        }
+        return numTiles;
     }
 
     /**
@@ -100,36 +137,255 @@ public class TerrainProfileService {
      * @param scaleFactor
      *      non-positive considered null, must be 1/2^n, where 0<=n<=8
      */
-    public List<DataPoint> getTerrainProfile(double[] coordinates, int numPoints, double scaleFactor)
+    public TerrainProfile getTerrainProfile(double[] coordinates, int numPoints, double scaleFactor)
             throws ServiceException {
-        double[] extent = GeomUtil.getEnvelope(coordinates);
+        return getTerrainProfile(coordinates, numPoints, scaleFactor, Interpolation.NEAREST);
+    }
+
+    /**
+     * @param coordinates
+     *      array of doubles [e1,n1,...,eN,nN]
+     *      e = east (m), n = north (m)
+     * @param numPoints
+     *      number of coordinates you want back (interpolate more points if necessary)
+     * @param scaleFactor
+     *      non-positive considered null, must be 1/2^n, where 0<=n<=8
+     * @param interpolation
+     *      how the altitude is sampled from the DEM at each point
+     */
+    public TerrainProfile getTerrainProfile(double[] coordinates, int numPoints, double scaleFactor,
+            Interpolation interpolation) throws ServiceException {
+        TerrainProfileRequest request = new TerrainProfileRequest(coordinates, numPoints, scaleFactor, interpolation);
+        return getTerrainProfile(request);
+    }
 
-        scaleFactor = determineScaleFactor(scaleFactor, extent);
+    public TerrainProfile getTerrainProfile(TerrainProfileRequest request) throws ServiceException {
+        return getTerrainProfiles(Collections.singletonList(request)).get(0);
+    }
 
-        double dx = offsetVectorX / scaleFactor;
-        double dy = offsetVectorY / scaleFactor;
+    /**
+     * Compute multiple profiles at once. The points of all the profiles are
+     * grouped into one tile fetch plan so a tile shared by multiple routes
+     * (with the same scale factor and interpolation) is only requested once.
+     *
+     * @return profiles in the same order as the requests, the profiles
+     *         are slices of one TerrainProfile containing all the points
+     */
+    public List<TerrainProfile> getTerrainProfiles(List<TerrainProfileRequest> requests)
+            throws ServiceException {
+        return getTerrainProfiles(requests, RequestType.PROFILE);
+    }
 
-        int tileSize = getTileSize(extent, dx);
+    /**
+     * @param type
+     *      type of the requests in the metrics, the scale factors
+     *      chosen are counted for RequestType.PROFILE only
+     * @see #getTerrainProfiles(List)
+     */
+    public List<TerrainProfile> getTerrainProfiles(List<TerrainProfileRequest> requests, RequestType type)
+            throws ServiceException {
+        if (!source.isReady()) {
+            throw new ServiceException("Elevation data is not available yet");
+        }
+        int numRequests = requests.size();
+        metrics.countRequests(type, numRequests);
+        TerrainProfileRequest[] pilots = new TerrainProfileRequest[numRequests];
+        boolean adaptive = false;
+        for (int r = 0; r < numRequests; r++) {
+            pilots[r] = getPilotRequest(requests.get(r));
+            adaptive |= pilots[r] != null;
+        }
+        if (!adaptive) {
+            return computeProfiles(requests, type == RequestType.PROFILE, null, null);
+        }
+
+        // Sample the pilot profiles (and the uniform profiles) first, then
+        // the points the adaptive profiles add between the pilot points
+        List<TerrainProfileRequest> first = new ArrayList<>(numRequests);
+        for (int r = 0; r < numRequests; r++) {
+            first.add(pilots[r] != null ? pilots[r] : requests.get(r));
+        }
+        List<TerrainProfile> firstProfiles = computeProfiles(first, type == RequestType.PROFILE, null, null);
+
+        List<TerrainProfileRequest> second = new ArrayList<>();
+        List<TerrainProfile> sampled = new ArrayList<>();
+        List<int[]> sampledAt = new ArrayList<>();
+        for (int r = 0; r < numRequests; r++) {
+            if (pilots[r] != null) {
+                TerrainProfileRequest request = requests.get(r);
+                TerrainProfile pilot = firstProfiles.get(r);
+                float[] altitudes = new float[pilot.size()];
+                for (int i = 0; i < altitudes.length; i++) {
+                    altitudes[i] = pilot.getAltitude(i);
+                }
+                int[] extra = AdaptiveSampling.getExtraPoints(altitudes,
+                        source.getNoData(), request.getNumPoints());
+                double[] coordinates = request.getCoordinates();
+                double[] distances = AdaptiveSampling.getDistances(GeomUtil.getLength(coordinates), extra);
+                second.add(new TerrainProfileRequest(GeomUtil.getPointsAtDistances(coordinates, distances), 0,
+                        pilots[r].getScaleFactor(), request.getInterpolation()));
+                sampled.add(pilot);
+                sampledAt.add(AdaptiveSampling.getPilotIndices(extra));
+            }
+        }
+        // The pilot has the same scale factor, so it's already been counted
+        List<TerrainProfile> secondProfiles = computeProfiles(second, false, sampled, sampledAt);
+
+        List<TerrainProfile> profiles = new ArrayList<>(numRequests);
+        int k = 0;
+        for (int r = 0; r < numRequests; r++) {
+            profiles.add(pilots[r] != null ? secondProfiles.get(k++) : firstProfiles.get(r));
+        }
+        return profiles;
+    }
+
+    /**
+     * @return evenly spaced pilot profile for an adaptive request,
+     *         null if the request is uniform or too small to benefit from it,
+     *         or if the source has no cache, i.e. the second pass would
+     *         request the same tiles again
+     */
+    private TerrainProfileRequest getPilotRequest(TerrainProfileRequest request) {
+        if (request.getSampling() != Sampling.ADAPTIVE || !source.isCached()) {
+            return null;
+        }
+        double[] coordinates = request.getCoordinates();
+        int numPoints = request.getNumPoints();
+        int pilotSize = AdaptiveSampling.getPilotSize(numPoints);
+        if (pilotSize >= numPoints || coordinates.length >= numPoints * 2) {
+            // Not enough points to distribute, or the coordinates are used as is
+            return null;
+        }
+        // Resolve the scale factor from the whole line so that both passes use the same
+        double scaleFactor = determineScaleFactor(request.getScaleFactor(), GeomUtil.getEnvelope(coordinates));
+        return new TerrainProfileRequest(interpolate(coordinates, pilotSize), 0,
+                scaleFactor, request.getInterpolation());
+    }
+
+    /**
+     * @param countScaleFactors
+     *      count the scale factors chosen for the requests in the metrics
+     * @param pilots
+     *      if not null, profiles whose altitudes are already known, one per request
+     * @param pilotIndices
+     *      positions of the points of pilots.get(r) within the points of request r,
+     *      the altitudes are copied from the pilot and these points aren't sampled again
+     */
+    private List<TerrainProfile> computeProfiles(List<TerrainProfileRequest> requests,
+            boolean countScaleFactors, List<TerrainProfile> pilots, List<int[]> pilotIndices) throws ServiceException {
+        int numRequests = requests.size();
+        double[][] coordinates = new double[numRequests][];
+        double[] scaleFactors = new double[numRequests];
+        int[] tileSizes = new int[numRequests];
+        int[] offsets = new int[numRequests + 1];
+        for (int r = 0; r < numRequests; r++) {
+            TerrainProfileRequest request = requests.get(r);
+            double[] coords = request.getCoordinates();
+            long start = metrics.start();
+            double[] extent = GeomUtil.getEnvelope(coords);
+            scaleFactors[r] = determineScaleFactor(request.getScaleFactor(), extent);
+            metrics.stop(Stage.SCALE_FACTOR, start);
+            if (countScaleFactors) {
+                metrics.countScaleFactor(scaleFactors[r]);
+            }
+            tileSizes[r] = getTileSize(extent, source.getOffsetVectorX() / scaleFactors[r]);
+            int numPoints = request.getNumPoints();
+            if (coords.length < numPoints * 2) {
+                coords = interpolate(coords, numPoints);
+            }
+            coordinates[r] = coords;
+            offsets[r + 1] = offsets[r] + coords.length / 2;
+        }
 
-        if (coordinates.length < numPoints * 2) {
-            coordinates = interpolate(coordinates, numPoints);
+        TerrainProfile all = new TerrainProfile(offsets[numRequests]);
+        List<TerrainProfile> profiles = new ArrayList<>(numRequests);
+        for (int r = 0; r < numRequests; r++) {
+            TerrainProfile profile = all.slice(offsets[r], offsets[r + 1]);
+            double dx = source.getOffsetVectorX() / scaleFactors[r];
+            double dy = source.getOffsetVectorY() / scaleFactors[r];
+            setPoints(profile, coordinates[r], tileSizes[r], dx, dy);
+            profiles.add(profile);
         }
 
-        List<DataPoint> points = createDataPoints(coordinates, tileSize, dx, dy);
+        boolean[] sampled = null;
+        int numSampled = 0;
+        if (pilots != null) {
+            sampled = new boolean[all.size()];
+            for (int r = 0; r < numRequests; r++) {
+                TerrainProfile pilot = pilots.get(r);
+                int[] at = pilotIndices.get(r);
+                for (int j = 0; j < at.length; j++) {
+                    profiles.get(r).setAltitude(at[j], pilot.getAltitude(j));
+                    sampled[offsets[r] + at[j]] = true;
+                }
+                numSampled += at.length;
+            }
+        }
 
-        Map<GridTile, List<DataPoint>> pointsByTile = points.stream()
-                .collect(Collectors.groupingBy(p -> new GridTile(p.getTileX(), p.getTileY())));
-        for (List<DataPoint> pointsInTile : pointsByTile.values()) {
-            setAltitudes(pointsInTile, scaleFactor, dx, dy);
+        List<TileGroup> plan = createPlan(all, requests, scaleFactors, tileSizes, offsets, sampled);
+        int numTiles = 0;
+        for (TileGroup group : plan) {
+            numTiles += group.getNumTiles();
         }
+        metrics.countPoints(all.size() - numSampled);
+        metrics.countTiles(numTiles);
+        if (executor == null || numTiles <= 1) {
+            for (TileGroup group : plan) {
+                for (int t = 0; t < group.getNumTiles(); t++) {
+                    group.setAltitudes(source, all, t);
+                }
+            }
+        } else {
+            setAltitudesConcurrently(all, plan, numTiles);
+        }
+
+        return profiles;
+    }
 
-        points.sort(new Comparator<DataPoint>() {
-            @Override
-            public int compare(DataPoint o1, DataPoint o2) {
-                return Double.compare(o1.getDistFromStart(), o2.getDistFromStart());
+    /**
+     * Group the requests that share the scale factor, tile size and
+     * interpolation, and group the points of each group by tile
+     *
+     * @param sampled
+     *      if not null, points whose altitude is already known are left out of the plan
+     */
+    private List<TileGroup> createPlan(TerrainProfile points, List<TerrainProfileRequest> requests,
+            double[] scaleFactors, int[] tileSizes, int[] offsets, boolean[] sampled) {
+        int numRequests = requests.size();
+        int[] groupOf = new int[numRequests];
+        Arrays.fill(groupOf, -1);
+        List<TileGroup> plan = new ArrayList<>();
+        for (int r = 0; r < numRequests; r++) {
+            if (groupOf[r] >= 0) {
+                continue;
+            }
+            Interpolation interpolation = requests.get(r).getInterpolation();
+            int numPoints = 0;
+            for (int q = r; q < numRequests; q++) {
+                if (groupOf[q] < 0 && scaleFactors[q] == scaleFactors[r] && tileSizes[q] == tileSizes[r]
+                        && requests.get(q).getInterpolation() == interpolation) {
+                    groupOf[q] = r;
+                    for (int i = offsets[q]; i < offsets[q + 1]; i++) {
+                        if (sampled == null || !sampled[i]) {
+                            numPoints++;
+                        }
+                    }
+                }
             }
-        });
-        return points;
+            int[] indices = new int[numPoints];
+            int k = 0;
+            for (int q = r; q < numRequests; q++) {
+                if (groupOf[q] == r) {
+                    for (int i = offsets[q]; i < offsets[q + 1]; i++) {
+                        if (sampled == null || !sampled[i]) {
+                            indices[k++] = i;
+                        }
+                    }
+                }
+            }
+            plan.add(new TileGroup(points, indices, tileSizes[r], scaleFactors[r], interpolation));
+        }
+        return plan;
     }
 
     private int getTileSize(double[] extent, double dx) {
@@ -154,6 +410,8 @@ public class TerrainProfileService {
 
         double widthMetres = extent[2] - extent[0];
         double heightMetres = extent[3] - extent[1];
+        double offsetVectorX = source.getOffsetVectorX();
+        double offsetVectorY = source.getOffsetVectorY();
         for (double sf : SCALE_FACTORS) {
             double xPerPx = Math.abs(offsetVectorX / sf);
             double yPerPx = Math.abs(offsetVectorY / sf);
@@ -166,7 +424,7 @@ public class TerrainProfileService {
         return SCALE_FACTORS[SCALE_FACTORS.length - 1];
     }
 
-    private double[] interpolate(double[] coordinates, int numDataPoints) {
+    static double[] interpolate(double[] coordinates, int numDataPoints) {
         double[] interpolated = new double[numDataPoints * 2];
 
         double segmentLength = GeomUtil.getLength(coordinates) / (numDataPoints - 1);
@@ -219,15 +477,17 @@ public class TerrainProfileService {
         return interpolated;
     }
 
-    private List<DataPoint> createDataPoints(double[] coordinates, int tileSize, double dx, double dy) {
+    void setPoints(TerrainProfile profile, double[] coordinates, int tileSize,
+            double dx, double dy) {
+        double originEast = source.getOriginEast();
+        double originNorth = source.getOriginNorth();
         double e0 = coordinates[0];
         double n0 = coordinates[1];
         double distFromStart = 0.0;
 
-        List<DataPoint> points = new ArrayList<>(coordinates.length / 2);
-        for (int i = 0; i < coordinates.length;) {
-            double e1 = coordinates[i++];
-            double n1 = coordinates[i++];
+        for (int i = 0, j = 0; j < coordinates.length; i++) {
+            double e1 = coordinates[j++];
+            double n1 = coordinates[j++];
             distFromStart += GeomUtil.getDistance(e1, n1, e0, n0);
 
             int gridX = (int) Math.round(((e1 - originEast) / dx));
@@ -235,93 +495,133 @@ public class TerrainProfileService {
             int tileX = gridX / tileSize;
             int tileY = gridY / tileSize;
 
-            DataPoint dp = new DataPoint();
-            dp.setE(e1);
-            dp.setN(n1);
-            dp.setDistFromStart(distFromStart);
-            dp.setGridX(gridX);
-            dp.setGridY(gridY);
-            dp.setTileX(tileX);
-            dp.setTileY(tileY);
-            points.add(dp);
+            profile.setPoint(i, e1, n1, distFromStart);
+            profile.setGridCell(i, gridX, gridY, tileX, tileY);
 
             e0 = e1;
             n0 = n1;
         }
-        return points;
     }
 
-    private void setAltitudes(List<DataPoint> pointsInTile, double scaleFactor, double dx, double dy)
+    /**
+     * Fetch the tiles in parallel, if any of them fails (or the deadline
+     * is exceeded) the rest of the requests are cancelled.
+     *
+     * The deadline (timeoutMs) covers all the tiles of the call, not each
+     * request. Cancelling interrupts the workers, but a worker blocked in
+     * an HTTP read doesn't react to the interrupt, it keeps its thread until
+     * the read completes or the HTTP client times out. So after a timeout
+     * the pool may stay occupied for up to the read timeout of the client.
+     */
+    private void setAltitudesConcurrently(TerrainProfile points, List<TileGroup> plan, int numTiles)
             throws ServiceException {
-        int minGridX = Integer.MAX_VALUE;
-        int minGridY = Integer.MAX_VALUE;
-        int maxGridX = Integer.MIN_VALUE;
-        int maxGridY = Integer.MIN_VALUE;
-
-        for (DataPoint p : pointsInTile)  {
-            int gridX = p.getGridX();
-            if (gridX < minGridX) {
-                minGridX = gridX;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        CompletionService<Void> cs = new ExecutorCompletionService<>(executor);
+        List<Future<Void>> futures = new ArrayList<>(numTiles);
+        try {
+            for (TileGroup group : plan) {
+                for (int t = 0; t < group.getNumTiles(); t++) {
+                    final int tile = t;
+                    futures.add(cs.submit(() -> {
+                        group.setAltitudes(source, points, tile);
+                        return null;
+                    }));
+                }
             }
-            if (gridX > maxGridX) {
-                maxGridX = gridX;
+            for (int i = 0; i < futures.size(); i++) {
+                Future<Void> done = cs.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    throw new ServiceException("Timed out waiting for data from WCS");
+                }
+                done.get();
             }
-            int gridY = p.getGridY();
-            if (gridY < minGridY) {
-                minGridY = gridY;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while waiting for data from WCS", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ServiceException) {
+                throw (ServiceException) cause;
             }
-            if (gridY > maxGridY) {
-                maxGridY = gridY;
+            throw new ServiceException("Failed to retrieve data from WCS", cause);
+        } finally {
+            // No-op for the requests that have already completed
+            for (Future<Void> f : futures) {
+                f.cancel(true);
             }
         }
+    }
 
-        double eastMin = originEast + minGridX * dx;
-        double eastMax;
-        if (minGridX == maxGridX) {
-            eastMax = eastMin + dx;
-        } else {
-            eastMax = originEast + (maxGridX + 1) * dx;
+    /**
+     * Points sharing the scale factor, tile size and interpolation, grouped by tile.
+     * The indices of the points in tile t are order[tileStart[t]]...order[tileStart[t + 1] - 1].
+     */
+    private static class TileGroup {
+
+        private final int tileSize;
+        private final double scaleFactor;
+        private final Interpolation interpolation;
+        private final long[] tiles;
+        private final int[] tileStart;
+        private final int[] order;
+
+        private TileGroup(TerrainProfile points, int[] indices, int tileSize,
+                double scaleFactor, Interpolation interpolation) {
+            this.tileSize = tileSize;
+            this.scaleFactor = scaleFactor;
+            this.interpolation = interpolation;
+
+            int n = indices.length;
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = toTileKey(points.getTileX(indices[i]), points.getTileY(indices[i]));
+            }
+            long[] sorted = keys.clone();
+            Arrays.sort(sorted);
+            int numTiles = 0;
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    sorted[numTiles++] = sorted[i];
+                }
+            }
+            this.tiles = Arrays.copyOf(sorted, numTiles);
+
+            // Counting sort by tile, stable so the points stay in the order along the line
+            int[] tileOf = new int[n];
+            this.tileStart = new int[numTiles + 1];
+            for (int i = 0; i < n; i++) {
+                tileOf[i] = Arrays.binarySearch(tiles, keys[i]);
+                tileStart[tileOf[i] + 1]++;
+            }
+            for (int t = 0; t < numTiles; t++) {
+                tileStart[t + 1] += tileStart[t];
+            }
+            int[] next = Arrays.copyOf(tileStart, numTiles);
+            this.order = new int[n];
+            for (int i = 0; i < n; i++) {
+                order[next[tileOf[i]]++] = indices[i];
+            }
         }
 
-        double northMin = originNorth + maxGridY * dy;
-        double northMax;
-        if (minGridY == maxGridY) {
-            northMax = northMin - dy;
-        } else {
-            northMax = originNorth + (minGridY - 1) * dy;
+        private static long toTileKey(int tileX, int tileY) {
+            return ((long) tileX << 32) | (tileY & 0xFFFFFFFFL);
         }
 
-        GetCoverage getCoverage = new GetCoverage(caps, desc, FORMAT_TIFF);
-        getCoverage.subset("E", eastMin, eastMax);
-        getCoverage.subset("N", northMin, northMax);
-        getCoverage.scaling(new ScaleByFactor(scaleFactor));
-        Map<String, String[]> getCoverageKVP = getCoverage.toKVP();
-
-        String queryString = IOHelper.getParamsMultiValue(getCoverageKVP);
-        String request = endPoint + "?" + queryString;
-        byte[] response;
-        try {
-            HttpURLConnection conn = IOHelper.getConnection(request);
-            response = IOHelper.readBytes(conn);
-        } catch (IOException e) {
-            throw new ServiceException("Failed to retrieve data from WCS", e);
+        private int getNumTiles() {
+            return tiles.length;
         }
 
-        try {
-            FloatGeoTIFF tiff = new FloatGeoTIFF(response);
-            setAltitudes(pointsInTile, tiff, minGridX, minGridY);
-        } catch (IllegalArgumentException e) {
-            throw new ServiceException("Unexpected TIFF file", e);
+        private void setAltitudes(ElevationSource source, TerrainProfile points, int t)
+                throws ServiceException {
+            int tileX = (int) (tiles[t] >> 32);
+            int tileY = (int) tiles[t];
+            TerrainProfileMetrics metrics = TerrainProfileMetrics.get();
+            long start = metrics.start();
+            source.setAltitudes(tileX, tileY, points, order, tileStart[t], tileStart[t + 1],
+                    tileSize, scaleFactor, interpolation);
+            metrics.stop(Stage.TILE, start);
         }
-    }
 
-    private void setAltitudes(List<DataPoint> pointsInTile, FloatGeoTIFF tiff, int minGridX, int minGridY) {
-        for (DataPoint point : pointsInTile) {
-            int x = point.getGridX() - minGridX;
-            int y = point.getGridY() - minGridY;
-            float alt = tiff.getValue(x, y);
-            point.setAltitude(alt);
-        }
     }
 
 }
@@ -0,0 +1,200 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.ServiceException;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.paikkatietoikkuna.http.PooledHttpClient;
+
+/**
+ * Creates the TerrainProfileService (elevation source, DEM tile cache and
+ * the threads) from the properties once and shares it between the action
+ * handlers that use the DEM, so that they share the cache and the tile fetching.
+ * The service is shut down when the last handler releases it.
+ */
+public class TerrainProfileServiceProvider {
+
+    private static final Logger LOG = LogFactory.getLogger(TerrainProfileServiceProvider.class);
+
+    protected static final String PROPERTY_SOURCE = "terrain.profile.source";
+    protected static final String PROPERTY_GRID_DIR = "terrain.profile.grid.dir";
+    protected static final String PROPERTY_PYRAMID_DIR = "terrain.profile.pyramid.dir";
+    protected static final String PROPERTY_ENDPOINT = "terrain.profile.wcs.endPoint";
+    protected static final String PROPERTY_DEM_COVERAGE_ID = "terrain.profile.wcs.demCoverageId";
+    protected static final String PROPERTY_NODATA_VALUE = "terrain.profile.wcs.noData";
+    protected static final String PROPERTY_CACHE_SIZE_MB = "terrain.profile.cache.size.mb";
+    protected static final String PROPERTY_CACHE_CORRIDOR_FRACTION = "terrain.profile.cache.corridor.fraction";
+    protected static final String PROPERTY_THREADS = "terrain.profile.wcs.threads";
+    protected static final String PROPERTY_TIMEOUT_MS = "terrain.profile.wcs.timeout.ms";
+    protected static final String PROPERTY_METADATA_DIR = "terrain.profile.wcs.metadata.dir";
+    protected static final String PROPERTY_METADATA_REFRESH_MINUTES = "terrain.profile.wcs.metadata.refresh.minutes";
+
+    private static final String SOURCE_WCS = "wcs";
+    private static final String SOURCE_GRID = "grid";
+    private static final int CACHE_SIZE_MB_DEFAULT = 128;
+    private static final long MB = 1024 * 1024;
+    private static final int THREADS_DEFAULT = 4;
+    private static final int TIMEOUT_MS_DEFAULT = 30000;
+    private static final int METADATA_REFRESH_MINUTES_DEFAULT = 60;
+    private static final long METADATA_RETRY_MS = 30000L;
+
+    private static TerrainProfileServiceProvider instance;
+    private static int refCount;
+
+    private final TerrainProfileService service;
+    private ExecutorService executor;
+    private ScheduledExecutorService scheduler;
+    private boolean httpClientAcquired;
+
+    private TerrainProfileServiceProvider() throws ServiceException {
+        try {
+            ElevationSource source = createElevationSource(getNoDataValue());
+            if (!(source instanceof TiledGridElevationSource)) {
+                // Only remote sources benefit from concurrent requests
+                executor = createExecutor();
+            }
+            String pyramidDir = PropertyUtil.getOptional(PROPERTY_PYRAMID_DIR);
+            if (pyramidDir != null && !pyramidDir.isEmpty()) {
+                source = new PyramidElevationSource(source, Paths.get(pyramidDir));
+            }
+            service = new TerrainProfileService(source, executor,
+                    PropertyUtil.getOptional(PROPERTY_TIMEOUT_MS, TIMEOUT_MS_DEFAULT));
+        } catch (ServiceException e) {
+            shutdown();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the shared service, created on the first call
+     */
+    public static synchronized TerrainProfileService acquire() throws ServiceException {
+        if (instance == null) {
+            instance = new TerrainProfileServiceProvider();
+        }
+        refCount++;
+        return instance.service;
+    }
+
+    /**
+     * Release the service acquired with {@link #acquire()},
+     * the threads are stopped once all the users have released it
+     */
+    public static synchronized void release() {
+        if (instance == null) {
+            return;
+        }
+        if (--refCount <= 0) {
+            instance.shutdown();
+            instance = null;
+            refCount = 0;
+        }
+    }
+
+    private void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (httpClientAcquired) {
+            PooledHttpClient.releaseShared();
+            httpClientAcquired = false;
+        }
+    }
+
+    private ElevationSource createElevationSource(float noDataValue) throws ServiceException {
+        String source = PropertyUtil.get(PROPERTY_SOURCE, SOURCE_WCS);
+        switch (source) {
+        case SOURCE_WCS:
+            PooledHttpClient.acquireShared();
+            httpClientAcquired = true;
+            return new WCSElevationSource(createMetadataProvider(), createCache(), noDataValue,
+                    getCorridorFraction());
+        case SOURCE_GRID:
+            return new TiledGridElevationSource(Paths.get(PropertyUtil.get(PROPERTY_GRID_DIR)));
+        default:
+            throw new ServiceException("Unknown elevation source: " + source);
+        }
+    }
+
+    /**
+     * Starts loading the metadata of the coverage in the background so
+     * that init doesn't block on (or fail because of) the WCS
+     */
+    private WCSMetadataProvider createMetadataProvider() {
+        String metadataDir = PropertyUtil.getOptional(PROPERTY_METADATA_DIR);
+        WCSMetadataProvider metadata = new WCSMetadataProvider(
+                PropertyUtil.get(PROPERTY_ENDPOINT),
+                PropertyUtil.get(PROPERTY_DEM_COVERAGE_ID),
+                metadataDir != null && !metadataDir.isEmpty() ? Paths.get(metadataDir) : null);
+        int refreshMinutes = PropertyUtil.getOptional(PROPERTY_METADATA_REFRESH_MINUTES,
+                METADATA_REFRESH_MINUTES_DEFAULT);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "terrain-profile-wcs-metadata");
+            t.setDaemon(true);
+            return t;
+        });
+        metadata.start(scheduler, TimeUnit.MINUTES.toMillis(refreshMinutes), METADATA_RETRY_MS);
+        return metadata;
+    }
+
+    private ExecutorService createExecutor() {
+        int threads = PropertyUtil.getOptional(PROPERTY_THREADS, THREADS_DEFAULT);
+        if (threads <= 1) {
+            return null;
+        }
+        LOG.debug("Threads for WCS requests:", threads);
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "terrain-profile-wcs-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private DemTileCache createCache() {
+        int sizeMb = PropertyUtil.getOptional(PROPERTY_CACHE_SIZE_MB, CACHE_SIZE_MB_DEFAULT);
+        if (sizeMb <= 0) {
+            LOG.info("DEM tile cache disabled");
+            return null;
+        }
+        LOG.debug("DEM tile cache size (MB):", sizeMb);
+        return new DemTileCache(sizeMb * MB);
+    }
+
+    static double getCorridorFraction() {
+        String value = PropertyUtil.getOptional(PROPERTY_CACHE_CORRIDOR_FRACTION);
+        if (value != null && !value.isEmpty()) {
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                LOG.warn("Could not parse corridor fraction from " + value);
+            }
+        }
+        return WCSElevationSource.CORRIDOR_MAX_FRACTION_DEFAULT;
+    }
+
+    static float getNoDataValue() {
+        String noDataStr = PropertyUtil.getOptional(PROPERTY_NODATA_VALUE);
+        if (noDataStr != null && !noDataStr.isEmpty()) {
+            try {
+                return Float.parseFloat(noDataStr);
+            } catch (NumberFormatException e) {
+                LOG.warn("Could not parse NODATA value from " + noDataStr);
+            }
+        }
+        return Float.NaN;
+    }
+
+}
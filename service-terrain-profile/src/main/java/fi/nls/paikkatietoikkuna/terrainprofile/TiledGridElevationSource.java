@@ -0,0 +1,264 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.ServiceException;
+
+/**
+ * Reads the elevation data from a local directory of tiled float32 grid files.
+ * The tile files are memory-mapped on first use, so the grid stays off-heap
+ * and no network I/O is required to serve a profile.
+ *
+ * The directory contains a metadata file (grid.properties) with:
+ * <ul>
+ * <li>originEast, originNorth - center of the upper-left cell of the grid</li>
+ * <li>cellSize - size of a cell in metres</li>
+ * <li>tileWidth, tileHeight - size of a tile in cells</li>
+ * <li>noData - (optional) value for cells outside the grid, default 0.0</li>
+ * <li>byteOrder - (optional) LITTLE_ENDIAN (default) or BIG_ENDIAN</li>
+ * </ul>
+ * and one file per tile, named {tileX}_{tileY}.f32, containing
+ * tileWidth * tileHeight float32 values row by row. Missing tiles are
+ * considered to contain only noData values.
+ */
+public class TiledGridElevationSource implements ElevationSource, FloatRaster {
+
+    private static final Logger LOG = LogFactory.getLogger(TiledGridElevationSource.class);
+
+    public static final String METADATA_FILE = "grid.properties";
+    public static final String TILE_FILE_EXT = ".f32";
+
+    protected static final String KEY_ORIGIN_EAST = "originEast";
+    protected static final String KEY_ORIGIN_NORTH = "originNorth";
+    protected static final String KEY_CELL_SIZE = "cellSize";
+    protected static final String KEY_TILE_WIDTH = "tileWidth";
+    protected static final String KEY_TILE_HEIGHT = "tileHeight";
+    protected static final String KEY_NODATA = "noData";
+    protected static final String KEY_BYTE_ORDER = "byteOrder";
+
+    private static final FloatBuffer MISSING = FloatBuffer.allocate(0);
+
+    private final Path dir;
+    private final double originEast;
+    private final double originNorth;
+    private final double cellSize;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final float noData;
+    private final ByteOrder byteOrder;
+    private final ConcurrentMap<Long, FloatBuffer> tiles;
+
+    public TiledGridElevationSource(Path dir) throws ServiceException {
+        this.dir = dir;
+        Properties metadata = readMetadata(dir.resolve(METADATA_FILE));
+        try {
+            originEast = Double.parseDouble(getRequired(metadata, KEY_ORIGIN_EAST));
+            originNorth = Double.parseDouble(getRequired(metadata, KEY_ORIGIN_NORTH));
+            cellSize = Double.parseDouble(getRequired(metadata, KEY_CELL_SIZE));
+            tileWidth = Integer.parseInt(getRequired(metadata, KEY_TILE_WIDTH));
+            tileHeight = Integer.parseInt(getRequired(metadata, KEY_TILE_HEIGHT));
+            noData = Float.parseFloat(metadata.getProperty(KEY_NODATA, "0.0"));
+        } catch (NumberFormatException e) {
+            throw new ServiceException("Invalid grid metadata", e);
+        }
+        if (cellSize <= 0 || tileWidth <= 0 || tileHeight <= 0) {
+            throw new ServiceException("Invalid grid metadata, expected positive cell and tile size");
+        }
+        String order = metadata.getProperty(KEY_BYTE_ORDER, ByteOrder.LITTLE_ENDIAN.toString());
+        if (ByteOrder.BIG_ENDIAN.toString().equals(order)) {
+            byteOrder = ByteOrder.BIG_ENDIAN;
+        } else {
+            byteOrder = ByteOrder.LITTLE_ENDIAN;
+        }
+        tiles = new ConcurrentHashMap<>();
+        LOG.debug("Grid dir:", dir, "Origin:", originEast, originNorth, "CellSize:", cellSize,
+                "TileWidth:", tileWidth, "TileHeight:", tileHeight);
+    }
+
+    private static Properties readMetadata(Path file) throws ServiceException {
+        Properties metadata = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            metadata.load(in);
+        } catch (IOException e) {
+            throw new ServiceException("Failed to read grid metadata from " + file, e);
+        }
+        return metadata;
+    }
+
+    private static String getRequired(Properties metadata, String key) throws ServiceException {
+        String value = metadata.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            throw new ServiceException("Grid metadata is missing '" + key + "'");
+        }
+        return value.trim();
+    }
+
+    @Override
+    public double getOriginEast() {
+        return originEast;
+    }
+
+    @Override
+    public double getOriginNorth() {
+        return originNorth;
+    }
+
+    @Override
+    public double getOffsetVectorX() {
+        return cellSize;
+    }
+
+    @Override
+    public double getOffsetVectorY() {
+        return -cellSize;
+    }
+
+    @Override
+    public float getNoData() {
+        return noData;
+    }
+
+    /**
+     * The grid is always sampled at its native resolution,
+     * tile and scaleFactor only affect how the points are grouped
+     */
+    @Override
+    public void setAltitudes(int tileX, int tileY, TerrainProfile points, int[] indices, int from, int to,
+            int tileSize, double scaleFactor, Interpolation interpolation) throws ServiceException {
+        try {
+            for (int i = from; i < to; i++) {
+                int j = indices[i];
+                points.setAltitude(j, getAltitude(points.getE(j), points.getN(j), interpolation));
+            }
+        } catch (UncheckedIOException e) {
+            throw new ServiceException("Failed to read grid tile", e.getCause());
+        }
+    }
+
+    public float getAltitude(double e, double n) {
+        return getAltitude(e, n, Interpolation.NEAREST);
+    }
+
+    public float getAltitude(double e, double n, Interpolation interpolation) {
+        double x = (e - originEast) / cellSize;
+        double y = (originNorth - n) / cellSize;
+        if (Math.round(x) < 0 || Math.round(y) < 0) {
+            // Don't let the interpolation clamp points outside the grid to its edge
+            return noData;
+        }
+        return interpolation.sample(this, x, y, noData);
+    }
+
+    /**
+     * The extent of the grid is not known in advance, cells outside
+     * of the existing tiles have the value noData
+     */
+    @Override
+    public int getWidth() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int getHeight() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public float getValue(int col, int row) {
+        if (col < 0 || row < 0) {
+            return noData;
+        }
+        int tileX = col / tileWidth;
+        int tileY = row / tileHeight;
+        FloatBuffer tile = getTile(tileX, tileY);
+        if (tile == MISSING) {
+            return noData;
+        }
+        int offX = col % tileWidth;
+        int offY = row % tileHeight;
+        return tile.get(offY * tileWidth + offX);
+    }
+
+    private FloatBuffer getTile(int tileX, int tileY) {
+        long key = ((long) tileX << 32) | (tileY & 0xFFFFFFFFL);
+        FloatBuffer tile = tiles.get(key);
+        if (tile == null) {
+            tile = tiles.computeIfAbsent(key, k -> mapTile(tileX, tileY));
+        }
+        return tile;
+    }
+
+    private FloatBuffer mapTile(int tileX, int tileY) {
+        Path file = getTilePath(dir, tileX, tileY);
+        if (!Files.exists(file)) {
+            return MISSING;
+        }
+        long expectedSize = 4L * tileWidth * tileHeight;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() < expectedSize) {
+                throw new IOException("Tile file " + file + " is too small, expected "
+                        + expectedSize + " bytes");
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, expectedSize);
+            return buf.order(byteOrder).asFloatBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Path getTilePath(Path dir, int tileX, int tileY) {
+        return dir.resolve(tileX + "_" + tileY + TILE_FILE_EXT);
+    }
+
+    /**
+     * Write a tile in the format expected by this class, used for preloading the grid
+     */
+    public static void writeTile(Path dir, int tileX, int tileY, float[] values, ByteOrder byteOrder)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(values.length * 4).order(byteOrder);
+        buf.asFloatBuffer().put(values);
+        try (FileChannel ch = FileChannel.open(getTilePath(dir, tileX, tileY),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        }
+    }
+
+    /**
+     * Write the metadata file of a grid, tiles are written with {@link #writeTile}
+     */
+    public static void writeMetadata(Path dir, double originEast, double originNorth, double cellSize,
+            int tileWidth, int tileHeight, float noData, ByteOrder byteOrder) throws IOException {
+        Properties metadata = new Properties();
+        metadata.setProperty(KEY_ORIGIN_EAST, Double.toString(originEast));
+        metadata.setProperty(KEY_ORIGIN_NORTH, Double.toString(originNorth));
+        metadata.setProperty(KEY_CELL_SIZE, Double.toString(cellSize));
+        metadata.setProperty(KEY_TILE_WIDTH, Integer.toString(tileWidth));
+        metadata.setProperty(KEY_TILE_HEIGHT, Integer.toString(tileHeight));
+        metadata.setProperty(KEY_NODATA, Float.toString(noData));
+        metadata.setProperty(KEY_BYTE_ORDER, byteOrder.toString());
+        try (OutputStream out = Files.newOutputStream(dir.resolve(METADATA_FILE))) {
+            metadata.store(out, null);
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+/**
+ * Line-of-sight and viewshed computations on sampled DEM altitudes.
+ *
+ * The curvature of the Earth (with the usual refraction coefficient) is
+ * taken into account by lowering the terrain by d^2 * (1 - k) / 2R,
+ * where d is the horizontal distance from the observer.
+ */
+public class Visibility {
+
+    public static final byte VISIBLE = 1;
+    public static final byte HIDDEN = 0;
+    public static final byte NODATA = (byte) 0xFF;
+
+    private static final double EARTH_RADIUS = 6371000.0;
+    private static final double REFRACTION_COEFFICIENT = 0.13;
+
+    private Visibility() {}
+
+    public static double getCurvatureDrop(double distance) {
+        return distance * distance * (1.0 - REFRACTION_COEFFICIENT) / (2.0 * EARTH_RADIUS);
+    }
+
+    /**
+     * @param profile
+     *      profile from the observer (first point) to the target (last point)
+     * @param observerHeight
+     *      height of the observer above the ground
+     * @param targetHeight
+     *      height of the target above the ground
+     * @return index of the first point blocking the line of sight,
+     *         -1 if the target is visible
+     * @throws IllegalArgumentException if the observer or the target has no altitude
+     */
+    public static int getObstruction(TerrainProfile profile, float noData,
+            double observerHeight, double targetHeight, boolean curvature) {
+        int last = profile.size() - 1;
+        float observerAlt = profile.getAltitude(0);
+        float targetAlt = profile.getAltitude(last);
+        if (isNoData(observerAlt, noData) || isNoData(targetAlt, noData)) {
+            throw new IllegalArgumentException("No elevation data at the observer or the target");
+        }
+        double eye = observerAlt + observerHeight;
+        double d0 = profile.getDistFromStart(0);
+        double length = profile.getDistFromStart(last) - d0;
+        if (length <= 0) {
+            return -1;
+        }
+        double target = targetAlt + targetHeight - (curvature ? getCurvatureDrop(length) : 0.0);
+        double slope = (target - eye) / length;
+        for (int i = 1; i < last; i++) {
+            float alt = profile.getAltitude(i);
+            if (isNoData(alt, noData)) {
+                continue;
+            }
+            double d = profile.getDistFromStart(i) - d0;
+            double z = alt - (curvature ? getCurvatureDrop(d) : 0.0);
+            if (z > eye + slope * d) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compute the visibility of each cell of a square grid from its center cell
+     *
+     * @param dem
+     *      size * size altitudes in row-major order
+     * @param size
+     *      width and height of the grid, odd so that the observer is in the center cell
+     * @param cellSize
+     *      width and height of a cell in metres
+     * @param radius
+     *      cells further than this from the observer are set to NODATA
+     * @return VISIBLE, HIDDEN or NODATA for each cell (row-major)
+     * @throws IllegalArgumentException if the observer has no altitude
+     */
+    public static byte[] getViewshed(float[] dem, int size, float noData, double cellSize, double radius,
+            double observerHeight, double targetHeight, boolean curvature) {
+        int c = size / 2;
+        float observerAlt = dem[c * size + c];
+        if (isNoData(observerAlt, noData)) {
+            throw new IllegalArgumentException("No elevation data at the observer");
+        }
+        double eye = observerAlt + observerHeight;
+        double radiusCells = radius / cellSize;
+
+        byte[] visibility = new byte[size * size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                int dx = col - c;
+                int dy = row - c;
+                int i = row * size + col;
+                if (dx * dx + dy * dy > radiusCells * radiusCells || isNoData(dem[i], noData)) {
+                    visibility[i] = NODATA;
+                } else if (dx == 0 && dy == 0) {
+                    visibility[i] = VISIBLE;
+                } else {
+                    visibility[i] = isVisible(dem, size, noData, cellSize, c, dx, dy, eye, targetHeight, curvature)
+                            ? VISIBLE : HIDDEN;
+                }
+            }
+        }
+        return visibility;
+    }
+
+    /**
+     * Walk the cells from the observer towards the target and compare
+     * the slope of the target with the steepest slope along the way
+     */
+    private static boolean isVisible(float[] dem, int size, float noData, double cellSize, int c,
+            int dx, int dy, double eye, double targetHeight, boolean curvature) {
+        int steps = Math.max(Math.abs(dx), Math.abs(dy));
+        double maxSlope = Double.NEGATIVE_INFINITY;
+        for (int k = 1; k < steps; k++) {
+            int col = c + (int) Math.round((double) dx * k / steps);
+            int row = c + (int) Math.round((double) dy * k / steps);
+            float alt = dem[row * size + col];
+            if (isNoData(alt, noData)) {
+                continue;
+            }
+            double d = cellSize * Math.sqrt((col - c) * (col - c) + (row - c) * (row - c));
+            double slope = (alt - (curvature ? getCurvatureDrop(d) : 0.0) - eye) / d;
+            if (slope > maxSlope) {
+                maxSlope = slope;
+            }
+        }
+        double d = cellSize * Math.sqrt(dx * dx + dy * dy);
+        float alt = dem[(c + dy) * size + c + dx];
+        double slope = (alt + targetHeight - (curvature ? getCurvatureDrop(d) : 0.0) - eye) / d;
+        return slope >= maxSlope;
+    }
+
+    private static boolean isNoData(float alt, float noData) {
+        return alt == noData || Float.isNaN(alt);
+    }
+
+}
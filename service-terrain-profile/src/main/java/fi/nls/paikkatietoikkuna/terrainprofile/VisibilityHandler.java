@@ -0,0 +1,251 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.control.ActionException;
+import fi.nls.oskari.control.ActionHandler;
+import fi.nls.oskari.control.ActionParameters;
+import fi.nls.oskari.control.ActionParamsException;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.ServiceException;
+import fi.nls.oskari.service.ServiceRuntimeException;
+import fi.nls.oskari.util.IOHelper;
+import fi.nls.paikkatietoikkuna.terrainprofile.TerrainProfileMetrics.RequestType;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.Collections;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Line of sight between an observer and a target, or the viewshed
+ * (visibility raster) within a small radius around the observer.
+ * Uses the same TerrainProfileService (and DEM cache) as TerrainProfileHandler.
+ */
+@OskariActionRoute("Visibility")
+public class VisibilityHandler extends ActionHandler {
+
+    private static final Logger LOG = LogFactory.getLogger(VisibilityHandler.class);
+
+    protected static final String PARAM_OBSERVER = "observer";
+    protected static final String PARAM_OBSERVER_HEIGHT = "observerHeight";
+    protected static final String PARAM_TARGET = "target";
+    protected static final String PARAM_TARGET_HEIGHT = "targetHeight";
+    protected static final String PARAM_RADIUS = "radius";
+    protected static final String PARAM_CURVATURE = "curvature";
+
+    private static final double OBSERVER_HEIGHT_DEFAULT = 1.7;
+    private static final double TARGET_HEIGHT_DEFAULT = 0.0;
+    private static final double RADIUS_MAX = 2000.0;
+    // The line of sight is sampled at every cell of the native resolution, unlike
+    // TerrainProfileHandler (NUM_POINTS_MAX 1000) only a few of the points are
+    // written to the response, so the limit bounds the sampling work only.
+    // Longer lines are rejected rather than sampled at a coarser scale factor.
+    private static final int LINE_POINTS_MAX = 4000;
+    // Viewshed grid is at most (2 * 200 + 1)^2 cells, coarser scale factors are used for larger radii
+    private static final int VIEWSHED_HALF_SIZE_MAX = 200;
+    private static final double[] SCALE_FACTORS = { 1, 0.5, 0.25, 0.125, 0.0625 };
+
+    private final JsonFactory jf = new JsonFactory();
+    private TerrainProfileService tps;
+    private boolean acquired;
+
+    public VisibilityHandler() {
+        this(null);
+    }
+
+    public VisibilityHandler(TerrainProfileService tps) {
+        this.tps = tps;
+    }
+
+    @Override
+    public void init() {
+        if (tps == null) {
+            try {
+                tps = TerrainProfileServiceProvider.acquire();
+                acquired = true;
+            } catch (ServiceException ex) {
+                throw new ServiceRuntimeException(
+                        "Failed to init TerrainProfileService: " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    @Override
+    public void teardown() {
+        if (acquired) {
+            TerrainProfileServiceProvider.release();
+            acquired = false;
+            tps = null;
+        }
+    }
+
+    @Override
+    public void handleAction(ActionParameters params) throws ActionException {
+        double[] observer = parsePoint(PARAM_OBSERVER, params.getRequiredParam(PARAM_OBSERVER));
+        double observerHeight = parseDouble(params, PARAM_OBSERVER_HEIGHT, OBSERVER_HEIGHT_DEFAULT);
+        double targetHeight = parseDouble(params, PARAM_TARGET_HEIGHT, TARGET_HEIGHT_DEFAULT);
+        boolean curvature = !"false".equals(params.getHttpParam(PARAM_CURVATURE));
+        String target = params.getHttpParam(PARAM_TARGET);
+
+        try {
+            if (target != null && !target.isEmpty()) {
+                lineOfSight(params, observer, parsePoint(PARAM_TARGET, target),
+                        observerHeight, targetHeight, curvature);
+            } else {
+                double radius = parseDouble(params, PARAM_RADIUS, Double.NaN);
+                if (!(radius > 0 && radius <= RADIUS_MAX)) {
+                    throw new ActionParamsException("Parameter '" + PARAM_TARGET + "' or '" + PARAM_RADIUS
+                            + "' (0 < radius <= " + (int) RADIUS_MAX + ") required");
+                }
+                viewshed(params, observer, radius, observerHeight, targetHeight, curvature);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ActionParamsException(e.getMessage());
+        } catch (ServiceException e) {
+            throw new ActionException(e.getMessage(), e);
+        }
+    }
+
+    private void lineOfSight(ActionParameters params, double[] observer, double[] target,
+            double observerHeight, double targetHeight, boolean curvature)
+                    throws ServiceException, ActionException {
+        double[] line = { observer[0], observer[1], target[0], target[1] };
+        double length = GeomUtil.getLength(line);
+        double cellSize = tps.getCellSize();
+        double lengthMax = (LINE_POINTS_MAX - 1) * cellSize;
+        if (length > lengthMax) {
+            throw new ActionParamsException("Target is too far from the observer, maximum distance is "
+                    + (int) lengthMax + " metres");
+        }
+        int numPoints = (int) Math.max(2, Math.ceil(length / cellSize) + 1);
+        TerrainProfileRequest request = new TerrainProfileRequest(line, numPoints, 1.0, Interpolation.BILINEAR);
+        TerrainProfile profile = tps.getTerrainProfiles(Collections.singletonList(request),
+                RequestType.LINE_OF_SIGHT).get(0);
+        float noData = tps.getNoData();
+        int obstruction = Visibility.getObstruction(profile, noData, observerHeight, targetHeight, curvature);
+        LOG.debug("Line of sight, length:", length, "points:", profile.size(), "obstruction:", obstruction);
+
+        try (JsonGenerator json = createGenerator(params)) {
+            json.writeStartObject();
+            json.writeBooleanField("visible", obstruction < 0);
+            json.writeNumberField("distance", length);
+            writePoint(json, "observer", profile, 0);
+            writePoint(json, "target", profile, profile.size() - 1);
+            if (obstruction >= 0) {
+                writePoint(json, "obstruction", profile, obstruction);
+                json.writeNumberField("obstructionDistance", profile.getDistFromStart(obstruction));
+            }
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new ActionException("Failed to write response", e);
+        }
+    }
+
+    private void viewshed(ActionParameters params, double[] observer, double radius,
+            double observerHeight, double targetHeight, boolean curvature)
+                    throws ServiceException, ActionException {
+        double nativeCellSize = tps.getCellSize();
+        double scaleFactor = SCALE_FACTORS[SCALE_FACTORS.length - 1];
+        for (double sf : SCALE_FACTORS) {
+            if (radius / (nativeCellSize / sf) <= VIEWSHED_HALF_SIZE_MAX) {
+                scaleFactor = sf;
+                break;
+            }
+        }
+        double cellSize = nativeCellSize / scaleFactor;
+        int half = (int) Math.min(VIEWSHED_HALF_SIZE_MAX, Math.floor(radius / cellSize));
+        int size = 2 * half + 1;
+
+        // Cell centers, rows from north to south
+        double west = observer[0] - half * cellSize;
+        double north = observer[1] + half * cellSize;
+        double[] coordinates = new double[size * size * 2];
+        for (int row = 0, j = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                coordinates[j++] = west + col * cellSize;
+                coordinates[j++] = north - row * cellSize;
+            }
+        }
+        TerrainProfile points = tps.getElevations(coordinates, scaleFactor, Interpolation.NEAREST,
+                RequestType.VIEWSHED);
+        float[] dem = new float[size * size];
+        for (int i = 0; i < dem.length; i++) {
+            dem[i] = points.getAltitude(i);
+        }
+        float noData = tps.getNoData();
+        byte[] visibility = Visibility.getViewshed(dem, size, noData, cellSize, radius,
+                observerHeight, targetHeight, curvature);
+        int visible = 0;
+        for (byte v : visibility) {
+            if (v == Visibility.VISIBLE) {
+                visible++;
+            }
+        }
+        LOG.debug("Viewshed, size:", size, "cell size:", cellSize, "visible cells:", visible);
+
+        try (JsonGenerator json = createGenerator(params)) {
+            json.writeStartObject();
+            writePoint(json, "observer", points, half * size + half);
+            json.writeNumberField("cellSize", cellSize);
+            json.writeNumberField("width", size);
+            json.writeNumberField("height", size);
+            json.writeArrayFieldStart("upperLeft");
+            json.writeNumber(west);
+            json.writeNumber(north);
+            json.writeEndArray();
+            json.writeNumberField("visibleCells", visible);
+            json.writeStringField("data", Base64.getEncoder().encodeToString(visibility));
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new ActionException("Failed to write response", e);
+        }
+    }
+
+    private JsonGenerator createGenerator(ActionParameters params) throws IOException {
+        HttpServletResponse response = params.getResponse();
+        response.setContentType(IOHelper.CONTENT_TYPE_JSON);
+        OutputStream out = response.getOutputStream();
+        return jf.createGenerator(out);
+    }
+
+    private static void writePoint(JsonGenerator json, String field, TerrainProfile profile, int i)
+            throws IOException {
+        json.writeArrayFieldStart(field);
+        json.writeNumber(profile.getE(i));
+        json.writeNumber(profile.getN(i));
+        json.writeNumber(profile.getAltitude(i));
+        json.writeEndArray();
+    }
+
+    protected static double[] parsePoint(String param, String value)
+            throws ActionParamsException {
+        String[] parts = value.split(",");
+        if (parts.length != 2) {
+            throw new ActionParamsException("Invalid parameter value '" + param + "', expected e,n");
+        }
+        try {
+            return new double[] { Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()) };
+        } catch (NumberFormatException e) {
+            throw new ActionParamsException("Invalid parameter value '" + param + "', expected e,n");
+        }
+    }
+
+    protected static double parseDouble(ActionParameters params, String param, double defaultValue)
+            throws ActionParamsException {
+        String value = params.getHttpParam(param);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new ActionParamsException("Invalid parameter value '" + param + "'");
+        }
+    }
+
+}
@@ -0,0 +1,389 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.oskari.wcs.extension.scaling.ScaleByFactor;
+import org.oskari.wcs.request.GetCoverage;
+
+import fi.nls.oskari.service.ServiceException;
+import fi.nls.oskari.util.IOHelper;
+import fi.nls.paikkatietoikkuna.http.PooledHttpClient;
+import fi.nls.paikkatietoikkuna.terrainprofile.TerrainProfileMetrics.Stage;
+
+/**
+ * Reads the elevation data from a WCS 2.0 service with GetCoverage requests
+ */
+public class WCSElevationSource implements ElevationSource {
+
+    private static final String FORMAT_TIFF = "image/tiff";
+    // Maximum area (in cells) of a single GetCoverage subset when the tiles are not cached
+    private static final int CORRIDOR_MAX_CELLS = 128 * 128;
+    // Cached tiles overlap their neighbours by this many cells so that
+    // interpolation near the edge of a tile has the cells it needs
+    static final int TILE_MARGIN = Interpolation.getMaxMargin();
+    public static final double CORRIDOR_MAX_FRACTION_DEFAULT = 0.25;
+
+    private final String endPoint;
+    private final String coverageId;
+    private final WCSMetadataProvider metadata;
+    private final DemTileCache cache;
+    private final float noData;
+    private final double corridorMaxFraction;
+    private final SingleFlight<String, FloatGeoTIFF> inFlight = new SingleFlight<>();
+
+    public WCSElevationSource(String endPoint, String coverageId, DemTileCache cache)
+            throws ServiceException {
+        this(endPoint, coverageId, cache, Float.NaN);
+    }
+
+    /**
+     * Fetches the metadata of the coverage before returning
+     *
+     * @param cache
+     *      cache for the DEM tiles, if null every request goes to the WCS
+     * @param noData
+     *      NODATA value of the coverage
+     */
+    public WCSElevationSource(String endPoint, String coverageId, DemTileCache cache, float noData)
+            throws ServiceException {
+        this(new WCSMetadataProvider(endPoint, coverageId, null), cache, noData);
+        metadata.refresh();
+    }
+
+    /**
+     * Doesn't block, the source is ready once the metadata provider has the metadata available
+     *
+     * @param metadata
+     *      provider of the GetCapabilities and DescribeCoverage of the coverage
+     * @param cache
+     *      cache for the DEM tiles, if null every request goes to the WCS
+     * @param noData
+     *      NODATA value of the coverage
+     */
+    public WCSElevationSource(WCSMetadataProvider metadata, DemTileCache cache, float noData) {
+        this(metadata, cache, noData, CORRIDOR_MAX_FRACTION_DEFAULT);
+    }
+
+    /**
+     * @param corridorMaxFraction
+     *      on the first cache miss of a tile request only the subsets along the
+     *      route if they cover at most this fraction of the tile, the whole tile
+     *      is requested (and cached) when it's missed again. 0 to always request
+     *      the whole tile. Ignored if cache is null.
+     */
+    public WCSElevationSource(WCSMetadataProvider metadata, DemTileCache cache, float noData,
+            double corridorMaxFraction) {
+        this.endPoint = metadata.getEndPoint();
+        this.coverageId = metadata.getCoverageId();
+        this.metadata = metadata;
+        this.cache = cache;
+        this.noData = noData;
+        this.corridorMaxFraction = corridorMaxFraction;
+    }
+
+    @Override
+    public boolean isReady() {
+        return metadata.isAvailable();
+    }
+
+    @Override
+    public boolean isCached() {
+        return cache != null;
+    }
+
+    private WCSMetadata getMetadata() {
+        try {
+            return metadata.get();
+        } catch (ServiceException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public double getOriginEast() {
+        return getMetadata().getOriginEast();
+    }
+
+    @Override
+    public double getOriginNorth() {
+        return getMetadata().getOriginNorth();
+    }
+
+    @Override
+    public double getOffsetVectorX() {
+        return getMetadata().getOffsetVectorX();
+    }
+
+    @Override
+    public double getOffsetVectorY() {
+        return getMetadata().getOffsetVectorY();
+    }
+
+    @Override
+    public float getNoData() {
+        return noData;
+    }
+
+    @Override
+    public void setAltitudes(int tileX, int tileY, TerrainProfile points, int[] indices, int from, int to,
+            int tileSize, double scaleFactor, Interpolation interpolation) throws ServiceException {
+        // Use the same snapshot for the whole call even if it's refreshed meanwhile
+        WCSMetadata m = metadata.get();
+        double dx = m.getOffsetVectorX() / scaleFactor;
+        double dy = m.getOffsetVectorY() / scaleFactor;
+        if (cache != null) {
+            setAltitudesCached(m, tileX, tileY, points, indices, from, to, tileSize, scaleFactor, dx, dy,
+                    interpolation);
+        } else {
+            setAltitudes(m, points, indices, from, to, scaleFactor, dx, dy, interpolation);
+        }
+    }
+
+    /**
+     * Split the points (ordered along the line) into runs with small bounding boxes
+     * so that the requested subsets follow the route instead of covering the
+     * bounding box of the whole tile, which for diagonal routes is mostly empty
+     */
+    private void setAltitudes(WCSMetadata m, TerrainProfile points, int[] indices, int from, int to,
+            double scaleFactor, double dx, double dy, Interpolation interpolation) throws ServiceException {
+        int margin = interpolation.getMargin();
+        while (from < to) {
+            int end = getCorridorEnd(points, indices, from, to, margin, CORRIDOR_MAX_CELLS);
+            setAltitudesInBox(m, points, indices, from, end, scaleFactor, dx, dy, interpolation);
+            from = end;
+        }
+    }
+
+    /**
+     * @return exclusive end index (to indices) of the longest run of points starting
+     *         from 'from' whose bounding box, grown by margin cells to each direction,
+     *         covers at most maxCells cells. The run always contains at least one point.
+     */
+    static int getCorridorEnd(TerrainProfile points, int[] indices, int from, int to,
+            int margin, int maxCells) {
+        int first = indices[from];
+        int minGridX = points.getGridX(first);
+        int maxGridX = minGridX;
+        int minGridY = points.getGridY(first);
+        int maxGridY = minGridY;
+
+        int i = from + 1;
+        for (; i < to; i++) {
+            int gridX = points.getGridX(indices[i]);
+            int gridY = points.getGridY(indices[i]);
+            int x1 = Math.min(minGridX, gridX);
+            int x2 = Math.max(maxGridX, gridX);
+            int y1 = Math.min(minGridY, gridY);
+            int y2 = Math.max(maxGridY, gridY);
+            long cells = (long) (x2 - x1 + 1 + 2 * margin) * (y2 - y1 + 1 + 2 * margin);
+            if (cells > maxCells) {
+                break;
+            }
+            minGridX = x1;
+            maxGridX = x2;
+            minGridY = y1;
+            maxGridY = y2;
+        }
+        return i;
+    }
+
+    /**
+     * @return total area in cells of the subsets setAltitudes(WCSMetadata, ...) would request
+     */
+    static long getCorridorCells(TerrainProfile points, int[] indices, int from, int to,
+            int margin, int maxCells) {
+        long cells = 0;
+        while (from < to) {
+            int end = getCorridorEnd(points, indices, from, to, margin, maxCells);
+            int minGridX = Integer.MAX_VALUE;
+            int minGridY = Integer.MAX_VALUE;
+            int maxGridX = Integer.MIN_VALUE;
+            int maxGridY = Integer.MIN_VALUE;
+            for (int i = from; i < end; i++) {
+                minGridX = Math.min(minGridX, points.getGridX(indices[i]));
+                maxGridX = Math.max(maxGridX, points.getGridX(indices[i]));
+                minGridY = Math.min(minGridY, points.getGridY(indices[i]));
+                maxGridY = Math.max(maxGridY, points.getGridY(indices[i]));
+            }
+            cells += (long) (maxGridX - minGridX + 1 + 2 * margin) * (maxGridY - minGridY + 1 + 2 * margin);
+            from = end;
+        }
+        return cells;
+    }
+
+    private void setAltitudesInBox(WCSMetadata m, TerrainProfile points, int[] indices, int from, int to,
+            double scaleFactor, double dx, double dy, Interpolation interpolation) throws ServiceException {
+        int minGridX = Integer.MAX_VALUE;
+        int minGridY = Integer.MAX_VALUE;
+        int maxGridX = Integer.MIN_VALUE;
+        int maxGridY = Integer.MIN_VALUE;
+
+        for (int i = from; i < to; i++) {
+            int gridX = points.getGridX(indices[i]);
+            if (gridX < minGridX) {
+                minGridX = gridX;
+            }
+            if (gridX > maxGridX) {
+                maxGridX = gridX;
+            }
+            int gridY = points.getGridY(indices[i]);
+            if (gridY < minGridY) {
+                minGridY = gridY;
+            }
+            if (gridY > maxGridY) {
+                maxGridY = gridY;
+            }
+        }
+
+        // Include the neighbouring cells required by the interpolation
+        int margin = interpolation.getMargin();
+        minGridX -= margin;
+        minGridY -= margin;
+        maxGridX += margin;
+        maxGridY += margin;
+
+        if (minGridX >= 0 && minGridY >= 0) {
+            FloatGeoTIFF tiff = getCoverage(m, minGridX, minGridY, maxGridX, maxGridY, scaleFactor, dx, dy);
+            setAltitudes(m, points, indices, from, to, tiff, minGridX, minGridY, dx, dy, interpolation);
+            return;
+        }
+        // The grid starts from 0, the WCS would clip the part before it and shift the response,
+        // pad it with noData like the cached tiles at the edge of the coverage
+        int reqMinGridX = Math.max(0, minGridX);
+        int reqMinGridY = Math.max(0, minGridY);
+        FloatGeoTIFF tiff = getCoverage(m, reqMinGridX, reqMinGridY, maxGridX, maxGridY, scaleFactor, dx, dy);
+        DemTile dem = DemTile.copyOf(tiff, reqMinGridX - minGridX, reqMinGridY - minGridY,
+                maxGridX - minGridX + 1, maxGridY - minGridY + 1, noData);
+        setAltitudes(m, points, indices, from, to, dem, minGridX, minGridY, dx, dy, interpolation);
+    }
+
+    /**
+     * Serve the altitudes from the cached DEM tile, on cache miss request
+     * the whole tile from the WCS so that it can be reused by later requests.
+     * If the route only crosses a small part of the tile, the first miss
+     * requests just the subsets along the route (see corridorMaxFraction).
+     * The cached tile includes TILE_MARGIN cells of the neighbouring tiles on
+     * each side, so interpolated values are continuous across tile boundaries.
+     */
+    private void setAltitudesCached(WCSMetadata m, int tileX, int tileY, TerrainProfile points, int[] indices, int from, int to,
+            int tileSize, double scaleFactor, double dx, double dy, Interpolation interpolation)
+                    throws ServiceException {
+        int minGridX = getCachedTileMin(tileX, tileSize);
+        int minGridY = getCachedTileMin(tileY, tileSize);
+
+        DemTileKey key = new DemTileKey(coverageId, m.getGridVersion(), scaleFactor, tileX, tileY);
+        DemTile dem = cache.get(key);
+        if (dem == null) {
+            int size = tileSize + 2 * TILE_MARGIN;
+            if (isSparse(points, indices, from, to, size, interpolation) && cache.isFirstMiss(key)) {
+                setAltitudes(m, points, indices, from, to, scaleFactor, dx, dy, interpolation);
+                return;
+            }
+            // The grid starts from 0, the WCS would clip the part before it and shift the response
+            int reqMinGridX = Math.max(0, minGridX);
+            int reqMinGridY = Math.max(0, minGridY);
+            int maxGridX = minGridX + size - 1;
+            int maxGridY = minGridY + size - 1;
+            FloatGeoTIFF tiff = getCoverage(m, reqMinGridX, reqMinGridY, maxGridX, maxGridY, scaleFactor, dx, dy);
+            dem = DemTile.copyOf(tiff, reqMinGridX - minGridX, reqMinGridY - minGridY, size, size, noData);
+            cache.put(key, dem);
+        }
+
+        setAltitudes(m, points, indices, from, to, dem, minGridX, minGridY, dx, dy, interpolation);
+    }
+
+    private boolean isSparse(TerrainProfile points, int[] indices, int from, int to, int size,
+            Interpolation interpolation) {
+        if (corridorMaxFraction <= 0) {
+            return false;
+        }
+        long cells = getCorridorCells(points, indices, from, to, interpolation.getMargin(), CORRIDOR_MAX_CELLS);
+        return cells <= corridorMaxFraction * size * size;
+    }
+
+    /**
+     * @return grid cell of the first column (or row) of a cached tile
+     */
+    static int getCachedTileMin(int tile, int tileSize) {
+        return tile * tileSize - TILE_MARGIN;
+    }
+
+    protected FloatGeoTIFF getCoverage(WCSMetadata m, int minGridX, int minGridY, int maxGridX, int maxGridY,
+            double scaleFactor, double dx, double dy) throws ServiceException {
+        double originEast = m.getOriginEast();
+        double originNorth = m.getOriginNorth();
+        double eastMin = originEast + minGridX * dx;
+        double eastMax;
+        if (minGridX == maxGridX) {
+            eastMax = eastMin + dx;
+        } else {
+            eastMax = originEast + (maxGridX + 1) * dx;
+        }
+
+        double northMin = originNorth + maxGridY * dy;
+        double northMax;
+        if (minGridY == maxGridY) {
+            northMax = northMin - dy;
+        } else {
+            northMax = originNorth + (minGridY - 1) * dy;
+        }
+
+        GetCoverage getCoverage = new GetCoverage(m.getCapabilities(), m.getCoverageDescription(), FORMAT_TIFF);
+        getCoverage.subset("E", eastMin, eastMax);
+        getCoverage.subset("N", northMin, northMax);
+        getCoverage.scaling(new ScaleByFactor(scaleFactor));
+        Map<String, String[]> getCoverageKVP = getCoverage.toKVP();
+
+        String queryString = IOHelper.getParamsMultiValue(getCoverageKVP);
+        String request = endPoint + "?" + queryString;
+        // Identical concurrent requests (e.g. the same popular route) share one download and decode
+        return inFlight.get(request, () -> getCoverage(request));
+    }
+
+    private FloatGeoTIFF getCoverage(String request) throws ServiceException {
+        TerrainProfileMetrics metrics = TerrainProfileMetrics.get();
+        long start = metrics.start();
+        byte[] response;
+        try {
+            response = PooledHttpClient.getShared().get(request);
+        } catch (IOException e) {
+            throw new ServiceException("Failed to retrieve data from WCS", e);
+        } finally {
+            metrics.stop(Stage.WCS_DOWNLOAD, start);
+        }
+        metrics.countBytesDownloaded(response.length);
+
+        start = metrics.start();
+        try {
+            return new FloatGeoTIFF(response);
+        } catch (IllegalArgumentException e) {
+            throw new ServiceException("Unexpected TIFF file", e);
+        } finally {
+            metrics.stop(Stage.TIFF_DECODE, start);
+        }
+    }
+
+    private void setAltitudes(WCSMetadata m, TerrainProfile points, int[] indices, int from, int to,
+            FloatRaster raster, int minGridX, int minGridY, double dx, double dy, Interpolation interpolation) {
+        // FloatGeoTIFF decodes its internal tiles lazily, so this includes decoding the pixels
+        TerrainProfileMetrics metrics = TerrainProfileMetrics.get();
+        long start = metrics.start();
+        for (int i = from; i < to; i++) {
+            int j = indices[i];
+            float alt;
+            if (interpolation == Interpolation.NEAREST) {
+                int x = points.getGridX(j) - minGridX;
+                int y = points.getGridY(j) - minGridY;
+                alt = raster.getValue(x, y);
+            } else {
+                double x = (points.getE(j) - m.getOriginEast()) / dx - minGridX;
+                double y = (points.getN(j) - m.getOriginNorth()) / dy - minGridY;
+                alt = interpolation.sample(raster, x, y, noData);
+            }
+            points.setAltitude(j, alt);
+        }
+        metrics.stop(Stage.SAMPLE, start);
+    }
+
+}
@@ -0,0 +1,123 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.oskari.wcs.capabilities.Capabilities;
+import org.oskari.wcs.coverage.CoverageDescription;
+import org.oskari.wcs.coverage.RectifiedGridCoverage;
+import org.oskari.wcs.gml.RectifiedGrid;
+import org.oskari.wcs.parser.CapabilitiesParser;
+import org.oskari.wcs.parser.CoverageDescriptionsParser;
+import org.xml.sax.SAXException;
+
+import fi.nls.oskari.service.ServiceException;
+
+/**
+ * Immutable snapshot of the GetCapabilities and DescribeCoverage responses
+ * of a WCS. The raw responses are kept so that the snapshot can be persisted.
+ */
+public class WCSMetadata {
+
+    private final byte[] capabilitiesXml;
+    private final byte[] describeCoverageXml;
+    private final Capabilities caps;
+    private final RectifiedGridCoverage desc;
+    private final double originEast;
+    private final double originNorth;
+    private final double offsetVectorX;
+    private final double offsetVectorY;
+    private final int gridVersion;
+
+    private WCSMetadata(byte[] capabilitiesXml, byte[] describeCoverageXml,
+            Capabilities caps, RectifiedGridCoverage desc, int gridVersion) {
+        this.capabilitiesXml = capabilitiesXml;
+        this.describeCoverageXml = describeCoverageXml;
+        this.caps = caps;
+        this.desc = desc;
+        RectifiedGrid grid = desc.getDomainSet();
+        this.originEast = grid.getOrigin().getPos()[0];
+        this.originNorth = grid.getOrigin().getPos()[1];
+        this.offsetVectorX = grid.getOffsetVectors()[0].getPos()[0];
+        this.offsetVectorY = grid.getOffsetVectors()[1].getPos()[1];
+        this.gridVersion = gridVersion;
+    }
+
+    public static WCSMetadata parse(byte[] capabilitiesXml, byte[] describeCoverageXml)
+            throws ServiceException {
+        try {
+            Capabilities caps = CapabilitiesParser.parse(new ByteArrayInputStream(capabilitiesXml));
+            List<CoverageDescription> descriptions =
+                    CoverageDescriptionsParser.parse(new ByteArrayInputStream(describeCoverageXml));
+            if (caps == null || descriptions == null || descriptions.isEmpty()) {
+                throw new ServiceException("Empty GetCapabilities or DescribeCoverage response");
+            }
+            CoverageDescription desc = descriptions.get(0);
+            if (!(desc instanceof RectifiedGridCoverage)) {
+                throw new ServiceException("Expected coverage of type RectifiedGridCoverage");
+            }
+            return new WCSMetadata(capabilitiesXml, describeCoverageXml, caps, (RectifiedGridCoverage) desc, 0);
+        } catch (IOException | ParserConfigurationException | SAXException e) {
+            throw new ServiceException("Failed to parse WCS metadata", e);
+        }
+    }
+
+    public byte[] getCapabilitiesXml() {
+        return capabilitiesXml;
+    }
+
+    public byte[] getDescribeCoverageXml() {
+        return describeCoverageXml;
+    }
+
+    public Capabilities getCapabilities() {
+        return caps;
+    }
+
+    public RectifiedGridCoverage getCoverageDescription() {
+        return desc;
+    }
+
+    public double getOriginEast() {
+        return originEast;
+    }
+
+    public double getOriginNorth() {
+        return originNorth;
+    }
+
+    public double getOffsetVectorX() {
+        return offsetVectorX;
+    }
+
+    public double getOffsetVectorY() {
+        return offsetVectorY;
+    }
+
+    /**
+     * @return incremented every time the grid of the coverage changes,
+     *         see {@link WCSMetadataProvider#refresh()}
+     */
+    public int getGridVersion() {
+        return gridVersion;
+    }
+
+    /**
+     * @return copy of this snapshot with the grid version set
+     */
+    WCSMetadata withGridVersion(int gridVersion) {
+        return new WCSMetadata(capabilitiesXml, describeCoverageXml, caps, desc, gridVersion);
+    }
+
+    public boolean hasSameGrid(WCSMetadata other) {
+        return other != null
+                && originEast == other.originEast
+                && originNorth == other.originNorth
+                && offsetVectorX == other.offsetVectorX
+                && offsetVectorY == other.offsetVectorY;
+    }
+
+}
@@ -0,0 +1,244 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.oskari.wcs.request.DescribeCoverage;
+import org.oskari.wcs.request.GetCapabilities;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.ServiceException;
+import fi.nls.oskari.util.IOHelper;
+import fi.nls.paikkatietoikkuna.http.PooledHttpClient;
+
+/**
+ * Provides the current {@link WCSMetadata} of a coverage without blocking.
+ *
+ * On {@link #start(ScheduledExecutorService, long, long)} the last snapshot
+ * persisted to disk (if any) is loaded so that a restart comes up warm, after
+ * which the metadata is fetched from the WCS in the background and refreshed
+ * periodically. Each successful fetch replaces the current snapshot atomically
+ * and is written to disk. Both responses are written to the same file, so a
+ * crash between the writes can't leave a mismatched pair behind. Until the
+ * first snapshot is available {@link #get()} throws ServiceException.
+ */
+public class WCSMetadataProvider {
+
+    private static final Logger LOG = LogFactory.getLogger(WCSMetadataProvider.class);
+
+    protected static final String SNAPSHOT_FILE_SUFFIX = ".metadata.bin";
+
+    private final String endPoint;
+    private final String coverageId;
+    private final Path snapshotDir;
+    private final AtomicReference<WCSMetadata> current = new AtomicReference<>();
+
+    /**
+     * @param snapshotDir
+     *      directory where the snapshot is persisted, if null nothing is persisted
+     */
+    public WCSMetadataProvider(String endPoint, String coverageId, Path snapshotDir) {
+        this.endPoint = endPoint;
+        this.coverageId = coverageId;
+        this.snapshotDir = snapshotDir;
+    }
+
+    public String getEndPoint() {
+        return endPoint;
+    }
+
+    public String getCoverageId() {
+        return coverageId;
+    }
+
+    public boolean isAvailable() {
+        return current.get() != null;
+    }
+
+    /**
+     * @return current snapshot
+     * @throws ServiceException if the metadata hasn't been loaded yet
+     */
+    public WCSMetadata get() throws ServiceException {
+        WCSMetadata metadata = current.get();
+        if (metadata == null) {
+            throw new ServiceException("Metadata of coverage " + coverageId + " is not available yet");
+        }
+        return metadata;
+    }
+
+    /**
+     * Load the persisted snapshot (if any) and start fetching the metadata from the WCS
+     * in the background. Doesn't block on the WCS.
+     *
+     * @param refreshIntervalMs
+     *      how often the metadata is refreshed once available, non-positive to fetch only once
+     * @param retryIntervalMs
+     *      how soon a failed fetch is retried while no metadata is available
+     */
+    public void start(ScheduledExecutorService scheduler, long refreshIntervalMs, long retryIntervalMs) {
+        loadSnapshot();
+        schedule(scheduler, 0L, refreshIntervalMs, retryIntervalMs);
+    }
+
+    private void schedule(ScheduledExecutorService scheduler, long delayMs,
+            long refreshIntervalMs, long retryIntervalMs) {
+        try {
+            scheduler.schedule(() -> {
+                try {
+                    refresh();
+                } catch (ServiceException | RuntimeException e) {
+                    LOG.warn(e, "Failed to refresh metadata of coverage", coverageId, "from", endPoint);
+                }
+                if (!isAvailable()) {
+                    schedule(scheduler, retryIntervalMs, refreshIntervalMs, retryIntervalMs);
+                } else if (refreshIntervalMs > 0) {
+                    schedule(scheduler, refreshIntervalMs, refreshIntervalMs, retryIntervalMs);
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Scheduler shut down, stopped refreshing metadata of", coverageId);
+        }
+    }
+
+    /**
+     * @return true if a snapshot was loaded from the disk
+     */
+    public boolean loadSnapshot() {
+        if (snapshotDir == null) {
+            return false;
+        }
+        Path file = snapshotDir.resolve(getSnapshotFileName(SNAPSHOT_FILE_SUFFIX));
+        if (!Files.exists(file)) {
+            LOG.info("No metadata snapshot of coverage", coverageId, "in", snapshotDir);
+            return false;
+        }
+        try {
+            byte[][] responses = readSnapshot(Files.readAllBytes(file));
+            WCSMetadata metadata = WCSMetadata.parse(responses[0], responses[1]);
+            // Don't replace metadata that was fetched in the meantime
+            if (current.compareAndSet(null, metadata)) {
+                LOG.info("Loaded metadata snapshot of coverage", coverageId, "from", snapshotDir);
+            }
+            return true;
+        } catch (IOException | ServiceException e) {
+            LOG.warn(e, "Failed to load metadata snapshot of coverage", coverageId, "from", snapshotDir);
+            return false;
+        }
+    }
+
+    /**
+     * Fetch the metadata from the WCS, replace the current snapshot
+     * and persist it. On failure the current snapshot is kept.
+     *
+     * If the grid of the coverage changed the grid version is incremented,
+     * so the DEM tiles cached for the previous grid are no longer used.
+     */
+    public void refresh() throws ServiceException {
+        byte[] capabilitiesXml;
+        byte[] describeCoverageXml;
+        try {
+            capabilitiesXml = fetch(GetCapabilities.toQueryParameters());
+            describeCoverageXml = fetch(DescribeCoverage.toQueryParameters(coverageId));
+        } catch (IOException e) {
+            throw new ServiceException("Failed to retrieve metadata from WCS", e);
+        }
+        WCSMetadata parsed = WCSMetadata.parse(capabilitiesXml, describeCoverageXml);
+        WCSMetadata previous;
+        WCSMetadata metadata;
+        do {
+            previous = current.get();
+            metadata = parsed;
+            if (previous != null) {
+                int version = previous.getGridVersion();
+                metadata = parsed.withGridVersion(parsed.hasSameGrid(previous) ? version : version + 1);
+            }
+        } while (!current.compareAndSet(previous, metadata));
+        if (previous != null && !metadata.hasSameGrid(previous)) {
+            LOG.warn("Grid of coverage", coverageId, "changed, tiles cached for the previous grid are not used");
+        }
+        writeSnapshot(metadata);
+    }
+
+    protected byte[] fetch(Map<String, String> params) throws IOException {
+        return PooledHttpClient.getShared().get(IOHelper.constructUrl(endPoint, params));
+    }
+
+    private void writeSnapshot(WCSMetadata metadata) {
+        if (snapshotDir == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(snapshotDir);
+            write(getSnapshotFileName(SNAPSHOT_FILE_SUFFIX),
+                    toSnapshot(metadata.getCapabilitiesXml(), metadata.getDescribeCoverageXml()));
+        } catch (IOException e) {
+            LOG.warn(e, "Failed to write metadata snapshot of coverage", coverageId, "to", snapshotDir);
+        }
+    }
+
+    private void write(String fileName, byte[] content) throws IOException {
+        // Write to a temporary file first so that a crash never leaves a partial snapshot behind
+        Path tmp = Files.createTempFile(snapshotDir, fileName, ".tmp");
+        try {
+            Files.write(tmp, content);
+            Files.move(tmp, snapshotDir.resolve(fileName),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @return the responses, each prefixed by its length
+     */
+    static byte[] toSnapshot(byte[] capabilitiesXml, byte[] describeCoverageXml) {
+        ByteBuffer bb = ByteBuffer.allocate(8 + capabilitiesXml.length + describeCoverageXml.length);
+        bb.putInt(capabilitiesXml.length).put(capabilitiesXml);
+        bb.putInt(describeCoverageXml.length).put(describeCoverageXml);
+        return bb.array();
+    }
+
+    /**
+     * @return [capabilitiesXml, describeCoverageXml]
+     * @throws IOException if the snapshot is truncated or otherwise invalid
+     */
+    static byte[][] readSnapshot(byte[] snapshot) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(snapshot);
+        byte[][] responses = new byte[2][];
+        for (int i = 0; i < responses.length; i++) {
+            if (bb.remaining() < 4) {
+                throw new IOException("Truncated metadata snapshot");
+            }
+            int length = bb.getInt();
+            if (length < 0 || length > bb.remaining()) {
+                throw new IOException("Truncated metadata snapshot");
+            }
+            responses[i] = new byte[length];
+            bb.get(responses[i]);
+        }
+        if (bb.hasRemaining()) {
+            throw new IOException("Unexpected data at the end of metadata snapshot");
+        }
+        return responses;
+    }
+
+    /**
+     * The name identifies both the coverage and the service so
+     * that a snapshot of another endPoint is never picked up
+     */
+    protected String getSnapshotFileName(String suffix) {
+        String id = coverageId.replaceAll("[^A-Za-z0-9._-]", "_");
+        return id + '-' + Integer.toHexString(endPoint.hashCode()) + suffix;
+    }
+
+}
@@ -0,0 +1,172 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fi.nls.oskari.service.ServiceException;
+
+public class AdaptiveSamplingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void pointsAreAllocatedByWeight() {
+        assertArrayEquals(new int[] { 1, 2, 7 }, AdaptiveSampling.allocate(new double[] { 1, 2, 7 }, 10));
+        // Leftovers go to the largest remainders
+        assertArrayEquals(new int[] { 1, 1, 2 }, AdaptiveSampling.allocate(new double[] { 1, 1, 1.5 }, 4));
+        assertArrayEquals(new int[] { 0, 0, 0 }, AdaptiveSampling.allocate(new double[] { 1, 1, 1 }, 0));
+    }
+
+    @Test
+    public void flatTerrainIsSampledEvenly() {
+        float[] pilot = new float[5];
+        Arrays.fill(pilot, 100.0f);
+        double[] distances = AdaptiveSampling.getDistances(400.0, pilot, Float.NaN, 9);
+        assertArrayEquals(new double[] { 0, 50, 100, 150, 200, 250, 300, 350, 400 }, distances, 1e-9);
+    }
+
+    @Test
+    public void steepSegmentsGetMorePoints() {
+        float[] pilot = { 100, 100, 100, 200, 200 };
+        double[] distances = AdaptiveSampling.getDistances(400.0, pilot, Float.NaN, 25);
+        assertEquals(25, distances.length);
+        assertEquals(0.0, distances[0], 0.0);
+        assertEquals(400.0, distances[24], 0.0);
+        int steep = 0;
+        for (int i = 1; i < distances.length; i++) {
+            assertTrue(distances[i] > distances[i - 1]);
+            if (distances[i] > 200 && distances[i] < 300) {
+                steep++;
+            }
+        }
+        // Pilot points (0, 100, 200, 300, 400) are always included
+        for (double d : new double[] { 0, 100, 200, 300, 400 }) {
+            assertTrue(Arrays.binarySearch(distances, d) >= 0);
+        }
+        assertTrue("steep segment got " + steep + " points", steep > 10);
+    }
+
+    @Test
+    public void pilotIndicesPointToThePilotDistances() {
+        float[] pilot = { 100, 100, 100, 200, 200 };
+        int[] extra = AdaptiveSampling.getExtraPoints(pilot, Float.NaN, 25);
+        double[] distances = AdaptiveSampling.getDistances(400.0, extra);
+        int[] indices = AdaptiveSampling.getPilotIndices(extra);
+        assertEquals(25, distances.length);
+        assertEquals(pilot.length, indices.length);
+        for (int i = 0; i < indices.length; i++) {
+            assertEquals(i * 100.0, distances[indices[i]], 1e-9);
+        }
+        assertEquals(24, indices[indices.length - 1]);
+    }
+
+    @Test
+    public void noDataIsConsideredFlat() {
+        float noData = -9999.0f;
+        float[] pilot = { noData, noData, 100, 100, noData };
+        double[] weights = AdaptiveSampling.getWeights(pilot, noData);
+        for (int i = 1; i < weights.length; i++) {
+            assertEquals(weights[0], weights[i], 1e-9);
+        }
+    }
+
+    @Test
+    public void adaptiveProfileConcentratesPointsOnRoughTerrain() throws ServiceException {
+        FunctionSource source = new FunctionSource(true);
+        TerrainProfileService tps = new TerrainProfileService(source, null, 0L);
+        // Flat for the first 5km, hilly for the next 5km
+        double[] line = { 0, -1000, 10000, -1000 };
+        TerrainProfile profile = tps.getTerrainProfile(new TerrainProfileRequest(
+                line, 200, 1.0, Interpolation.NEAREST, Sampling.ADAPTIVE));
+
+        assertEquals(200, profile.size());
+        assertEquals(0.0, profile.getE(0), 1e-9);
+        assertEquals(10000.0, profile.getE(199), 1e-9);
+        int rough = 0;
+        for (int i = 0; i < profile.size(); i++) {
+            if (i > 0) {
+                assertTrue(profile.getDistFromStart(i) > profile.getDistFromStart(i - 1));
+            }
+            assertEquals(FunctionSource.getAltitude(profile.getE(i)), profile.getAltitude(i), 0.0f);
+            if (profile.getE(i) > 5000) {
+                rough++;
+            }
+        }
+        assertTrue("rough half got " + rough + " points", rough > 150);
+        // The pilot points are reused, every point is sampled once
+        assertEquals(200, source.numSampled);
+    }
+
+    @Test
+    public void withoutCacheProfileIsSampledUniformly() throws ServiceException {
+        FunctionSource source = new FunctionSource(false);
+        TerrainProfileService tps = new TerrainProfileService(source, null, 0L);
+        double[] line = { 0, -1000, 10000, -1000 };
+        TerrainProfile profile = tps.getTerrainProfile(new TerrainProfileRequest(
+                line, 201, 1.0, Interpolation.NEAREST, Sampling.ADAPTIVE));
+
+        assertEquals(201, profile.size());
+        for (int i = 0; i < profile.size(); i++) {
+            assertEquals(i * 50.0, profile.getE(i), 1e-6);
+        }
+        assertEquals(201, source.numSampled);
+    }
+
+    @Test
+    public void uncachedSourceInPyramidIsSampledUniformly() throws ServiceException, IOException {
+        FunctionSource source = new FunctionSource(false);
+        PyramidElevationSource pyramid = new PyramidElevationSource(source, folder.newFolder("pyramid").toPath());
+        assertFalse(pyramid.isCached());
+        TerrainProfileService tps = new TerrainProfileService(pyramid, null, 0L);
+        double[] line = { 0, -1000, 10000, -1000 };
+        TerrainProfile profile = tps.getTerrainProfile(new TerrainProfileRequest(
+                line, 201, 1.0, Interpolation.NEAREST, Sampling.ADAPTIVE));
+
+        assertEquals(201, profile.size());
+        // No pilot pass, every point is read from the source once
+        assertEquals(201, source.numSampled);
+    }
+
+    /**
+     * Altitude depends only on the east coordinate
+     */
+    private static class FunctionSource implements ElevationSource {
+
+        private final boolean cached;
+        private int numSampled;
+
+        FunctionSource(boolean cached) {
+            this.cached = cached;
+        }
+
+        static float getAltitude(double e) {
+            return e <= 5000 ? 100.0f : (float) (100.0 + 50.0 * Math.sin(e / 40.0));
+        }
+
+        public double getOriginEast() { return 0.0; }
+        public double getOriginNorth() { return 0.0; }
+        public double getOffsetVectorX() { return 1.0; }
+        public double getOffsetVectorY() { return -1.0; }
+        public float getNoData() { return Float.NaN; }
+        public boolean isCached() { return cached; }
+
+        public void setAltitudes(int tileX, int tileY, TerrainProfile points, int[] indices, int from, int to,
+                int tileSize, double scaleFactor, Interpolation interpolation) {
+            for (int i = from; i < to; i++) {
+                points.setAltitude(indices[i], getAltitude(points.getE(indices[i])));
+            }
+            numSampled += to - from;
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class CompactProfileWriterTest {
+
+    private static final float NO_DATA = -9999f;
+
+    @Test
+    public void testWriteWithoutCoordinates() throws IOException {
+        TerrainProfile dp = createPoints();
+        DataInputStream in = write(dp, false);
+
+        assertHeader(in, 0, dp.size());
+        assertEquals(0.0f, in.readFloat(), 0.0f);
+        assertEquals(10.0f, in.readFloat(), 0.0f);
+        assertEquals(20.0f, in.readFloat(), 0.0f);
+        assertEquals(101.5f, in.readFloat(), 0.0f);
+        assertTrue(Float.isNaN(in.readFloat()));
+        assertEquals(103.25f, in.readFloat(), 0.0f);
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testWriteWithCoordinates() throws IOException {
+        TerrainProfile dp = createPoints();
+        DataInputStream in = write(dp, true);
+
+        assertHeader(in, 1, dp.size());
+        for (int i = 0; i < 2 * dp.size(); i++) {
+            in.readFloat();
+        }
+        assertEquals(500000.0, in.readDouble(), 0.0);
+        assertEquals(6822000.0, in.readDouble(), 0.0);
+        for (int i = 0; i < dp.size(); i++) {
+            assertEquals(i * 10.0f, in.readFloat(), 0.0f);
+            assertEquals(0.0f, in.readFloat(), 0.0f);
+        }
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testWriteEmpty() throws IOException {
+        DataInputStream in = write(new TerrainProfile(0), true);
+        assertHeader(in, 1, 0);
+        assertEquals(-1, in.read());
+    }
+
+    private static void assertHeader(DataInputStream in, int flags, int n) throws IOException {
+        assertEquals('T', in.read());
+        assertEquals('P', in.read());
+        assertEquals('R', in.read());
+        assertEquals('F', in.read());
+        assertEquals(1, in.read());
+        assertEquals(flags, in.read());
+        assertEquals(0, in.readShort());
+        assertEquals(n, in.readInt());
+    }
+
+    private static DataInputStream write(TerrainProfile dp, boolean includeCoordinates) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CompactProfileWriter.write(dp, baos, NO_DATA, includeCoordinates);
+        return new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+    }
+
+    private static TerrainProfile createPoints() {
+        float[] altitudes = { 101.5f, NO_DATA, 103.25f };
+        TerrainProfile profile = new TerrainProfile(altitudes.length);
+        for (int i = 0; i < altitudes.length; i++) {
+            profile.setPoint(i, 500000.0 + i * 10.0, 6822000.0, i * 10.0);
+            profile.setAltitude(i, altitudes[i]);
+        }
+        return profile;
+    }
+
+}
@@ -0,0 +1,220 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fi.nls.oskari.service.ServiceException;
+
+public class DemPyramidBuilderTest {
+
+    private static final int TILE_SIZE = 8;
+    private static final float NODATA = -9999.0f;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path gridDir;
+    private Path pyramidDir;
+
+    /**
+     * 2x1 tiles of 8x8 cells, cell size 10m, origin (center of upper-left cell)
+     * at 500005,6800155 - altitude of a cell is 100 * col + row
+     */
+    @Before
+    public void writeGrid() throws IOException {
+        gridDir = folder.newFolder("grid").toPath();
+        pyramidDir = folder.newFolder("pyramid").toPath();
+        TiledGridElevationSource.writeMetadata(gridDir, 500005, 6800155, 10,
+                TILE_SIZE, TILE_SIZE, NODATA, ByteOrder.LITTLE_ENDIAN);
+        for (int tileX = 0; tileX < 2; tileX++) {
+            float[] values = new float[TILE_SIZE * TILE_SIZE];
+            for (int y = 0; y < TILE_SIZE; y++) {
+                for (int x = 0; x < TILE_SIZE; x++) {
+                    int col = tileX * TILE_SIZE + x;
+                    values[y * TILE_SIZE + x] = 100 * col + y;
+                }
+            }
+            TiledGridElevationSource.writeTile(gridDir, tileX, 0, values, ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    @Test
+    public void levelsAreBuiltFromLocalGrid() throws IOException, ServiceException {
+        TiledGridElevationSource grid = new TiledGridElevationSource(gridDir);
+        double[] extent = { 500000, 6800080, 500160, 6800160 };
+        new DemPyramidBuilder(grid, extent).build(pyramidDir, 3, 2);
+
+        assertTrue(Files.exists(DemPyramidBuilder.getLevelDir(pyramidDir, 1)
+                .resolve(TiledGridElevationSource.METADATA_FILE)));
+        TiledGridElevationSource level1 = new TiledGridElevationSource(DemPyramidBuilder.getLevelDir(pyramidDir, 1));
+        assertEquals(20.0, level1.getOffsetVectorX(), 0.0);
+        assertEquals(grid.getOriginEast(), level1.getOriginEast(), 0.0);
+        // The filter keeps linear surfaces as is where all the neighbours exist
+        assertEquals(202.0f, level1.getValue(1, 1), 1e-3f);
+        assertEquals(1406.0f, level1.getValue(7, 3), 1e-3f);
+        // Right of the grid there is no data
+        assertEquals(NODATA, level1.getValue(9, 1), 0.0f);
+
+        TiledGridElevationSource level2 = new TiledGridElevationSource(DemPyramidBuilder.getLevelDir(pyramidDir, 2));
+        assertEquals(40.0, level2.getOffsetVectorX(), 0.0);
+        assertEquals(level1.getValue(2, 2), level2.getValue(1, 1), 1e-3f);
+    }
+
+    @Test
+    public void pyramidServesCoarseScaleFactors() throws IOException, ServiceException {
+        TiledGridElevationSource grid = new TiledGridElevationSource(gridDir);
+        double[] extent = { 500000, 6800080, 500160, 6800160 };
+        new DemPyramidBuilder(grid, extent).build(pyramidDir, 1, 1);
+
+        PyramidElevationSource pyramid = new PyramidElevationSource(grid, pyramidDir);
+        assertTrue(pyramid.hasLevel(0.5));
+        assertFalse(pyramid.hasLevel(1.0));
+        assertFalse(pyramid.hasLevel(0.25));
+
+        TerrainProfileService tps = new TerrainProfileService(pyramid, null, 0L);
+        // Centers of level 1 cells (1,1) and (3,1)
+        double[] line = { 500025, 6800135, 500065, 6800135 };
+        TerrainProfile coarse = tps.getTerrainProfile(line, 0, 0.5);
+        assertEquals(202.0f, coarse.getAltitude(0), 1e-3f);
+        assertEquals(602.0f, coarse.getAltitude(1), 1e-3f);
+        // Native resolution is still served by the base grid
+        TerrainProfile fine = tps.getTerrainProfile(line, 0, 1.0);
+        assertEquals(202.0f, fine.getAltitude(0), 0.0f);
+        assertEquals(602.0f, fine.getAltitude(1), 0.0f);
+    }
+
+    @Test(expected = ServiceException.class)
+    public void levelWithDifferentNoDataIsRejected() throws IOException, ServiceException {
+        TiledGridElevationSource grid = new TiledGridElevationSource(gridDir);
+        double[] extent = { 500000, 6800080, 500160, 6800160 };
+        new DemPyramidBuilder(grid, extent).build(pyramidDir, 1, 1);
+        TiledGridElevationSource.writeMetadata(DemPyramidBuilder.getLevelDir(pyramidDir, 1),
+                500005, 6800155, 20, TILE_SIZE, TILE_SIZE, 0.0f, ByteOrder.LITTLE_ENDIAN);
+        new PyramidElevationSource(grid, pyramidDir);
+    }
+
+    @Test
+    public void noDataOfRemoteSourceIsNotAveraged() throws IOException, ServiceException {
+        // Not a FloatRaster, so level 1 is requested from the source like from a WCS
+        ElevationSource remote = new ElevationSource() {
+            @Override
+            public double getOriginEast() {
+                return 500005;
+            }
+
+            @Override
+            public double getOriginNorth() {
+                return 6800155;
+            }
+
+            @Override
+            public double getOffsetVectorX() {
+                return 10;
+            }
+
+            @Override
+            public double getOffsetVectorY() {
+                return -10;
+            }
+
+            @Override
+            public float getNoData() {
+                return NODATA;
+            }
+
+            @Override
+            public void setAltitudes(int tileX, int tileY, TerrainProfile points, int[] indices, int from, int to,
+                    int tileSize, double scaleFactor, Interpolation interpolation) {
+                for (int i = from; i < to; i++) {
+                    int j = indices[i];
+                    int col = points.getGridX(j);
+                    points.setAltitude(j, col < 2 ? NODATA : 100 * col + points.getGridY(j));
+                }
+            }
+        };
+        double[] extent = { 500000, 6800080, 500160, 6800160 };
+        new DemPyramidBuilder(remote, extent).build(pyramidDir, 1, 2);
+
+        TiledGridElevationSource level1 = new TiledGridElevationSource(DemPyramidBuilder.getLevelDir(pyramidDir, 1));
+        TiledGridElevationSource level2 = new TiledGridElevationSource(DemPyramidBuilder.getLevelDir(pyramidDir, 2));
+        assertEquals(NODATA, level1.getNoData(), 0.0f);
+        assertEquals(NODATA, level2.getNoData(), 0.0f);
+        // All the cells under it are noData
+        assertEquals(NODATA, level2.getValue(0, 1), 0.0f);
+        // Column 1 of level 1 is left out, columns 2 and 3 have the weights 1/2 and 1/4
+        assertEquals((0.5f * 202 + 0.25f * 302) / 0.75f, level2.getValue(1, 1), 1e-3f);
+        // The levels are accepted with the same noData
+        PyramidElevationSource pyramid = new PyramidElevationSource(remote, pyramidDir);
+        assertTrue(pyramid.hasLevel(0.25));
+    }
+
+    @Test
+    public void noDataOfWCSCanBeGivenAsArgument() {
+        String[] args = { "https://example.com/wcs", pyramidDir.toString(), "1", "2",
+                "500000", "6800080", "500160", "6800160", "dem", "-9999" };
+        assertEquals(NODATA, DemPyramidBuilder.getWCSNoData(args), 0.0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidNoDataArgumentThrows() {
+        DemPyramidBuilder.getWCSNoData(new String[] { "https://example.com/wcs", pyramidDir.toString(), "1", "2",
+                "500000", "6800080", "500160", "6800160", "dem", "none" });
+    }
+
+    @Test
+    public void runBuildsTheLevels() throws IOException, ServiceException {
+        DemPyramidBuilder.run(new String[] { gridDir.toString(), pyramidDir.toString(), "1", "2",
+                "500000", "6800080", "500160", "6800160" });
+        PyramidElevationSource pyramid = new PyramidElevationSource(
+                new TiledGridElevationSource(gridDir), pyramidDir);
+        assertTrue(pyramid.hasLevel(0.5));
+        assertTrue(pyramid.hasLevel(0.25));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void runRequiresTheExtent() throws IOException, ServiceException {
+        DemPyramidBuilder.run(new String[] { gridDir.toString(), pyramidDir.toString(), "1", "2" });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void runRequiresCoverageIdForWCS() throws IOException, ServiceException {
+        DemPyramidBuilder.run(new String[] { "https://example.com/wcs", pyramidDir.toString(), "1", "2",
+                "500000", "6800080", "500160", "6800160" });
+    }
+
+    @Test
+    public void testGetLevel() {
+        assertEquals(0, PyramidElevationSource.getLevel(1.0));
+        assertEquals(1, PyramidElevationSource.getLevel(0.5));
+        assertEquals(7, PyramidElevationSource.getLevel(0.0078125));
+        assertEquals(-1, PyramidElevationSource.getLevel(0.3));
+        assertEquals(-1, PyramidElevationSource.getLevel(0.0));
+        assertEquals(-1, PyramidElevationSource.getLevel(2.0));
+    }
+
+    @Test
+    public void downsampleSkipsNoData() {
+        DemTile tile = new DemTile(3, 3, new float[] {
+                NODATA, 10, 10,
+                10, 20, 10,
+                10, 10, Float.NaN
+        });
+        // Weights: corners 1/16, edges 1/8, center 1/4; missing corners leave 14/16
+        float expected = (4 * 10 / 8f + 20 / 4f + 10 / 16f + 10 / 16f) / (14 / 16f);
+        assertEquals(expected, DemPyramidBuilder.downsample(tile, 1, 1, NODATA), 1e-4f);
+        DemTile empty = new DemTile(1, 1, new float[] { NODATA });
+        assertEquals(NODATA, DemPyramidBuilder.downsample(empty, 0, 0, NODATA), 0.0f);
+    }
+
+}
@@ -0,0 +1,102 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DemTileCacheTest {
+
+    private static final String COVERAGE_ID = "korkeusmalli__korkeusmalli";
+
+    @Test
+    public void whenCacheIsFullLeastRecentlyUsedTileIsEvicted() {
+        // Room for two 4x4 tiles (64 bytes each)
+        DemTileCache cache = new DemTileCache(128);
+        DemTileKey k1 = new DemTileKey(COVERAGE_ID, 1.0, 0, 0);
+        DemTileKey k2 = new DemTileKey(COVERAGE_ID, 1.0, 1, 0);
+        DemTileKey k3 = new DemTileKey(COVERAGE_ID, 1.0, 2, 0);
+
+        cache.put(k1, createTile(4, 4));
+        cache.put(k2, createTile(4, 4));
+        // Access k1 so that k2 becomes the least recently used
+        assertNotNull(cache.get(k1));
+        cache.put(k3, createTile(4, 4));
+
+        assertEquals(2, cache.getTileCount());
+        assertEquals(128, cache.getSizeInBytes());
+        assertNotNull(cache.get(k1));
+        assertNull(cache.get(k2));
+        assertNotNull(cache.get(k3));
+    }
+
+    @Test
+    public void tilesAreKeyedByCoverageGridAndScaleFactor() {
+        DemTileCache cache = new DemTileCache(1024);
+        DemTile tile = createTile(2, 2);
+        cache.put(new DemTileKey(COVERAGE_ID, 0.5, 3, 4), tile);
+
+        assertSame(tile, cache.get(new DemTileKey(COVERAGE_ID, 0.5, 3, 4)));
+        assertNull(cache.get(new DemTileKey(COVERAGE_ID, 1.0, 3, 4)));
+        assertNull(cache.get(new DemTileKey("foo", 0.5, 3, 4)));
+        // Tiles of the previous grid are not returned after the grid has changed
+        assertNull(cache.get(new DemTileKey(COVERAGE_ID, 1, 0.5, 3, 4)));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void whenTileIsLargerThanCacheItIsNotCached() {
+        DemTileCache cache = new DemTileCache(32);
+        DemTileKey key = new DemTileKey(COVERAGE_ID, 1.0, 0, 0);
+        cache.put(key, createTile(4, 4));
+        assertNull(cache.get(key));
+        assertEquals(0, cache.getSizeInBytes());
+    }
+
+    @Test
+    public void repeatedMissesAreDetected() {
+        DemTileCache cache = new DemTileCache(1024);
+        DemTileKey key = new DemTileKey(COVERAGE_ID, 1.0, 0, 0);
+        assertTrue(cache.isFirstMiss(key));
+        assertFalse(cache.isFirstMiss(key));
+        assertTrue(cache.isFirstMiss(new DemTileKey(COVERAGE_ID, 1.0, 1, 0)));
+        // Once the tile is cached a miss (after eviction) starts over
+        cache.put(key, createTile(2, 2));
+        assertTrue(cache.isFirstMiss(key));
+    }
+
+    @Test
+    public void whenOutsideTileGetValueReturnsNoData() {
+        DemTile tile = new DemTile(2, 2, new float[] { 0, 1, 2, 3 }, -9999f);
+        assertEquals(3.0f, tile.getValue(1, 1), 0.0f);
+        assertEquals(-9999f, tile.getValue(-1, 0), 0.0f);
+        assertEquals(-9999f, tile.getValue(0, 2), 0.0f);
+        assertTrue(Float.isNaN(createTile(2, 2).getValue(2, 0)));
+    }
+
+    @Test
+    public void cellsBeyondTheTIFFAreNoData() {
+        // 3x2 cells at the edge of the coverage copied into a 4x4 tile
+        float[] values = { 1, 2, 3, 4, 5, 6 };
+        FloatGeoTIFF tiff = new FloatGeoTIFF(TIFFFixtures.createTIFF(values, 3, 2, 16));
+        DemTile tile = DemTile.copyOf(tiff, 4, 4, -9999f);
+        assertEquals(6.0f, tile.getValue(2, 1), 0.0f);
+        assertEquals(-9999f, tile.getValue(3, 0), 0.0f);
+        assertEquals(-9999f, tile.getValue(0, 2), 0.0f);
+        assertEquals(-9999f, tile.getValue(3, 3), 0.0f);
+    }
+
+    private DemTile createTile(int width, int height) {
+        float[] values = new float[width * height];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        return new DemTile(width, height, values);
+    }
+
+}
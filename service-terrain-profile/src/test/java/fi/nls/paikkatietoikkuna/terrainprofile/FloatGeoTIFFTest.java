@@ -0,0 +1,183 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.oskari.wcs.geotiff.IFD;
+import org.oskari.wcs.geotiff.TIFFReader;
+
+public class FloatGeoTIFFTest {
+
+    private static final int WIDTH = 50;
+    private static final int HEIGHT = 37;
+
+    @Test
+    public void whenCompressionIsNoneTilesCanBeReadInPlace() {
+        assertTrue(FloatGeoTIFF.isUncompressedSingleBand(createHeader(ByteOrder.LITTLE_ENDIAN, 1, 1)));
+        assertTrue(FloatGeoTIFF.isUncompressedSingleBand(createHeader(ByteOrder.BIG_ENDIAN, 1, 1)));
+    }
+
+    @Test
+    public void whenCompressedTilesMustBeDecoded() {
+        // 8 = Deflate
+        assertFalse(FloatGeoTIFF.isUncompressedSingleBand(createHeader(ByteOrder.LITTLE_ENDIAN, 8, 1)));
+        // 5 = LZW
+        assertFalse(FloatGeoTIFF.isUncompressedSingleBand(createHeader(ByteOrder.BIG_ENDIAN, 5, 1)));
+    }
+
+    @Test
+    public void whenMultipleBandsTilesMustBeDecoded() {
+        assertFalse(FloatGeoTIFF.isUncompressedSingleBand(createHeader(ByteOrder.LITTLE_ENDIAN, 1, 3)));
+    }
+
+    @Test
+    public void whenNotClassicTIFFTilesMustBeDecoded() {
+        byte[] buf = createHeader(ByteOrder.LITTLE_ENDIAN, 1, 1);
+        // BigTIFF magic number
+        buf[2] = 43;
+        assertFalse(FloatGeoTIFF.isUncompressedSingleBand(buf));
+    }
+
+    @Test
+    public void valuesReadInPlaceMatchDecodedTiles() {
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+            // Partial tiles at the right and bottom edges
+            byte[] buf = TIFFFixtures.createTIFF(createValues(), WIDTH, HEIGHT, 16, order);
+            assertValues(buf, new FloatGeoTIFF(buf));
+        }
+    }
+
+    @Test
+    public void valuesOfLazilyDecodedTilesMatchDecodedTiles() {
+        byte[] buf = TIFFFixtures.createTIFF(createValues(), WIDTH, HEIGHT, 16);
+        assertValues(buf, new FloatGeoTIFF(buf, false));
+    }
+
+    @Test
+    public void lazilyDecodedTilesCanBeReadConcurrently() throws Exception {
+        byte[] buf = TIFFFixtures.createTIFF(createValues(), WIDTH, HEIGHT, 16);
+        float[] expected = decodeAll(buf);
+        FloatGeoTIFF tiff = new FloatGeoTIFF(buf, false);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int seed = t;
+                results.add(executor.submit((Callable<Integer>) () -> {
+                    Random r = new Random(seed);
+                    int mismatches = 0;
+                    for (int i = 0; i < 10000; i++) {
+                        int x = r.nextInt(WIDTH);
+                        int y = r.nextInt(HEIGHT);
+                        if (Float.compare(expected[y * WIDTH + x], tiff.getValue(x, y)) != 0) {
+                            mismatches++;
+                        }
+                    }
+                    return mismatches;
+                }));
+            }
+            for (Future<Integer> f : results) {
+                assertEquals(0, (int) f.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tileOffsetBeyondTheBufferIsRejected() {
+        byte[] buf = TIFFFixtures.createTIFF(createValues(), WIDTH, HEIGHT, 16);
+        int[] offsets = new TIFFReader(buf).getIFD(0).getTileOffsets();
+        // Offset >= 2 GB, negative as a signed int
+        offsets[offsets.length - 1] = 0x80000000;
+        FloatGeoTIFF.checkTilesInBuffer(offsets, 4L * 16 * 16, buf.length);
+    }
+
+    @Test
+    public void tileOffsetsWithinTheBufferAreAccepted() {
+        byte[] buf = TIFFFixtures.createTIFF(createValues(), WIDTH, HEIGHT, 16);
+        int[] offsets = new TIFFReader(buf).getIFD(0).getTileOffsets();
+        FloatGeoTIFF.checkTilesInBuffer(offsets, 4L * 16 * 16, buf.length);
+    }
+
+    private static float[] createValues() {
+        Random r = new Random(42);
+        float[] values = new float[WIDTH * HEIGHT];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = r.nextFloat() * 1000f - 100f;
+        }
+        values[0] = Float.NaN;
+        return values;
+    }
+
+    /**
+     * Reference: decode all the tiles up front with TIFFReader
+     */
+    private static float[] decodeAll(byte[] buf) {
+        TIFFReader reader = new TIFFReader(buf);
+        IFD ifd = reader.getIFD(0);
+        int tw = ifd.getTileWidth();
+        int th = ifd.getTileHeight();
+        int tilesAcross = (ifd.getWidth() + tw - 1) / tw;
+        float[] all = new float[ifd.getWidth() * ifd.getHeight()];
+        float[] tile = new float[tw * th];
+        for (int t = 0; t < ifd.getTileOffsets().length; t++) {
+            reader.readTile(0, t, tile);
+            int x0 = (t % tilesAcross) * tw;
+            int y0 = (t / tilesAcross) * th;
+            for (int y = 0; y < th && y0 + y < ifd.getHeight(); y++) {
+                for (int x = 0; x < tw && x0 + x < ifd.getWidth(); x++) {
+                    all[(y0 + y) * ifd.getWidth() + x0 + x] = tile[y * tw + x];
+                }
+            }
+        }
+        return all;
+    }
+
+    private static void assertValues(byte[] buf, FloatGeoTIFF tiff) {
+        float[] expected = decodeAll(buf);
+        float[] values = createValues();
+        assertEquals(WIDTH, tiff.getWidth());
+        assertEquals(HEIGHT, tiff.getHeight());
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(expected[y * WIDTH + x], tiff.getValue(x, y), 0.0f);
+                assertEquals(values[y * WIDTH + x], tiff.getValue(x, y), 0.0f);
+            }
+        }
+    }
+
+    private byte[] createHeader(ByteOrder order, int compression, int samplesPerPixel) {
+        ByteBuffer bb = ByteBuffer.allocate(64).order(order);
+        bb.put(order == ByteOrder.BIG_ENDIAN ? (byte) 'M' : (byte) 'I');
+        bb.put(order == ByteOrder.BIG_ENDIAN ? (byte) 'M' : (byte) 'I');
+        bb.putShort((short) 42);
+        bb.putInt(8);
+        bb.putShort((short) 2);
+        putShortEntry(bb, 259, compression);
+        putShortEntry(bb, 277, samplesPerPixel);
+        bb.putInt(0);
+        return bb.array();
+    }
+
+    private void putShortEntry(ByteBuffer bb, int tag, int value) {
+        bb.putShort((short) tag);
+        bb.putShort((short) 3); // SHORT
+        bb.putInt(1);
+        bb.putShort((short) value);
+        bb.putShort((short) 0);
+    }
+
+}
@@ -0,0 +1,32 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+public class GeomUtilTest {
+
+    @Test
+    public void testGetPointsAtDistances() {
+        // 100m east, then 100m north
+        double[] line = { 0, 0, 100, 0, 100, 100 };
+        double[] distances = { 0, 50, 100, 150, 200, 250 };
+        double[] expected = {
+                0, 0,
+                50, 0,
+                100, 0,
+                100, 50,
+                100, 100,
+                100, 100
+        };
+        assertArrayEquals(expected, GeomUtil.getPointsAtDistances(line, distances), 1e-9);
+    }
+
+    @Test
+    public void zeroLengthSegmentsAreSkipped() {
+        double[] line = { 0, 0, 0, 0, 10, 0 };
+        double[] expected = { 0, 0, 5, 0, 10, 0 };
+        assertArrayEquals(expected, GeomUtil.getPointsAtDistances(line, new double[] { 0, 5, 10 }), 1e-9);
+    }
+
+}
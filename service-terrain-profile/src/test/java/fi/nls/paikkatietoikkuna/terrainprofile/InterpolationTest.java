@@ -0,0 +1,71 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class InterpolationTest {
+
+    private static final float NODATA = -9999.0f;
+
+    /**
+     * 4x4 raster where value = x * x + 10 * y
+     */
+    private static DemTile createQuadraticTile() {
+        float[] values = new float[16];
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                values[y * 4 + x] = x * x + 10 * y;
+            }
+        }
+        return new DemTile(4, 4, values);
+    }
+
+    @Test
+    public void fromStringIsCaseInsensitive() {
+        assertEquals(Interpolation.NEAREST, Interpolation.fromString("nearest"));
+        assertEquals(Interpolation.BILINEAR, Interpolation.fromString("Bilinear"));
+        assertEquals(Interpolation.BICUBIC, Interpolation.fromString("BICUBIC"));
+        assertNull(Interpolation.fromString("foo"));
+    }
+
+    @Test
+    public void nearestRoundsToClosestCell() {
+        DemTile tile = createQuadraticTile();
+        assertEquals(4.0f, Interpolation.NEAREST.sample(tile, 1.6, 0.4, NODATA), 0.0f);
+        assertEquals(19.0f, Interpolation.NEAREST.sample(tile, 2.9, 1.2, NODATA), 0.0f);
+    }
+
+    @Test
+    public void bilinearInterpolatesBetweenFourCells() {
+        DemTile tile = createQuadraticTile();
+        // x: (1 + 4) / 2, y: 10 * 0.5
+        assertEquals(7.5f, Interpolation.BILINEAR.sample(tile, 1.5, 0.5, NODATA), 1e-5f);
+        // Exactly at cell centers interpolation must return the cell value
+        assertEquals(24.0f, Interpolation.BILINEAR.sample(tile, 2.0, 2.0, NODATA), 1e-5f);
+    }
+
+    @Test
+    public void bicubicFollowsCurvature() {
+        DemTile tile = createQuadraticTile();
+        // Catmull-Rom reproduces quadratics exactly: 1.5^2 + 10 * 1
+        assertEquals(12.25f, Interpolation.BICUBIC.sample(tile, 1.5, 1.0, NODATA), 1e-5f);
+        assertEquals(24.0f, Interpolation.BICUBIC.sample(tile, 2.0, 2.0, NODATA), 1e-5f);
+    }
+
+    @Test
+    public void outsideCellsAreClampedToTheEdge() {
+        DemTile tile = createQuadraticTile();
+        assertEquals(30.0f, Interpolation.BILINEAR.sample(tile, -0.5, 3.5, NODATA), 1e-5f);
+    }
+
+    @Test
+    public void whenNeighbourIsNoDataNearestIsUsed() {
+        float[] values = { 1.0f, NODATA, 3.0f, 4.0f };
+        DemTile tile = new DemTile(2, 2, values);
+        assertEquals(1.0f, Interpolation.BILINEAR.sample(tile, 0.4, 0.4, NODATA), 0.0f);
+        assertEquals(4.0f, Interpolation.BICUBIC.sample(tile, 0.6, 0.6, NODATA), 0.0f);
+    }
+
+}
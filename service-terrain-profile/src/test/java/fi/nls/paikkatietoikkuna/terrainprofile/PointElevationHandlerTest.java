@@ -0,0 +1,145 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fi.nls.oskari.control.ActionParameters;
+import fi.nls.oskari.control.ActionParamsException;
+import fi.nls.test.control.MockServletOutputStream;
+
+public class PointElevationHandlerTest {
+
+    /**
+     * 1m cells, altitude = e + n, counts the setAltitudes calls (one per tile)
+     */
+    private static class CountingSource implements ElevationSource {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        public double getOriginEast() { return 0.0; }
+        public double getOriginNorth() { return 0.0; }
+        public double getOffsetVectorX() { return 1.0; }
+        public double getOffsetVectorY() { return -1.0; }
+        public float getNoData() { return -9999.0f; }
+
+        public void setAltitudes(int tileX, int tileY, TerrainProfile points, int[] indices, int from, int to,
+                int tileSize, double scaleFactor, Interpolation interpolation) {
+            calls.incrementAndGet();
+            for (int i = from; i < to; i++) {
+                int j = indices[i];
+                points.setAltitude(j, (float) (points.getE(j) + points.getN(j)));
+            }
+        }
+    }
+
+    private List<?> request(CountingSource source, String... keyValues) throws Exception {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        for (int i = 0; i < keyValues.length; i += 2) {
+            when(request.getParameter(keyValues[i])).thenReturn(keyValues[i + 1]);
+        }
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(new MockServletOutputStream(baos));
+        ActionParameters params = new ActionParameters();
+        params.setRequest(request);
+        params.setResponse(response);
+
+        PointElevationHandler handler = new PointElevationHandler(new TerrainProfileService(source, null, 0L));
+        handler.init();
+        handler.handleAction(params);
+
+        Map<?, ?> json = new ObjectMapper().readValue(baos.toByteArray(), Map.class);
+        assertEquals("MultiPoint", json.get("type"));
+        return (List<?>) json.get("coordinates");
+    }
+
+    @Test
+    public void pointsAreGroupedByTile() throws Exception {
+        // Tiles are 1024 cells, points alternate between two tiles
+        StringBuilder sb = new StringBuilder("[");
+        int n = 500;
+        for (int i = 0; i < n; i++) {
+            double e = (i % 2 == 0 ? 10 : 1100) + i;
+            sb.append(i > 0 ? "," : "").append('[').append(e).append(",-100]");
+        }
+        sb.append(']');
+
+        CountingSource source = new CountingSource();
+        List<?> coordinates = request(source, "points", sb.toString());
+        assertEquals(2, source.calls.get());
+        assertEquals(n, coordinates.size());
+        for (int i = 0; i < n; i++) {
+            List<?> point = (List<?>) coordinates.get(i);
+            double e = (i % 2 == 0 ? 10 : 1100) + i;
+            assertEquals(e, ((Number) point.get(0)).doubleValue(), 0.0);
+            assertEquals(e - 100, ((Number) point.get(2)).doubleValue(), 0.0);
+        }
+    }
+
+    @Test
+    public void acceptsMultiPoint() throws Exception {
+        List<?> coordinates = request(new CountingSource(),
+                "points", "{\"type\":\"MultiPoint\",\"coordinates\":[[5,-1],[7,-2]]}");
+        assertEquals(2, coordinates.size());
+        assertEquals(4.0, ((Number) ((List<?>) coordinates.get(0)).get(2)).doubleValue(), 0.0);
+        assertEquals(5.0, ((Number) ((List<?>) coordinates.get(1)).get(2)).doubleValue(), 0.0);
+    }
+
+    @Test
+    public void pointsOnTooManyTilesAreRejected() throws Exception {
+        // 33 points 1024 cells apart, each on a tile of its own
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 33; i++) {
+            sb.append(i > 0 ? "," : "").append('[').append(10 + i * 1024).append(",-100]");
+        }
+        sb.append(']');
+
+        CountingSource source = new CountingSource();
+        try {
+            request(source, "points", sb.toString());
+            fail("Expected ActionParamsException");
+        } catch (ActionParamsException expected) {
+            // Too many tiles
+        }
+        assertEquals(0, source.calls.get());
+
+        String first32 = sb.substring(0, sb.lastIndexOf(",[")) + "]";
+        assertEquals(32, request(source, "points", first32).size());
+        assertEquals(32, source.calls.get());
+    }
+
+    @Test
+    public void pointBatchesAreNotCountedAsProfiles() throws Exception {
+        TerrainProfileMetrics metrics = TerrainProfileMetrics.get();
+        long profiles = metrics.getRequests(TerrainProfileMetrics.RequestType.PROFILE);
+        long batches = metrics.getRequests(TerrainProfileMetrics.RequestType.POINTS);
+        request(new CountingSource(), "points", "[[5,-1],[7,-2]]");
+        assertEquals(profiles, metrics.getRequests(TerrainProfileMetrics.RequestType.PROFILE));
+        assertEquals(batches + 1, metrics.getRequests(TerrainProfileMetrics.RequestType.POINTS));
+    }
+
+    @Test(expected = ActionParamsException.class)
+    public void invalidScaleFactorThrowsActionParamsException() throws Exception {
+        request(new CountingSource(), "points", "[[5,-1]]", "scaleFactor", "0.3");
+    }
+
+    @Test(expected = ActionParamsException.class)
+    public void invalidPointsThrowsActionParamsException() throws Exception {
+        request(new CountingSource(), "points", "{\"type\":\"Point\",\"coordinates\":[5,-1]}");
+    }
+
+}
@@ -0,0 +1,76 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+public class PointParserTest {
+
+    private final JsonFactory jf = new JsonFactory();
+
+    private double[] parse(String json, int maxPoints) throws IOException {
+        try (JsonParser parser = jf.createParser(json)) {
+            return PointParser.parse(parser, maxPoints);
+        }
+    }
+
+    @Test
+    public void parsesMultiPoint() throws IOException {
+        double[] expected = { 1.0, 2.0, 3.5, 4.5 };
+        assertArrayEquals(expected, parse("{\"type\":\"MultiPoint\",\"coordinates\":[[1,2],[3.5,4.5]]}", 10), 0.0);
+        // Member order doesn't matter
+        assertArrayEquals(expected, parse("{\"coordinates\":[[1,2],[3.5,4.5]],\"type\":\"MultiPoint\"}", 10), 0.0);
+    }
+
+    @Test
+    public void parsesFeature() throws IOException {
+        String json = "{\"type\":\"Feature\",\"properties\":{\"name\":\"a\",\"tags\":[1,2]},"
+                + "\"geometry\":{\"type\":\"MultiPoint\",\"coordinates\":[[1,2,100.5],[3,4,null]]}}";
+        assertArrayEquals(new double[] { 1, 2, 3, 4 }, parse(json, 10), 0.0);
+    }
+
+    @Test
+    public void parsesArrayOfPositionsFromStream() throws IOException {
+        StringBuilder sb = new StringBuilder("[");
+        int n = 1000;
+        double[] expected = new double[n * 2];
+        for (int i = 0; i < n; i++) {
+            sb.append(i > 0 ? "," : "").append('[').append(i).append(',').append(-i).append(']');
+            expected[i * 2] = i;
+            expected[i * 2 + 1] = -i;
+        }
+        sb.append(']');
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        try (JsonParser parser = jf.createParser(new ByteArrayInputStream(bytes))) {
+            assertArrayEquals(expected, PointParser.parse(parser, n), 0.0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyPointsThrows() throws IOException {
+        parse("[[1,2],[3,4],[5,6]]", 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void otherGeometryTypeThrows() throws IOException {
+        parse("{\"type\":\"LineString\",\"coordinates\":[[1,2],[3,4]]}", 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyThrows() throws IOException {
+        parse("{\"type\":\"MultiPoint\",\"coordinates\":[]}", 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingOrdinateThrows() throws IOException {
+        parse("[[1]]", 10);
+    }
+
+}
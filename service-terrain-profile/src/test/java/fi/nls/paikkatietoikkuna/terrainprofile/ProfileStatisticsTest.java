@@ -0,0 +1,97 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ProfileStatisticsTest {
+
+    private static final float NODATA = -9999.0f;
+
+    private static TerrainProfile profile(double[] distances, float[] altitudes) {
+        TerrainProfile profile = new TerrainProfile(distances.length);
+        for (int i = 0; i < distances.length; i++) {
+            profile.setPoint(i, distances[i], 0.0, distances[i]);
+            profile.setAltitude(i, altitudes[i]);
+        }
+        return profile;
+    }
+
+    @Test
+    public void ascentDescentAndRange() {
+        TerrainProfile p = profile(
+                new double[] { 0, 100, 200, 300, 400 },
+                new float[] { 100, 110, 105, 130, 120 });
+        ProfileStatistics stats = ProfileStatistics.compute(p, NODATA);
+        assertEquals(35.0, stats.getAscent(), 1e-9);
+        assertEquals(15.0, stats.getDescent(), 1e-9);
+        assertEquals(100.0f, stats.getMin(), 0.0f);
+        assertEquals(130.0f, stats.getMax(), 0.0f);
+        assertEquals(0, stats.getNumNoData());
+    }
+
+    @Test
+    public void slopeHistogramIsWeightedByLength() {
+        // 1%, 10%, 30%, 0% (zero length segment is ignored)
+        TerrainProfile p = profile(
+                new double[] { 0, 200, 300, 400, 400 },
+                new float[] { 0, 2, 12, 42, 50 });
+        double[] histogram = ProfileStatistics.compute(p, NODATA).getSlopeHistogram();
+        assertEquals(ProfileStatistics.SLOPE_CLASSES.length + 1, histogram.length);
+        assertEquals(200.0, histogram[0], 1e-9);
+        assertEquals(100.0, histogram[3], 1e-9);
+        assertEquals(100.0, histogram[5], 1e-9);
+        double total = 0;
+        for (double length : histogram) {
+            total += length;
+        }
+        assertEquals(400.0, total, 1e-9);
+    }
+
+    @Test
+    public void noDataIsSkipped() {
+        TerrainProfile p = profile(
+                new double[] { 0, 100, 200, 300 },
+                new float[] { NODATA, 100, NODATA, 120 });
+        ProfileStatistics stats = ProfileStatistics.compute(p, NODATA);
+        assertEquals(2, stats.getNumNoData());
+        assertEquals(100.0f, stats.getMin(), 0.0f);
+        assertEquals(120.0f, stats.getMax(), 0.0f);
+        // Ascent bridges the gap, the histogram doesn't
+        assertEquals(20.0, stats.getAscent(), 1e-9);
+        for (double length : stats.getSlopeHistogram()) {
+            assertEquals(0.0, length, 0.0);
+        }
+    }
+
+    @Test
+    public void allNoData() {
+        TerrainProfile p = profile(new double[] { 0, 100 }, new float[] { Float.NaN, NODATA });
+        ProfileStatistics stats = ProfileStatistics.compute(p, NODATA);
+        assertEquals(2, stats.getNumNoData());
+        assertTrue(Float.isNaN(stats.getMin()));
+        assertTrue(Float.isNaN(stats.getMax()));
+        assertEquals(0.0, stats.getAscent(), 0.0);
+    }
+
+    @Test
+    public void updateResetsPreviousValues() {
+        ProfileStatistics stats = ProfileStatistics.compute(
+                profile(new double[] { 0, 100 }, new float[] { 0, 50 }), NODATA);
+        stats.update(profile(new double[] { 0, 100 }, new float[] { 10, 10 }), NODATA);
+        assertEquals(0.0, stats.getAscent(), 0.0);
+        assertEquals(10.0f, stats.getMin(), 0.0f);
+        assertEquals(100.0, stats.getSlopeHistogram()[0], 0.0);
+        assertEquals(0.0, stats.getSlopeHistogram()[5], 0.0);
+    }
+
+    @Test
+    public void slopeClassBoundsAreExclusive() {
+        assertEquals(0, ProfileStatistics.getSlopeClass(0.0));
+        assertEquals(1, ProfileStatistics.getSlopeClass(2.0));
+        assertEquals(4, ProfileStatistics.getSlopeClass(24.9));
+        assertEquals(5, ProfileStatistics.getSlopeClass(25.0));
+    }
+
+}
@@ -0,0 +1,155 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fi.nls.oskari.service.ServiceException;
+
+public class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    @Test
+    public void concurrentCallersShareOneLoad() throws Exception {
+        SingleFlight<String, Object> sf = new SingleFlight<>();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Object value = new Object();
+
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                results.add(executor.submit(() -> sf.get("key", () -> {
+                    loads.incrementAndGet();
+                    await(release);
+                    return value;
+                })));
+            }
+            // Wait until the first caller is loading and the rest have (most likely) joined it
+            while (sf.getInFlightCount() == 0) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<Object> result : results) {
+                assertSame(value, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(0, sf.getInFlightCount());
+    }
+
+    @Test
+    public void failureIsSharedButNotCached() throws Exception {
+        SingleFlight<String, Object> sf = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> first = executor.submit(() -> sf.get("key", () -> {
+                await(release);
+                throw new ServiceException("WCS is down");
+            }));
+            while (sf.getInFlightCount() == 0) {
+                Thread.sleep(1);
+            }
+            Future<Object> second = executor.submit(() -> sf.get("key", () -> {
+                fail("Should have joined the first load");
+                return null;
+            }));
+            Thread.sleep(100);
+            release.countDown();
+            assertFailed(first);
+            assertFailed(second);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Object value = new Object();
+        assertSame(value, sf.get("key", () -> value));
+    }
+
+    @Test
+    public void errorIsSharedWithTheWaitingCallers() throws Exception {
+        SingleFlight<String, Object> sf = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> first = executor.submit(() -> sf.get("key", () -> {
+                await(release);
+                throw new OutOfMemoryError("Java heap space");
+            }));
+            while (sf.getInFlightCount() == 0) {
+                Thread.sleep(1);
+            }
+            Future<Object> second = executor.submit(() -> sf.get("key", () -> {
+                fail("Should have joined the first load");
+                return null;
+            }));
+            Thread.sleep(100);
+            release.countDown();
+            try {
+                first.get(5, TimeUnit.SECONDS);
+                fail("Expected failure");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof OutOfMemoryError);
+            }
+            try {
+                second.get(5, TimeUnit.SECONDS);
+                fail("Expected failure");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ServiceException);
+                assertTrue(e.getCause().getCause() instanceof OutOfMemoryError);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, sf.getInFlightCount());
+    }
+
+    @Test
+    public void differentKeysAreLoadedSeparately() throws ServiceException {
+        SingleFlight<String, String> sf = new SingleFlight<>();
+        assertEquals("a", sf.get("a", () -> "a"));
+        assertEquals("b", sf.get("b", () -> "b"));
+    }
+
+    private static void await(CountDownLatch latch) throws ServiceException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new ServiceException("Interrupted", e);
+        }
+    }
+
+    private void assertFailed(Future<Object> f) throws InterruptedException {
+        try {
+            f.get(5, TimeUnit.SECONDS);
+            fail("Expected failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServiceException);
+            assertEquals("WCS is down", e.getCause().getMessage());
+        } catch (Exception e) {
+            fail(e.toString());
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Creates tiled float32 TIFFs with the same layout as the GetCoverage
+ * responses of the DEM coverage (see GeoTIFFFixtures of the benchmarks)
+ */
+public class TIFFFixtures {
+
+    private static final int TAG_IMAGE_WIDTH = 256;
+    private static final int TAG_IMAGE_LENGTH = 257;
+    private static final int TAG_BITS_PER_SAMPLE = 258;
+    private static final int TAG_COMPRESSION = 259;
+    private static final int TAG_PHOTOMETRIC = 262;
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+    private static final int TAG_PLANAR_CONFIG = 284;
+    private static final int TAG_TILE_WIDTH = 322;
+    private static final int TAG_TILE_LENGTH = 323;
+    private static final int TAG_TILE_OFFSETS = 324;
+    private static final int TAG_TILE_BYTE_COUNTS = 325;
+    private static final int TAG_SAMPLE_FORMAT = 339;
+
+    private static final short TYPE_SHORT = 3;
+    private static final short TYPE_LONG = 4;
+
+    private static final int NUM_ENTRIES = 12;
+
+    /**
+     * Write the values (row by row) as an uncompressed, little-endian,
+     * single band float32 TIFF with tileSize x tileSize tiles
+     */
+    public static byte[] createTIFF(float[] values, int width, int height, int tileSize) {
+        return createTIFF(values, width, height, tileSize, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static byte[] createTIFF(float[] values, int width, int height, int tileSize, ByteOrder order) {
+        int tilesAcross = (width + tileSize - 1) / tileSize;
+        int tilesDown = (height + tileSize - 1) / tileSize;
+        int numTiles = tilesAcross * tilesDown;
+        int tileBytes = tileSize * tileSize * 4;
+
+        int ifdOffset = 8;
+        int ifdSize = 2 + NUM_ENTRIES * 12 + 4;
+        int offsetsOffset = ifdOffset + ifdSize;
+        int countsOffset = offsetsOffset + numTiles * 4;
+        int dataOffset = countsOffset + numTiles * 4;
+
+        ByteBuffer bb = ByteBuffer.allocate(dataOffset + numTiles * tileBytes)
+                .order(order);
+        byte mark = order == ByteOrder.BIG_ENDIAN ? (byte) 'M' : (byte) 'I';
+        bb.put(mark).put(mark).putShort((short) 42).putInt(ifdOffset);
+
+        bb.position(ifdOffset);
+        bb.putShort((short) NUM_ENTRIES);
+        putEntry(bb, TAG_IMAGE_WIDTH, TYPE_LONG, 1, width);
+        putEntry(bb, TAG_IMAGE_LENGTH, TYPE_LONG, 1, height);
+        putEntry(bb, TAG_BITS_PER_SAMPLE, TYPE_SHORT, 1, 32);
+        putEntry(bb, TAG_COMPRESSION, TYPE_SHORT, 1, 1);
+        putEntry(bb, TAG_PHOTOMETRIC, TYPE_SHORT, 1, 1);
+        putEntry(bb, TAG_SAMPLES_PER_PIXEL, TYPE_SHORT, 1, 1);
+        putEntry(bb, TAG_PLANAR_CONFIG, TYPE_SHORT, 1, 1);
+        putEntry(bb, TAG_TILE_WIDTH, TYPE_LONG, 1, tileSize);
+        putEntry(bb, TAG_TILE_LENGTH, TYPE_LONG, 1, tileSize);
+        if (numTiles == 1) {
+            putEntry(bb, TAG_TILE_OFFSETS, TYPE_LONG, 1, dataOffset);
+            putEntry(bb, TAG_TILE_BYTE_COUNTS, TYPE_LONG, 1, tileBytes);
+        } else {
+            putEntry(bb, TAG_TILE_OFFSETS, TYPE_LONG, numTiles, offsetsOffset);
+            putEntry(bb, TAG_TILE_BYTE_COUNTS, TYPE_LONG, numTiles, countsOffset);
+        }
+        putEntry(bb, TAG_SAMPLE_FORMAT, TYPE_SHORT, 1, 3);
+        // No more IFDs
+        bb.putInt(0);
+
+        for (int t = 0; t < numTiles; t++) {
+            bb.putInt(offsetsOffset + t * 4, dataOffset + t * tileBytes);
+            bb.putInt(countsOffset + t * 4, tileBytes);
+        }
+
+        for (int tileY = 0; tileY < tilesDown; tileY++) {
+            for (int tileX = 0; tileX < tilesAcross; tileX++) {
+                int pos = dataOffset + (tileY * tilesAcross + tileX) * tileBytes;
+                for (int y = 0; y < tileSize; y++) {
+                    int row = tileY * tileSize + y;
+                    for (int x = 0; x < tileSize; x++) {
+                        int col = tileX * tileSize + x;
+                        // Partial tiles at the right and bottom edges are padded with zeroes
+                        float v = row < height && col < width ? values[row * width + col] : 0.0f;
+                        bb.putFloat(pos, v);
+                        pos += 4;
+                    }
+                }
+            }
+        }
+        return bb.array();
+    }
+
+    private static void putEntry(ByteBuffer bb, int tag, short type, int count, int value) {
+        bb.putShort((short) tag);
+        bb.putShort(type);
+        bb.putInt(count);
+        if (type == TYPE_SHORT && count == 1) {
+            // Left-justified within the 4 byte value field
+            bb.putShort((short) value);
+            bb.putShort((short) 0);
+        } else {
+            bb.putInt(value);
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import fi.nls.oskari.service.ServiceException;
+
+public class TerrainProfileBatchTest {
+
+    /**
+     * 100m cells so that the tiles are 64 cells (6400m) wide,
+     * altitude of a point is the order it was handed to the source
+     */
+    private static class RecordingSource implements ElevationSource {
+
+        private final List<String> tiles = new ArrayList<>();
+        private int count;
+
+        public double getOriginEast() { return 0.0; }
+        public double getOriginNorth() { return 0.0; }
+        public double getOffsetVectorX() { return 100.0; }
+        public double getOffsetVectorY() { return -100.0; }
+        public float getNoData() { return Float.NaN; }
+
+        public void setAltitudes(int tileX, int tileY, TerrainProfile points, int[] indices, int from, int to,
+                int tileSize, double scaleFactor, Interpolation interpolation) throws ServiceException {
+            tiles.add(tileX + "_" + tileY);
+            for (int i = from; i < to; i++) {
+                assertEquals(tileX, points.getTileX(indices[i]));
+                assertEquals(tileY, points.getTileY(indices[i]));
+                points.setAltitude(indices[i], count++);
+            }
+        }
+    }
+
+    @Test
+    public void pointsAreGroupedByTileInTheOrderAlongTheLine() throws ServiceException {
+        RecordingSource source = new RecordingSource();
+        TerrainProfileService tps = new TerrainProfileService(source, null, 0L);
+        // Tile (0,0) -> (1,0) -> (0,0)
+        double[] line = { 1000, -1000, 7000, -1000, 2000, -1000 };
+        TerrainProfile profile = tps.getTerrainProfile(line, 0, 1.0);
+
+        assertEquals(Arrays.asList("0_0", "1_0"), source.tiles);
+        assertEquals(3, profile.size());
+        assertEquals(0.0f, profile.getAltitude(0), 0.0f);
+        assertEquals(2.0f, profile.getAltitude(1), 0.0f);
+        assertEquals(1.0f, profile.getAltitude(2), 0.0f);
+        // Output keeps the order along the line
+        assertEquals(0.0, profile.getDistFromStart(0), 0.0);
+        assertEquals(6000.0, profile.getDistFromStart(1), 0.0);
+        assertEquals(11000.0, profile.getDistFromStart(2), 0.0);
+    }
+
+    @Test
+    public void profilesWithDifferentInterpolationAreFetchedSeparately() throws ServiceException {
+        RecordingSource source = new RecordingSource();
+        TerrainProfileService tps = new TerrainProfileService(source, null, 0L);
+        double[] line = { 1000, -1000, 2000, -1000 };
+        List<TerrainProfile> profiles = tps.getTerrainProfiles(Arrays.asList(
+                new TerrainProfileRequest(line, 0, 1.0, Interpolation.NEAREST),
+                new TerrainProfileRequest(line, 0, 1.0, Interpolation.BILINEAR),
+                new TerrainProfileRequest(line, 0, 1.0, Interpolation.NEAREST)));
+
+        assertEquals(Arrays.asList("0_0", "0_0"), source.tiles);
+        assertEquals(3, profiles.size());
+        for (TerrainProfile profile : profiles) {
+            assertEquals(2, profile.size());
+            assertEquals(1000.0, profile.getDistFromStart(1), 0.0);
+        }
+        // The first and the third profile share the first request
+        assertEquals(0.0f, profiles.get(0).getAltitude(0), 0.0f);
+        assertEquals(2.0f, profiles.get(2).getAltitude(0), 0.0f);
+        assertEquals(4.0f, profiles.get(1).getAltitude(0), 0.0f);
+    }
+
+}
@@ -0,0 +1,122 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.nls.oskari.service.ServiceException;
+
+public class TerrainProfileConcurrencyTest {
+
+    private static final int NUM_TILES = 4;
+    // 100m cells, 64 cells per tile, so each tile is 6400m wide
+    private static final double[] LINE = { 100, -100, NUM_TILES * 6400 - 100, -100 };
+
+    /**
+     * Altitude of a point is its gridX. Tile 0 waits until all the other
+     * tiles are done, the behaviour of tile 1 is set by the test.
+     */
+    private static class BlockingSource implements ElevationSource {
+
+        private final CountDownLatch othersDone = new CountDownLatch(NUM_TILES - 1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+        private boolean blockTile1;
+        private boolean failTile1;
+
+        public double getOriginEast() { return 0.0; }
+        public double getOriginNorth() { return 0.0; }
+        public double getOffsetVectorX() { return 100.0; }
+        public double getOffsetVectorY() { return -100.0; }
+        public float getNoData() { return Float.NaN; }
+
+        public void setAltitudes(int tileX, int tileY, TerrainProfile points, int[] indices, int from, int to,
+                int tileSize, double scaleFactor, Interpolation interpolation) throws ServiceException {
+            try {
+                if (tileX == 0) {
+                    othersDone.await(10, TimeUnit.SECONDS);
+                } else if (tileX == 1 && failTile1) {
+                    throw new ServiceException("Tile 1 failed");
+                } else if (tileX == 1 && blockTile1) {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new ServiceException("Interrupted", e);
+            }
+            for (int i = from; i < to; i++) {
+                points.setAltitude(indices[i], points.getGridX(indices[i]));
+            }
+            if (tileX != 0) {
+                othersDone.countDown();
+            }
+        }
+    }
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(NUM_TILES);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void altitudesAreInTheOrderAlongTheLine() throws ServiceException {
+        BlockingSource source = new BlockingSource();
+        TerrainProfileService tps = new TerrainProfileService(source, executor, 10000L);
+        // Tile 0 completes last
+        TerrainProfile profile = tps.getTerrainProfile(LINE, 100, 1.0);
+
+        assertEquals(100, profile.size());
+        for (int i = 0; i < profile.size(); i++) {
+            assertEquals(profile.getGridX(i), profile.getAltitude(i), 0.0f);
+            if (i > 0) {
+                assertTrue(profile.getAltitude(i) >= profile.getAltitude(i - 1));
+            }
+        }
+    }
+
+    @Test
+    public void failedTileFailsTheProfileAndCancelsTheRest() throws InterruptedException {
+        BlockingSource source = new BlockingSource();
+        source.failTile1 = true;
+        TerrainProfileService tps = new TerrainProfileService(source, executor, 10000L);
+        try {
+            tps.getTerrainProfile(LINE, 100, 1.0);
+            fail("Should throw");
+        } catch (ServiceException e) {
+            assertEquals("Tile 1 failed", e.getMessage());
+        }
+        // Tile 0 waits for tile 1 that never completes, it's interrupted by the cancel
+        assertTrue(source.interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void profileFailsWhenTheDeadlineExpires() throws InterruptedException {
+        BlockingSource source = new BlockingSource();
+        source.blockTile1 = true;
+        TerrainProfileService tps = new TerrainProfileService(source, executor, 100L);
+        try {
+            tps.getTerrainProfile(LINE, 100, 1.0);
+            fail("Should throw");
+        } catch (ServiceException e) {
+            assertEquals("Timed out waiting for data from WCS", e.getMessage());
+        }
+        assertTrue(source.interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+}
@@ -1,9 +1,11 @@
 package fi.nls.paikkatietoikkuna.terrainprofile;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.fasterxml.jackson.core.JsonFactory;
@@ -15,18 +17,23 @@ import fi.nls.oskari.control.ActionParameters;
 import fi.nls.oskari.control.ActionParamsException;
 import fi.nls.oskari.service.ServiceException;
 import fi.nls.test.control.MockServletOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.parsers.ParserConfigurationException;
 import org.geojson.Feature;
+import org.geojson.FeatureCollection;
 import org.geojson.LineString;
 import org.geojson.LngLatAlt;
 import org.geojson.MultiPoint;
+import org.geojson.Point;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -71,6 +78,32 @@ public class TerrainProfileHandlerTest {
         }
     }
 
+    @Test
+    public void whenRoutesContainNonLineStringThrowsActionParamsException() throws JsonProcessingException, ActionException {
+        LineString line = new LineString();
+        line.add(new LngLatAlt(100, 100));
+        line.add(new LngLatAlt(200, 100));
+        Feature route = new Feature();
+        route.setGeometry(line);
+        Feature point = new Feature();
+        point.setGeometry(new Point(100, 100));
+        FeatureCollection fc = new FeatureCollection();
+        fc.add(route);
+        fc.add(point);
+
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameter(TerrainProfileHandler.PARAM_ROUTES)).thenReturn(om.writeValueAsString(fc));
+        ActionParameters params = new ActionParameters();
+        params.setRequest(request);
+
+        try {
+            handler.handleAction(params);
+            fail();
+        } catch (ActionParamsException e) {
+            assertEquals("Invalid input - expected LineString geometry", e.getMessage());
+        }
+    }
+
     @Test
     public void whenRouteParameterIsNotGeoJSONFeatureThrowsActionParamsException() throws JsonProcessingException, ActionException {
         LineString line = new LineString();
@@ -185,23 +218,56 @@ public class TerrainProfileHandlerTest {
         new TerrainProfileHandler(om, tps).handleAction(params);
     }
 
+    @Test
+    public void whenClientAcceptsGzipResponseIsCompressed() throws IOException, ActionException {
+        TerrainProfile p = new TerrainProfile(1);
+        p.setPoint(0, 500000.0, 6822000.0, 0.0);
+        p.setAltitude(0, 123.0f);
+
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("Accept-Encoding")).thenReturn("deflate, gzip;q=0.8");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new MockServletOutputStream(baos));
+        ActionParameters params = new ActionParameters();
+        params.setRequest(request);
+        params.setResponse(response);
+
+        handler.writeResponse(params, p);
+
+        verify(response).setHeader("Content-Encoding", "gzip");
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            Feature feature = om.readValue(in, Feature.class);
+            MultiPoint mp = (MultiPoint) feature.getGeometry();
+            assertEquals(123.0, mp.getCoordinates().get(0).getAltitude(), 0.0);
+        }
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        assertFalse(TerrainProfileHandler.acceptsGzip(request));
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate, br");
+        assertTrue(TerrainProfileHandler.acceptsGzip(request));
+        when(request.getHeader("Accept-Encoding")).thenReturn("br;q=1.0, GZIP;q=0.5");
+        assertTrue(TerrainProfileHandler.acceptsGzip(request));
+        when(request.getHeader("Accept-Encoding")).thenReturn("gzip;q=0, identity");
+        assertFalse(TerrainProfileHandler.acceptsGzip(request));
+        when(request.getHeader("Accept-Encoding")).thenReturn("identity");
+        assertFalse(TerrainProfileHandler.acceptsGzip(request));
+    }
+
     @Test
     public void testWriteMultiPointFeature() throws IOException {
-        DataPoint p1 = new DataPoint();
-        p1.setE(0.0);
-        p1.setN(0.0);
-        p1.setAltitude(300.0f);
-        p1.setDistFromStart(0.0);
-
-        DataPoint p2 = new DataPoint();
-        p2.setE(100.0);
-        p2.setN(0.0);
-        p2.setAltitude(400.0f);
-        p2.setDistFromStart(100.0);
+        TerrainProfile profile = new TerrainProfile(2);
+        profile.setPoint(0, 0.0, 0.0, 0.0);
+        profile.setAltitude(0, 300.0f);
+        profile.setPoint(1, 100.0, 0.0, 100.0);
+        profile.setAltitude(1, 400.0f);
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try (JsonGenerator json = new JsonFactory().createGenerator(baos)) {
-            TerrainProfileHandler.writeMultiPointFeature(Arrays.asList(p1, p2), json, Float.NaN);
+            TerrainProfileHandler.writeMultiPointFeature(profile, json, Float.NaN);
         }
 
         ObjectMapper om = new ObjectMapper();
@@ -230,4 +296,49 @@ public class TerrainProfileHandlerTest {
         assertEquals(100.0, distFromStart.get(1).doubleValue(), 0.0);
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWriteStatisticsOnly() throws IOException {
+        TerrainProfile profile = new TerrainProfile(3);
+        profile.setPoint(0, 0.0, 0.0, 0.0);
+        profile.setAltitude(0, 300.0f);
+        profile.setPoint(1, 100.0, 0.0, 100.0);
+        profile.setAltitude(1, 310.0f);
+        profile.setPoint(2, 200.0, 0.0, 200.0);
+        profile.setAltitude(2, Float.NaN);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (JsonGenerator json = new JsonFactory().createGenerator(baos)) {
+            TerrainProfileHandler.writeMultiPointFeature(profile, json, Float.NaN, false, true);
+        }
+
+        Feature feature = new ObjectMapper().readValue(baos.toByteArray(), Feature.class);
+        assertEquals(null, feature.getGeometry());
+        assertEquals(null, feature.getProperty(TerrainProfileHandler.JSON_PROPERTY_DISTANCE_FROM_START));
+        assertEquals(3, (int) (Integer) feature.getProperty(TerrainProfileHandler.JSON_PROPERTY_NUM_POINTS));
+
+        Map<String, Object> stats = feature.getProperty(TerrainProfileHandler.JSON_PROPERTY_STATISTICS);
+        assertEquals(10.0, ((Number) stats.get("ascent")).doubleValue(), 0.0);
+        assertEquals(0.0, ((Number) stats.get("descent")).doubleValue(), 0.0);
+        assertEquals(300.0, ((Number) stats.get("min")).doubleValue(), 0.0);
+        assertEquals(310.0, ((Number) stats.get("max")).doubleValue(), 0.0);
+        assertEquals(1, ((Number) stats.get("noDataPoints")).intValue());
+        List<Number> histogram = (List<Number>) stats.get("slopeHistogram");
+        assertEquals(ProfileStatistics.SLOPE_CLASSES.length + 1, histogram.size());
+        // 10% slope over 100m
+        assertEquals(100.0, histogram.get(3).doubleValue(), 0.0);
+    }
+
+    @Test(expected = ActionParamsException.class)
+    public void statisticsWithBinaryFormatThrowsActionParamsException() throws ActionException {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameter(TerrainProfileHandler.PARAM_ROUTE)).thenReturn("{}");
+        when(request.getParameter(TerrainProfileHandler.PARAM_FORMAT)).thenReturn(TerrainProfileHandler.FORMAT_BINARY);
+        when(request.getParameter(TerrainProfileHandler.PARAM_STATISTICS)).thenReturn("only");
+        ActionParameters params = new ActionParameters();
+        params.setRequest(request);
+        params.setResponse(mock(HttpServletResponse.class));
+        handler.writeResponse(params, new TerrainProfile(0));
+    }
+
 }
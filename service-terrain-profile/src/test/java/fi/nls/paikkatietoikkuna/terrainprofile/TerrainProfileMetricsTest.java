@@ -0,0 +1,143 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fi.nls.oskari.service.ServiceException;
+import fi.nls.paikkatietoikkuna.http.PooledHttpClient;
+import fi.nls.paikkatietoikkuna.terrainprofile.TerrainProfileMetrics.RequestType;
+import fi.nls.paikkatietoikkuna.terrainprofile.TerrainProfileMetrics.Stage;
+
+public class TerrainProfileMetricsTest {
+
+    private static class FlatSource implements ElevationSource {
+        public double getOriginEast() { return 0.0; }
+        public double getOriginNorth() { return 0.0; }
+        public double getOffsetVectorX() { return 2.0; }
+        public double getOffsetVectorY() { return -2.0; }
+        public float getNoData() { return Float.NaN; }
+        public void setAltitudes(int tileX, int tileY, TerrainProfile points, int[] indices, int from, int to,
+                int tileSize, double scaleFactor, Interpolation interpolation) {
+            for (int i = from; i < to; i++) {
+                points.setAltitude(indices[i], 100.0f);
+            }
+        }
+    }
+
+    @Test
+    public void profilesAreCounted() throws ServiceException {
+        TerrainProfileMetrics metrics = TerrainProfileMetrics.get();
+        long profiles = metrics.getRequests(RequestType.PROFILE);
+        long points = metrics.getPoints();
+        long tiles = metrics.getTiles();
+        long sf = metrics.getScaleFactorCount(2);
+        long scaleFactorTimings = metrics.getTimer(Stage.SCALE_FACTOR).getCount();
+        long tileTimings = metrics.getTimer(Stage.TILE).getCount();
+
+        TerrainProfileService tps = new TerrainProfileService(new FlatSource(), null, 0L);
+        tps.getTerrainProfile(new double[] { 10, -10, 500, -10 }, 50, 0.25);
+
+        assertEquals(profiles + 1, metrics.getRequests(RequestType.PROFILE));
+        assertEquals(points + 50, metrics.getPoints());
+        assertEquals(tiles + 1, metrics.getTiles());
+        assertEquals(sf + 1, metrics.getScaleFactorCount(2));
+        assertEquals(scaleFactorTimings + 1, metrics.getTimer(Stage.SCALE_FACTOR).getCount());
+        assertEquals(tileTimings + 1, metrics.getTimer(Stage.TILE).getCount());
+    }
+
+    @Test
+    public void adaptiveProfileIsCountedOnce() throws ServiceException {
+        TerrainProfileMetrics metrics = TerrainProfileMetrics.get();
+        long profiles = metrics.getRequests(RequestType.PROFILE);
+        long points = metrics.getPoints();
+        long sf = metrics.getScaleFactorCount(0);
+
+        TerrainProfileService tps = new TerrainProfileService(new FlatSource(), null, 0L);
+        tps.getTerrainProfile(new TerrainProfileRequest(new double[] { 10, -10, 500, -10 }, 100, 1.0,
+                Interpolation.NEAREST, Sampling.ADAPTIVE));
+
+        // The pilot is part of the profile, not a profile of its own
+        assertEquals(profiles + 1, metrics.getRequests(RequestType.PROFILE));
+        assertEquals(points + 100, metrics.getPoints());
+        assertEquals(sf + 1, metrics.getScaleFactorCount(0));
+    }
+
+    @Test
+    public void timerKeepsCountTotalAndMax() {
+        TerrainProfileMetrics.Timer timer = new TerrainProfileMetrics().getTimer(Stage.WCS_DOWNLOAD);
+        timer.record(300);
+        timer.record(100);
+        assertEquals(2, timer.getCount());
+        assertEquals(400, timer.getTotalNanos());
+        assertEquals(300, timer.getMaxNanos());
+    }
+
+    @Test
+    public void writesPrometheusFormat() throws IOException {
+        TerrainProfileMetrics metrics = new TerrainProfileMetrics();
+        metrics.countRequests(RequestType.PROFILE, 3);
+        metrics.countBytesDownloaded(1024);
+        metrics.countScaleFactor(0.125);
+        metrics.getTimer(Stage.WRITE_RESPONSE).record(1500000000L);
+
+        StringWriter out = new StringWriter();
+        metrics.writePrometheus(out);
+        String text = out.toString();
+        assertTrue(text.contains("# TYPE terrain_profile_requests_total counter\n"
+                + "terrain_profile_requests_total{type=\"profile\"} 3\n"
+                + "terrain_profile_requests_total{type=\"points\"} 0\n"));
+        assertTrue(text.contains("terrain_profile_wcs_bytes_total 1024\n"));
+        assertTrue(text.contains("terrain_profile_scale_factor_total{scale_factor=\"1/8\"} 1\n"));
+        assertTrue(text.contains("terrain_profile_scale_factor_total{scale_factor=\"1\"} 0\n"));
+        assertTrue(text.contains("terrain_profile_stage_seconds_count{stage=\"write_response\"} 1\n"));
+        assertTrue(text.contains("terrain_profile_stage_seconds_sum{stage=\"write_response\"} 1.500000\n"));
+    }
+
+    @Test
+    public void writesJson() throws IOException {
+        TerrainProfileMetrics metrics = new TerrainProfileMetrics();
+        metrics.countTiles(7);
+        metrics.getTimer(Stage.TILE).record(2000000L);
+
+        StringWriter out = new StringWriter();
+        try (JsonGenerator json = new JsonFactory().createGenerator(out)) {
+            metrics.writeJson(json);
+        }
+        Map<?, ?> map = new ObjectMapper().readValue(out.toString(), Map.class);
+        assertEquals(7, map.get("tiles"));
+        Map<?, ?> tile = (Map<?, ?>) ((Map<?, ?>) map.get("stages")).get("tile");
+        assertEquals(1, tile.get("count"));
+        assertEquals(2.0, ((Number) tile.get("totalMs")).doubleValue(), 0.0);
+    }
+
+    @Test
+    public void includesHttpClientCounters() throws IOException {
+        TerrainProfileMetrics metrics = new TerrainProfileMetrics();
+        try (PooledHttpClient http = new PooledHttpClient(10, 2, 1000, 1000, 1000, 30000)) {
+            StringWriter out = new StringWriter();
+            try (JsonGenerator json = new JsonFactory().createGenerator(out)) {
+                metrics.writeJson(json, http);
+            }
+            Map<?, ?> map = new ObjectMapper().readValue(out.toString(), Map.class);
+            Map<?, ?> client = (Map<?, ?>) map.get("httpClient");
+            assertEquals(0, client.get("requests"));
+            assertEquals(0, client.get("leased"));
+
+            StringWriter text = new StringWriter();
+            metrics.writePrometheus(text, http);
+            assertTrue(text.toString().contains("http_client_requests_total 0\n"));
+            assertTrue(text.toString().contains("http_client_connections{state=\"available\"} 0\n"));
+        }
+    }
+
+}
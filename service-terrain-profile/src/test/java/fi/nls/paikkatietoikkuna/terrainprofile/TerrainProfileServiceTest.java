@@ -4,7 +4,6 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 
 import java.io.IOException;
-import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -38,14 +37,14 @@ public class TerrainProfileServiceTest {
                 500502, 6823206
         };
 
-        List<DataPoint> points = tps.getTerrainProfile(coordinates, 0, -1);
-        for (DataPoint p : points) {
-            double e = p.getE();
-            double n = p.getN();
-            DataPoint single = tps.getTerrainProfile(new double[] { e, n }, 0, -1).get(0);
-            assertEquals(e, single.getE(), 0.0);
-            assertEquals(n, single.getN(), 0.0);
-            assertEquals(p.getAltitude(), single.getAltitude(), 0.0);
+        TerrainProfile points = tps.getTerrainProfile(coordinates, 0, -1);
+        for (int i = 0; i < points.size(); i++) {
+            double e = points.getE(i);
+            double n = points.getN(i);
+            TerrainProfile single = tps.getTerrainProfile(new double[] { e, n }, 0, -1);
+            assertEquals(e, single.getE(0), 0.0);
+            assertEquals(n, single.getN(0), 0.0);
+            assertEquals(points.getAltitude(i), single.getAltitude(0), 0.0);
         }
     }
 
@@ -57,9 +56,9 @@ public class TerrainProfileServiceTest {
                 532571, 7762366
         };
 
-        List<DataPoint> points = tps.getTerrainProfile(coordinates, 100, -1);
-        for (DataPoint p : points) {
-            assertNotEquals(0, p.getAltitude(), 0);
+        TerrainProfile points = tps.getTerrainProfile(coordinates, 100, -1);
+        for (int i = 0; i < points.size(); i++) {
+            assertNotEquals(0, points.getAltitude(i), 0);
         }
     }
 
@@ -70,9 +69,9 @@ public class TerrainProfileServiceTest {
                 404094, 6700000
         };
 
-        List<DataPoint> points = tps.getTerrainProfile(coordinates, 100, -1);
-        for (DataPoint p : points) {
-            assertNotEquals(0, p.getAltitude(), 0);
+        TerrainProfile points = tps.getTerrainProfile(coordinates, 100, -1);
+        for (int i = 0; i < points.size(); i++) {
+            assertNotEquals(0, points.getAltitude(i), 0);
         }
     }
 
@@ -83,9 +82,9 @@ public class TerrainProfileServiceTest {
                 400000, 6704094
         };
 
-        List<DataPoint> points = tps.getTerrainProfile(coordinates, 100, -1);
-        for (DataPoint p : points) {
-            assertNotEquals(0, p.getAltitude(), 0);
+        TerrainProfile points = tps.getTerrainProfile(coordinates, 100, -1);
+        for (int i = 0; i < points.size(); i++) {
+            assertNotEquals(0, points.getAltitude(i), 0);
         }
     }
 
@@ -98,9 +97,9 @@ public class TerrainProfileServiceTest {
                 400000, 6700256
         };
 
-        List<DataPoint> points = tps.getTerrainProfile(coordinates, 100, -1);
-        for (DataPoint p : points) {
-            assertNotEquals(0, p.getAltitude(), 0);
+        TerrainProfile points = tps.getTerrainProfile(coordinates, 100, -1);
+        for (int i = 0; i < points.size(); i++) {
+            assertNotEquals(0, points.getAltitude(i), 0);
         }
     }
 
@@ -0,0 +1,135 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fi.nls.oskari.service.ServiceException;
+
+public class TiledGridElevationSourceTest {
+
+    private static final int TILE_SIZE = 4;
+    private static final float NODATA = -9999.0f;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+
+    /**
+     * 2x1 tiles of 4x4 cells, cell size 10m, origin (center of upper-left cell)
+     * at 500005,6800095 - altitude of a cell is 100 * col + row
+     */
+    @Before
+    public void writeGrid() throws IOException {
+        dir = folder.getRoot().toPath();
+        Properties metadata = new Properties();
+        metadata.setProperty(TiledGridElevationSource.KEY_ORIGIN_EAST, "500005");
+        metadata.setProperty(TiledGridElevationSource.KEY_ORIGIN_NORTH, "6800095");
+        metadata.setProperty(TiledGridElevationSource.KEY_CELL_SIZE, "10");
+        metadata.setProperty(TiledGridElevationSource.KEY_TILE_WIDTH, Integer.toString(TILE_SIZE));
+        metadata.setProperty(TiledGridElevationSource.KEY_TILE_HEIGHT, Integer.toString(TILE_SIZE));
+        metadata.setProperty(TiledGridElevationSource.KEY_NODATA, Float.toString(NODATA));
+        try (OutputStream out = Files.newOutputStream(dir.resolve(TiledGridElevationSource.METADATA_FILE))) {
+            metadata.store(out, null);
+        }
+        for (int tileX = 0; tileX < 2; tileX++) {
+            float[] values = new float[TILE_SIZE * TILE_SIZE];
+            for (int y = 0; y < TILE_SIZE; y++) {
+                for (int x = 0; x < TILE_SIZE; x++) {
+                    int col = tileX * TILE_SIZE + x;
+                    values[y * TILE_SIZE + x] = 100 * col + y;
+                }
+            }
+            TiledGridElevationSource.writeTile(dir, tileX, 0, values, ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    @Test
+    public void getAltitudeReturnsValueOfNearestCell() throws ServiceException {
+        TiledGridElevationSource source = new TiledGridElevationSource(dir);
+        assertEquals(0.0f, source.getAltitude(500005, 6800095), 0.0f);
+        assertEquals(0.0f, source.getAltitude(500001, 6800099), 0.0f);
+        assertEquals(302.0f, source.getAltitude(500035, 6800075), 0.0f);
+        // Second tile
+        assertEquals(501.0f, source.getAltitude(500054, 6800086), 0.0f);
+        assertEquals(703.0f, source.getAltitude(500075, 6800065), 0.0f);
+    }
+
+    @Test
+    public void whenOutsideGridGetAltitudeReturnsNoData() throws ServiceException {
+        TiledGridElevationSource source = new TiledGridElevationSource(dir);
+        assertEquals(NODATA, source.getAltitude(499990, 6800095), 0.0f);
+        assertEquals(NODATA, source.getAltitude(500005, 6800110), 0.0f);
+        // Tile 0_1 doesn't exist
+        assertEquals(NODATA, source.getAltitude(500005, 6800055), 0.0f);
+    }
+
+    @Test
+    public void bilinearInterpolationBlendsNeighbouringCells() throws ServiceException {
+        TiledGridElevationSource source = new TiledGridElevationSource(dir);
+        // Halfway between cols 3 and 4 (across the tile boundary), rows 1 and 2
+        assertEquals(351.5f, source.getAltitude(500040, 6800080, Interpolation.BILINEAR), 1e-3f);
+        // Values are linear in the grid so bicubic must agree
+        assertEquals(351.5f, source.getAltitude(500040, 6800080, Interpolation.BICUBIC), 1e-3f);
+        assertEquals(327.5f, source.getAltitude(500037.5, 6800070, Interpolation.BILINEAR), 1e-3f);
+    }
+
+    @Test
+    public void terrainProfileIsServedFromGrid() throws ServiceException {
+        TerrainProfileService tps = new TerrainProfileService(
+                new TiledGridElevationSource(dir), null, 0L);
+        double[] line = { 500005, 6800085, 500075, 6800085 };
+        TerrainProfile profile = tps.getTerrainProfile(line, 8, 1.0);
+        assertEquals(8, profile.size());
+        for (int i = 0; i < profile.size(); i++) {
+            assertEquals(i * 10.0, profile.getDistFromStart(i), 1e-6);
+            assertEquals(100 * i + 1, profile.getAltitude(i), 0.0f);
+        }
+    }
+
+    @Test
+    public void batchOfProfilesSharesTileRequests() throws ServiceException {
+        TiledGridElevationSource grid = new TiledGridElevationSource(dir);
+        AtomicInteger requests = new AtomicInteger();
+        ElevationSource counting = new ElevationSource() {
+            public double getOriginEast() { return grid.getOriginEast(); }
+            public double getOriginNorth() { return grid.getOriginNorth(); }
+            public double getOffsetVectorX() { return grid.getOffsetVectorX(); }
+            public double getOffsetVectorY() { return grid.getOffsetVectorY(); }
+            public float getNoData() { return grid.getNoData(); }
+            public void setAltitudes(int tileX, int tileY, TerrainProfile points, int[] indices, int from, int to,
+                    int tileSize, double scaleFactor, Interpolation interpolation) throws ServiceException {
+                requests.incrementAndGet();
+                grid.setAltitudes(tileX, tileY, points, indices, from, to, tileSize, scaleFactor, interpolation);
+            }
+        };
+        TerrainProfileService tps = new TerrainProfileService(counting, null, 0L);
+        double[] line = { 500005, 6800085, 500075, 6800085 };
+        double[] reversed = { 500075, 6800085, 500005, 6800085 };
+        List<TerrainProfile> profiles = tps.getTerrainProfiles(Arrays.asList(
+                new TerrainProfileRequest(line, 8, 1.0, Interpolation.NEAREST),
+                new TerrainProfileRequest(reversed, 8, 1.0, Interpolation.NEAREST)));
+
+        assertEquals(1, requests.get());
+        assertEquals(2, profiles.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(100 * i + 1, profiles.get(0).getAltitude(i), 0.0f);
+            assertEquals(100 * (7 - i) + 1, profiles.get(1).getAltitude(i), 0.0f);
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fi.nls.oskari.control.ActionException;
+import fi.nls.oskari.control.ActionParameters;
+import fi.nls.oskari.control.ActionParamsException;
+import fi.nls.paikkatietoikkuna.terrainprofile.TerrainProfileMetrics.RequestType;
+import fi.nls.test.control.MockServletOutputStream;
+
+public class VisibilityHandlerTest {
+
+    /**
+     * 10m cells, flat ground at 0m with a 50m high wall at 100 <= e < 120
+     */
+    private static class WallSource implements ElevationSource {
+
+        private double minScaleFactor = 1.0;
+
+        public double getOriginEast() { return 0.0; }
+        public double getOriginNorth() { return 0.0; }
+        public double getOffsetVectorX() { return 10.0; }
+        public double getOffsetVectorY() { return -10.0; }
+        public float getNoData() { return Float.NaN; }
+
+        public void setAltitudes(int tileX, int tileY, TerrainProfile points, int[] indices, int from, int to,
+                int tileSize, double scaleFactor, Interpolation interpolation) {
+            minScaleFactor = Math.min(minScaleFactor, scaleFactor);
+            for (int i = from; i < to; i++) {
+                double e = points.getE(indices[i]);
+                points.setAltitude(indices[i], e >= 100 && e < 120 ? 50.0f : 0.0f);
+            }
+        }
+    }
+
+    private Map<String, Object> request(String... keyValues) throws ActionException, IOException {
+        return request(new WallSource(), keyValues);
+    }
+
+    private Map<String, Object> request(ElevationSource source, String... keyValues)
+            throws ActionException, IOException {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        for (int i = 0; i < keyValues.length; i += 2) {
+            when(request.getParameter(keyValues[i])).thenReturn(keyValues[i + 1]);
+        }
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(new MockServletOutputStream(baos));
+        ActionParameters params = new ActionParameters();
+        params.setRequest(request);
+        params.setResponse(response);
+
+        VisibilityHandler handler = new VisibilityHandler(new TerrainProfileService(source, null, 0L));
+        handler.init();
+        handler.handleAction(params);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> json = new ObjectMapper().readValue(baos.toByteArray(), Map.class);
+        return json;
+    }
+
+    @Test
+    public void wallBlocksLineOfSight() throws Exception {
+        Map<String, Object> json = request("observer", "0,-500", "target", "300,-500");
+        assertEquals(false, json.get("visible"));
+        List<?> obstruction = (List<?>) json.get("obstruction");
+        double e = ((Number) obstruction.get(0)).doubleValue();
+        assertEquals(true, e >= 100 && e < 120);
+
+        json = request("observer", "0,-500", "target", "300,-500", "observerHeight", "200");
+        assertEquals(true, json.get("visible"));
+        assertEquals(300.0, ((Number) json.get("distance")).doubleValue(), 1e-9);
+    }
+
+    @Test
+    public void lineOfSightIsNotCountedAsProfile() throws Exception {
+        TerrainProfileMetrics metrics = TerrainProfileMetrics.get();
+        long profiles = metrics.getRequests(RequestType.PROFILE);
+        long lines = metrics.getRequests(RequestType.LINE_OF_SIGHT);
+        long viewsheds = metrics.getRequests(RequestType.VIEWSHED);
+        request("observer", "0,-500", "target", "300,-500");
+        request("observer", "0,-500", "radius", "100");
+        assertEquals(profiles, metrics.getRequests(RequestType.PROFILE));
+        assertEquals(lines + 1, metrics.getRequests(RequestType.LINE_OF_SIGHT));
+        assertEquals(viewsheds + 1, metrics.getRequests(RequestType.VIEWSHED));
+    }
+
+    @Test
+    public void longLineOfSightUsesNativeResolution() throws Exception {
+        // 3000 cells, TerrainProfileService would choose scale factor 0.5 by itself
+        WallSource source = new WallSource();
+        Map<String, Object> json = request(source, "observer", "0,-500", "target", "30000,-500");
+        assertEquals(false, json.get("visible"));
+        assertEquals(1.0, source.minScaleFactor, 0.0);
+    }
+
+    @Test(expected = ActionParamsException.class)
+    public void tooDistantTargetThrowsActionParamsException() throws Exception {
+        request("observer", "0,-500", "target", "40000,-500");
+    }
+
+    @Test
+    public void wallCastsShadowInViewshed() throws Exception {
+        Map<String, Object> json = request("observer", "0,-500", "radius", "200");
+        int size = (Integer) json.get("width");
+        assertEquals(41, size);
+        assertEquals(10.0, ((Number) json.get("cellSize")).doubleValue(), 0.0);
+        byte[] data = Base64.getDecoder().decode((String) json.get("data"));
+        assertEquals(size * size, data.length);
+        int row = size / 2;
+        // Observer is in the center, the wall is 10 cells east of it
+        assertEquals(Visibility.VISIBLE, data[row * size + 20]);
+        assertEquals(Visibility.VISIBLE, data[row * size + 25]);
+        assertEquals(Visibility.HIDDEN, data[row * size + 35]);
+        assertEquals(Visibility.VISIBLE, data[row * size + 5]);
+        // Corner is outside the radius
+        assertEquals(Visibility.NODATA, data[0]);
+    }
+
+    @Test(expected = ActionParamsException.class)
+    public void missingTargetAndRadiusThrowsActionParamsException() throws Exception {
+        request("observer", "0,-500");
+    }
+
+    @Test(expected = ActionParamsException.class)
+    public void invalidObserverThrowsActionParamsException() throws Exception {
+        request("observer", "0;-500", "radius", "100");
+    }
+
+}
@@ -0,0 +1,95 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class VisibilityTest {
+
+    private static final float NODATA = -9999.0f;
+
+    private static TerrainProfile profile(float... altitudes) {
+        TerrainProfile profile = new TerrainProfile(altitudes.length);
+        for (int i = 0; i < altitudes.length; i++) {
+            profile.setPoint(i, i * 10.0, 0.0, i * 10.0);
+            profile.setAltitude(i, altitudes[i]);
+        }
+        return profile;
+    }
+
+    @Test
+    public void flatTerrainIsVisible() {
+        TerrainProfile p = profile(0, 0, 0, 0, 0);
+        assertEquals(-1, Visibility.getObstruction(p, NODATA, 1.7, 0.0, false));
+    }
+
+    @Test
+    public void ridgeBlocksTheView() {
+        TerrainProfile p = profile(0, 0, 5, 0, 0);
+        assertEquals(2, Visibility.getObstruction(p, NODATA, 1.7, 0.0, false));
+        // Tall enough observer sees over it
+        assertEquals(-1, Visibility.getObstruction(p, NODATA, 11.0, 0.0, false));
+        // as does a tall enough target
+        assertEquals(-1, Visibility.getObstruction(p, NODATA, 1.7, 20.0, false));
+    }
+
+    @Test
+    public void noDataDoesNotBlock() {
+        TerrainProfile p = profile(0, NODATA, Float.NaN, 0);
+        assertEquals(-1, Visibility.getObstruction(p, NODATA, 1.7, 0.0, false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void observerWithoutDataThrows() {
+        Visibility.getObstruction(profile(NODATA, 0, 0), NODATA, 1.7, 0.0, false);
+    }
+
+    @Test
+    public void curvatureHidesDistantTargets() {
+        // Eye at 2m sees the horizon at about 5km, a target on the ground 20km away is hidden
+        int n = 201;
+        TerrainProfile p = new TerrainProfile(n);
+        for (int i = 0; i < n; i++) {
+            p.setPoint(i, i * 100.0, 0.0, i * 100.0);
+            p.setAltitude(i, 0.0f);
+        }
+        assertEquals(-1, Visibility.getObstruction(p, NODATA, 2.0, 0.0, false));
+        assertEquals(true, Visibility.getObstruction(p, NODATA, 2.0, 0.0, true) > 0);
+        assertEquals(27.3, Visibility.getCurvatureDrop(20000.0), 0.1);
+    }
+
+    @Test
+    public void wallCastsAShadowInTheViewshed() {
+        int size = 11;
+        float[] dem = new float[size * size];
+        // Wall two cells east of the observer (center at column 5)
+        for (int row = 0; row < size; row++) {
+            dem[row * size + 7] = 10.0f;
+        }
+        byte[] v = Visibility.getViewshed(dem, size, NODATA, 10.0, 1000.0, 1.7, 0.0, false);
+        int c = size / 2;
+        assertEquals(Visibility.VISIBLE, v[c * size + c]);
+        assertEquals(Visibility.VISIBLE, v[c * size + 6]);
+        assertEquals(Visibility.VISIBLE, v[c * size + 7]);
+        assertEquals(Visibility.HIDDEN, v[c * size + 8]);
+        assertEquals(Visibility.HIDDEN, v[c * size + 10]);
+        // West side is open
+        assertEquals(Visibility.VISIBLE, v[c * size]);
+    }
+
+    @Test
+    public void cellsOutsideTheRadiusAreNoData() {
+        int size = 5;
+        float[] dem = new float[size * size];
+        byte[] v = Visibility.getViewshed(dem, size, NODATA, 10.0, 20.0, 1.7, 0.0, false);
+        assertEquals(Visibility.NODATA, v[0]);
+        assertEquals(Visibility.VISIBLE, v[2]);
+        byte[] all = Visibility.getViewshed(dem, size, NODATA, 10.0, 100.0, 1.7, 0.0, false);
+        byte[] expected = new byte[size * size];
+        Arrays.fill(expected, Visibility.VISIBLE);
+        assertEquals(Arrays.toString(expected), Arrays.toString(all));
+    }
+
+}
@@ -0,0 +1,225 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import fi.nls.oskari.service.ServiceException;
+
+public class WCSElevationSourceTest {
+
+    @Test
+    public void diagonalLineIsSplitIntoSmallSubsets() {
+        TerrainProfile points = new TerrainProfile(100);
+        for (int i = 0; i < 100; i++) {
+            points.setGridCell(i, i * 10, i * 10, 0, 0);
+        }
+        // 31x31 box is the largest that fits into 1024 cells
+        List<Integer> ends = getCorridorEnds(points, 0, 1024);
+        assertEquals(25, ends.size());
+        assertEquals(4, (int) ends.get(0));
+        assertEquals(100, (int) ends.get(ends.size() - 1));
+    }
+
+    @Test
+    public void horizontalLineIsNotSplit() {
+        TerrainProfile points = new TerrainProfile(100);
+        for (int i = 0; i < 100; i++) {
+            points.setGridCell(i, i * 10, 5, 0, 0);
+        }
+        List<Integer> ends = getCorridorEnds(points, 0, 1024);
+        assertEquals(1, ends.size());
+        assertEquals(100, (int) ends.get(0));
+    }
+
+    @Test
+    public void marginIsIncludedInTheArea() {
+        TerrainProfile points = new TerrainProfile(3);
+        points.setGridCell(0, 0, 0, 0, 0);
+        points.setGridCell(1, 1, 0, 0, 0);
+        points.setGridCell(2, 2, 0, 0, 0);
+        int[] indices = { 0, 1, 2 };
+        // (3 + 2 * 2) * (1 + 2 * 2) = 35
+        assertEquals(3, WCSElevationSource.getCorridorEnd(points, indices, 0, 3, 2, 35));
+        assertEquals(2, WCSElevationSource.getCorridorEnd(points, indices, 0, 3, 2, 34));
+        // A single point is always accepted
+        assertEquals(1, WCSElevationSource.getCorridorEnd(points, indices, 0, 3, 2, 1));
+        // Only the points in the range are considered
+        assertEquals(2, WCSElevationSource.getCorridorEnd(points, indices, 0, 2, 2, 35));
+    }
+
+    @Test
+    public void corridorCellsAreTheAreaOfTheSubsets() {
+        TerrainProfile points = new TerrainProfile(100);
+        for (int i = 0; i < 100; i++) {
+            points.setGridCell(i, i * 10, i * 10, 0, 0);
+        }
+        int[] indices = new int[100];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        // 24 boxes of 4 points (31x31 cells) and one of 4 points
+        assertEquals(25 * 31 * 31, WCSElevationSource.getCorridorCells(points, indices, 0, 100, 0, 1024));
+        // A diagonal across a 1000x1000 tile covers a small part of it
+        assertTrue(WCSElevationSource.getCorridorCells(points, indices, 0, 100, 2, 128 * 128) < 1000 * 1000 / 4);
+    }
+
+    @Test
+    public void interpolationIsContinuousAcrossCachedTiles() {
+        // 24x8 grid, 8x8 tiles, cached tiles are 12x12 with the margin
+        int width = 24;
+        int height = 8;
+        int tileSize = 8;
+        float[] values = new float[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                values[y * width + x] = x * x + 3 * y;
+            }
+        }
+        DemTile grid = new DemTile(width, height, values);
+        DemTile tile0 = getCachedTile(values, width, height, tileSize, 0);
+        DemTile tile1 = getCachedTile(values, width, height, tileSize, 1);
+        int min0 = WCSElevationSource.getCachedTileMin(0, tileSize);
+        int min1 = WCSElevationSource.getCachedTileMin(1, tileSize);
+        assertEquals(-2, min0);
+        assertEquals(6, min1);
+
+        for (Interpolation interpolation : Interpolation.values()) {
+            // gridX 7 belongs to tile 0, gridX 8 to tile 1
+            for (double x : new double[] { 6.9, 7.4, 7.6, 8.1 }) {
+                DemTile tile = Math.round(x) < tileSize ? tile0 : tile1;
+                int min = Math.round(x) < tileSize ? min0 : min1;
+                assertEquals(interpolation + " " + x,
+                        interpolation.sample(grid, x, 3.3, Float.NaN),
+                        interpolation.sample(tile, x - min, 3.3 - min0, Float.NaN), 1e-3f);
+            }
+        }
+        // Cells before the start of the grid are noData
+        assertTrue(Float.isNaN(tile0.getValue(0, 0)));
+        assertEquals(values[0], tile0.getValue(2, 2), 0.0f);
+    }
+
+    /**
+     * Copy the cached tile the same way WCSElevationSource does: the
+     * request is clipped to the grid, like the WCS clips the subset
+     */
+    private DemTile getCachedTile(float[] values, int width, int height, int tileSize, int tileX) {
+        int margin = WCSElevationSource.TILE_MARGIN;
+        int size = tileSize + 2 * margin;
+        int minX = WCSElevationSource.getCachedTileMin(tileX, tileSize);
+        int minY = WCSElevationSource.getCachedTileMin(0, tileSize);
+        int x0 = Math.max(0, minX);
+        int y0 = Math.max(0, minY);
+        int x1 = Math.min(width, minX + size);
+        int y1 = Math.min(height, minY + size);
+        float[] subset = new float[(x1 - x0) * (y1 - y0)];
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                subset[(y - y0) * (x1 - x0) + x - x0] = values[y * width + x];
+            }
+        }
+        FloatGeoTIFF tiff = new FloatGeoTIFF(TIFFFixtures.createTIFF(subset, x1 - x0, y1 - y0, 16));
+        return DemTile.copyOf(tiff, x0 - minX, y0 - minY, size, size, Float.NaN);
+    }
+
+    @Test
+    public void uncachedRequestAtTheEdgeOfTheCoverageIsNotShifted() throws ServiceException {
+        // 24x8 grid of 10m cells, origin (center of upper-left cell) at 500005,6800155
+        int width = 24;
+        int height = 8;
+        float[] values = new float[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                values[y * width + x] = x * x + 3 * y;
+            }
+        }
+        WCSMetadata m = mock(WCSMetadata.class);
+        when(m.getOriginEast()).thenReturn(500005.0);
+        when(m.getOriginNorth()).thenReturn(6800155.0);
+        when(m.getOffsetVectorX()).thenReturn(10.0);
+        when(m.getOffsetVectorY()).thenReturn(-10.0);
+        WCSMetadataProvider metadata = new WCSMetadataProvider("http://localhost/wcs", "dem", null) {
+            @Override
+            public boolean isAvailable() {
+                return true;
+            }
+
+            @Override
+            public WCSMetadata get() {
+                return m;
+            }
+        };
+        List<int[]> requests = new ArrayList<>();
+        WCSElevationSource source = new WCSElevationSource(metadata, null, Float.NaN) {
+            @Override
+            protected FloatGeoTIFF getCoverage(WCSMetadata md, int minGridX, int minGridY, int maxGridX, int maxGridY,
+                    double scaleFactor, double dx, double dy) {
+                requests.add(new int[] { minGridX, minGridY });
+                // Like the WCS, clip the subset to the grid
+                int x0 = Math.max(0, minGridX);
+                int y0 = Math.max(0, minGridY);
+                int x1 = Math.min(width - 1, maxGridX);
+                int y1 = Math.min(height - 1, maxGridY);
+                int w = x1 - x0 + 1;
+                int h = y1 - y0 + 1;
+                float[] subset = new float[w * h];
+                for (int y = y0; y <= y1; y++) {
+                    for (int x = x0; x <= x1; x++) {
+                        subset[(y - y0) * w + x - x0] = values[y * width + x];
+                    }
+                }
+                return new FloatGeoTIFF(TIFFFixtures.createTIFF(subset, w, h, 16));
+            }
+        };
+        assertFalse(source.isCached());
+        TerrainProfileService tps = new TerrainProfileService(source, null, 0L);
+
+        // First column, first row and a point well inside the grid
+        double[] coords = {
+                500005 + 0.3 * 10, 6800155 - 3.4 * 10,
+                500005 + 5.6 * 10, 6800155 - 0.2 * 10,
+                500005 + 10.5 * 10, 6800155 - 3.5 * 10
+        };
+        TerrainProfile profile = tps.getElevations(coords, 1.0, Interpolation.BICUBIC);
+        // The cells before the grid are noData, so the nearest cell is used like with a cached tile
+        assertEquals(values[3 * width], profile.getAltitude(0), 0.0f);
+        assertEquals(values[6], profile.getAltitude(1), 0.0f);
+        DemTile grid = new DemTile(width, height, values);
+        assertEquals(Interpolation.BICUBIC.sample(grid, 10.5, 3.5, Float.NaN), profile.getAltitude(2), 1e-3f);
+        for (int[] request : requests) {
+            assertTrue(request[0] >= 0);
+            assertTrue(request[1] >= 0);
+        }
+    }
+
+    @Test(expected = ServiceException.class)
+    public void profileFailsUntilMetadataIsAvailable() throws ServiceException {
+        WCSMetadataProvider metadata = new WCSMetadataProvider("http://localhost/wcs", "dem", null);
+        WCSElevationSource source = new WCSElevationSource(metadata, null, Float.NaN);
+        assertFalse(source.isReady());
+        TerrainProfileService tps = new TerrainProfileService(source, null, 0L);
+        tps.getTerrainProfile(new double[] { 0, 0, 100, 100 }, 10, 1.0);
+    }
+
+    private List<Integer> getCorridorEnds(TerrainProfile points, int margin, int maxCells) {
+        int[] indices = new int[points.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        List<Integer> ends = new ArrayList<>();
+        int from = 0;
+        while (from < indices.length) {
+            from = WCSElevationSource.getCorridorEnd(points, indices, from, indices.length, margin, maxCells);
+            ends.add(from);
+        }
+        return ends;
+    }
+
+}
@@ -0,0 +1,140 @@
+package fi.nls.paikkatietoikkuna.terrainprofile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fi.nls.oskari.service.ServiceException;
+
+public class WCSMetadataProviderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * WCS that is down, counts down the latch on every attempt
+     */
+    private static class UnreachableProvider extends WCSMetadataProvider {
+
+        private final CountDownLatch attempts;
+
+        UnreachableProvider(Path snapshotDir, CountDownLatch attempts) {
+            super("http://localhost:1/wcs", "korkeusmalli_2m", snapshotDir);
+            this.attempts = attempts;
+        }
+
+        @Override
+        protected byte[] fetch(Map<String, String> params) throws IOException {
+            attempts.countDown();
+            throw new IOException("Connection refused");
+        }
+    }
+
+    @Test(expected = ServiceException.class)
+    public void getThrowsUntilMetadataIsAvailable() throws ServiceException {
+        WCSMetadataProvider provider = new WCSMetadataProvider("http://localhost/wcs", "dem", null);
+        assertFalse(provider.isAvailable());
+        provider.get();
+    }
+
+    @Test
+    public void missingSnapshotIsNotLoaded() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        WCSMetadataProvider provider = new WCSMetadataProvider("http://localhost/wcs", "dem", dir);
+        assertFalse(provider.loadSnapshot());
+        assertFalse(provider.isAvailable());
+    }
+
+    @Test
+    public void failedRefreshWritesNoSnapshot() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        WCSMetadataProvider provider = new UnreachableProvider(dir, new CountDownLatch(1));
+        try {
+            provider.refresh();
+        } catch (ServiceException expected) {
+            // WCS is down
+        }
+        assertFalse(provider.isAvailable());
+        assertEquals(0, Files.list(dir).count());
+    }
+
+    @Test
+    public void invalidSnapshotIsIgnored() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        WCSMetadataProvider provider = new WCSMetadataProvider("http://localhost/wcs", "dem", dir);
+        byte[] garbage = "<html>Not found</html>".getBytes(StandardCharsets.UTF_8);
+        Files.write(dir.resolve(provider.getSnapshotFileName(WCSMetadataProvider.SNAPSHOT_FILE_SUFFIX)),
+                WCSMetadataProvider.toSnapshot(garbage, garbage));
+        assertFalse(provider.loadSnapshot());
+        assertFalse(provider.isAvailable());
+    }
+
+    @Test
+    public void snapshotContainsBothResponses() throws IOException {
+        byte[] capabilities = "<Capabilities/>".getBytes(StandardCharsets.UTF_8);
+        byte[] describeCoverage = "<CoverageDescriptions/>".getBytes(StandardCharsets.UTF_8);
+        byte[][] responses = WCSMetadataProvider.readSnapshot(
+                WCSMetadataProvider.toSnapshot(capabilities, describeCoverage));
+        assertArrayEquals(capabilities, responses[0]);
+        assertArrayEquals(describeCoverage, responses[1]);
+    }
+
+    @Test
+    public void truncatedSnapshotIsRejected() {
+        byte[] snapshot = WCSMetadataProvider.toSnapshot(
+                "<Capabilities/>".getBytes(StandardCharsets.UTF_8),
+                "<CoverageDescriptions/>".getBytes(StandardCharsets.UTF_8));
+        for (int length : new int[] { 0, 3, 10, snapshot.length - 1 }) {
+            try {
+                WCSMetadataProvider.readSnapshot(Arrays.copyOf(snapshot, length));
+                fail("Accepted snapshot truncated to " + length + " bytes");
+            } catch (IOException expected) {
+                // Truncated
+            }
+        }
+    }
+
+    @Test
+    public void startDoesNotBlockAndRetriesInBackground() throws InterruptedException {
+        CountDownLatch attempts = new CountDownLatch(3);
+        WCSMetadataProvider provider = new UnreachableProvider(null, attempts);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            provider.start(scheduler, TimeUnit.MINUTES.toMillis(60), 10L);
+            assertFalse(provider.isAvailable());
+            assertTrue(attempts.await(5, TimeUnit.SECONDS));
+            assertFalse(provider.isAvailable());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void snapshotFileNameDependsOnCoverageAndEndPoint() {
+        WCSMetadataProvider a = new WCSMetadataProvider("http://a/wcs", "ns:dem 2m", null);
+        WCSMetadataProvider b = new WCSMetadataProvider("http://b/wcs", "ns:dem 2m", null);
+        String name = a.getSnapshotFileName(WCSMetadataProvider.SNAPSHOT_FILE_SUFFIX);
+        assertTrue(name.startsWith("ns_dem_2m-"));
+        assertTrue(name.endsWith(WCSMetadataProvider.SNAPSHOT_FILE_SUFFIX));
+        assertNotEquals(name, b.getSnapshotFileName(WCSMetadataProvider.SNAPSHOT_FILE_SUFFIX));
+    }
+
+}